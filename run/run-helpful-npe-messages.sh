@@ -2,4 +2,6 @@
 SCRIPT_DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" >/dev/null 2>&1 && pwd )"
 source $SCRIPT_DIR/../environment
 $JAVA_HOME/bin/java -XX:+ShowCodeDetailsInExceptionMessages --enable-preview -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.npe.HelpfulNPEMessages
-#$JAVA_HOME/bin/java --enable-preview -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.npe.HelpfulNPEMessages
\ No newline at end of file
+#$JAVA_HOME/bin/java --enable-preview -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.npe.HelpfulNPEMessages
+#$JAVA_HOME/bin/java -XX:-OmitStackTraceInFastThrow --enable-preview -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.npe.NullPointerTelemetryBenchmark
+#$JAVA_HOME/bin/java --enable-preview -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.npe.PropertyPathBenchmark
\ No newline at end of file
@@ -1,4 +1,5 @@
 #!/bin/bash
 SCRIPT_DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" >/dev/null 2>&1 && pwd )"
 source $SCRIPT_DIR/../environment
-$JAVA_HOME/bin/java --enable-preview -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.pm.PatternMatchingForInstanceof
\ No newline at end of file
+$JAVA_HOME/bin/java --enable-preview -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.pm.PatternMatchingForInstanceof
+#$JAVA_HOME/bin/java --enable-preview -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.pm.TypeDispatchBenchmark
\ No newline at end of file
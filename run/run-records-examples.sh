@@ -2,3 +2,9 @@
 SCRIPT_DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" >/dev/null 2>&1 && pwd )"
 source $SCRIPT_DIR/../environment
 $JAVA_HOME/bin/java -XX:+ShowCodeDetailsInExceptionMessages --enable-preview -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.records.Records
+#$JAVA_HOME/bin/java -Xms2g -Xmx2g --enable-preview -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.records.PersonHashingBenchmark
+#$JAVA_HOME/bin/java -Xms2g -Xmx2g --enable-preview -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.records.PersonCodecBenchmark
+#$JAVA_HOME/bin/java --enable-preview --add-modules=jdk.incubator.foreign -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.records.PersonStoreExample
+#$JAVA_HOME/bin/java -Xmx4g --enable-preview --add-modules=jdk.incubator.foreign -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.records.PersonQueryBenchmark
+#$JAVA_HOME/bin/java --enable-preview --add-modules=jdk.incubator.foreign -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.records.PersonCsvIngestionExample
+#$JAVA_HOME/bin/java -Xmx2g --enable-preview -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.records.NameInterningExample
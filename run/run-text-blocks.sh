@@ -1,4 +1,7 @@
 #!/bin/bash
 SCRIPT_DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" >/dev/null 2>&1 && pwd )"
 source $SCRIPT_DIR/../environment
-$JAVA_HOME/bin/java -Dnashorn.args=--language=es6 --enable-preview -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.tb.TextBlocks
\ No newline at end of file
+$JAVA_HOME/bin/java -Dnashorn.args=--language=es6 --enable-preview -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.tb.TextBlocks
+#$JAVA_HOME/bin/java --enable-preview -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.tb.SqlTemplateBenchmark
+#$JAVA_HOME/bin/java -Dnashorn.args=--language=es6 --enable-preview -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.tb.ScriptServiceExample
+#$JAVA_HOME/bin/java --enable-preview --add-modules=jdk.incubator.foreign -cp $SCRIPT_DIR/../target/classes com.github.kbnt.java14.tb.TextTemplateBenchmark
\ No newline at end of file
@@ -0,0 +1,349 @@
+package com.github.kbnt.java14.fma;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.LongToIntFunction;
+import java.util.stream.IntStream;
+
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemoryHandles;
+import jdk.incubator.foreign.MemorySegment;
+
+import com.github.kbnt.java14.fma.NativeMemoryTracker.TrackedSegment;
+import com.github.kbnt.java14.records.Person;
+
+/**
+ * A side column for {@link SleepAnalytics}: one byte per person, at the same
+ * index as in the sleep segment, holding the age bucket of that person (ages
+ * 0-9 in bucket 0, 10-19 in bucket 1 and so on, the last bucket taking
+ * everybody older). The column is filled once from the persons (their
+ * {@link Person#age()}) and joined with the sleep data by index - no keys, no
+ * lookups.<br>
+ * <br>
+ * {@link #histogram(MemorySegment)} builds the (state &times; age bucket
+ * &times; hour) histogram in a single pass over both segments, split across
+ * the cores of the common pool. Every worker acquires its own segments and
+ * counts in its own flat array, the arrays being added up at the end - so the
+ * inner loop is two byte reads and one increment, close to the plain scan.
+ * Callers with their own workers (e.g. chunk tasks) count their ranges with
+ * {@link #count(MemorySegment, long, long, long[])} instead - the totals per
+ * hour being the sums over the buckets, the histogram replaces the plain scan.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class AgeBucketColumn implements AutoCloseable {
+  public static final int HOURS = 24;
+  private static final VarHandle BYTE_HANDLE = MemoryHandles
+      .withStride(MemoryHandles.varHandle(byte.class, ByteOrder.nativeOrder()), 1);
+  private static final byte SLEEP = (byte) 0b10000000;
+
+  private final long population;
+  private final int bucketWidth;
+  private final int buckets;
+  private final TrackedSegment column;
+
+  private AgeBucketColumn(long population, int bucketWidth, int buckets, TrackedSegment column) {
+    if (bucketWidth < 1 || buckets < 1 || buckets > 256)
+      throw new IllegalArgumentException("Invalid buckets: " + buckets + " of width " + bucketWidth);
+    this.population = population;
+    this.bucketWidth = bucketWidth;
+    this.buckets = buckets;
+    this.column = column;
+  }
+
+  /**
+   * @param population  the number of persons
+   * @param bucketWidth the number of years in a bucket
+   * @param buckets     the number of buckets (at most 256)
+   * @return a column in native memory
+   */
+  public static AgeBucketColumn allocateNative(long population, int bucketWidth, int buckets) {
+    return new AgeBucketColumn(population, bucketWidth, buckets,
+        NativeMemoryTracker.getInstance().allocateNative(population));
+  }
+
+  /**
+   * @param path        the file of the column (created, it must not exist)
+   * @param population  the number of persons
+   * @param bucketWidth the number of years in a bucket
+   * @param buckets     the number of buckets (at most 256)
+   * @return a column in a memory-mapped file
+   * @throws IOException if the file cannot be created or mapped
+   */
+  public static AgeBucketColumn mapFromPath(Path path, long population, int bucketWidth, int buckets)
+      throws IOException {
+    Files.createFile(path);
+    return new AgeBucketColumn(population, bucketWidth, buckets,
+        NativeMemoryTracker.getInstance().mapFromPath(path, population, MapMode.READ_WRITE));
+  }
+
+  public long population() {
+    return population;
+  }
+
+  public int buckets() {
+    return buckets;
+  }
+
+  /**
+   * @param bucket a bucket
+   * @return the ages of the bucket ("20-29", or "90+" for the last one)
+   */
+  public String label(int bucket) {
+    int from = bucket * bucketWidth;
+    return bucket == buckets - 1 ? from + "+" : from + "-" + (from + bucketWidth - 1);
+  }
+
+  /**
+   * @param age an age
+   * @return its bucket
+   */
+  public int bucketOf(int age) {
+    return Math.min(Math.max(age, 0) / bucketWidth, buckets - 1);
+  }
+
+  /**
+   * Sets the age of one person (owner thread only).
+   *
+   * @param index the index of the person
+   * @param age   the age of the person
+   */
+  public void set(long index, int age) {
+    BYTE_HANDLE.set(column.segment().baseAddress(), checkIndex(index), (byte) bucketOf(age));
+  }
+
+  /**
+   * @param index the index of the person
+   * @return the age bucket of the person (owner thread only)
+   */
+  public int bucket(long index) {
+    return (byte) BYTE_HANDLE.get(column.segment().baseAddress(), checkIndex(index)) & 0xFF;
+  }
+
+  /**
+   * Fills the column from the persons, in order (owner thread only).
+   *
+   * @param persons the persons, the first one having the index 0
+   * @return the number of persons read (at most the population)
+   */
+  public long fill(Iterable<? extends Person> persons) {
+    MemoryAddress base = column.segment().baseAddress();
+    Iterator<? extends Person> iterator = persons.iterator();
+    long index = 0;
+    for (; index < population && iterator.hasNext(); index++)
+      BYTE_HANDLE.set(base, index, (byte) bucketOf(iterator.next().age()));
+    return index;
+  }
+
+  /**
+   * Fills the column for the whole population (owner thread only).
+   *
+   * @param ageOf gives the age of the person with the given index
+   */
+  public void fill(LongToIntFunction ageOf) {
+    MemoryAddress base = column.segment().baseAddress();
+    for (long index = 0; index < population; index++)
+      BYTE_HANDLE.set(base, index, (byte) bucketOf(ageOf.applyAsInt(index)));
+  }
+
+  /**
+   * Builds the histogram with the common pool.
+   *
+   * @param sleepSegment the sleep data (one byte per person, at the same index)
+   * @return the histogram
+   */
+  public Histogram histogram(MemorySegment sleepSegment) {
+    return histogram(sleepSegment, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Builds the histogram with the given pool. Can be called by any thread; the
+   * sleep segment may be written concurrently (like the plain scan, the result
+   * is then an approximation).
+   *
+   * @param sleepSegment the sleep data (one byte per person, at the same index)
+   * @param pool         the pool running the scan
+   * @return the histogram
+   */
+  public Histogram histogram(MemorySegment sleepSegment, ForkJoinPool pool) {
+    if (sleepSegment.byteSize() < population)
+      throw new IllegalArgumentException("The sleep segment (" + sleepSegment.byteSize()
+          + " bytes) is not aligned with the population (" + population + ")");
+    // a few parts per worker, so a slow worker does not hold everybody back
+    int parts = (int) Math.max(1, Math.min(population / 4096, pool.getParallelism() * 4L));
+    long[] counts = pool.submit(() -> IntStream.range(0, parts).parallel().mapToObj(part -> {
+      long[] partCounts = newCounts();
+      count(sleepSegment, population * part / parts, population * (part + 1) / parts, partCounts);
+      return partCounts;
+    }).reduce(AgeBucketColumn::add).orElseGet(this::newCounts)).join();
+    return new Histogram(counts);
+  }
+
+  /**
+   * @return empty counts, for {@link #count(MemorySegment, long, long, long[])}
+   */
+  public long[] newCounts() {
+    return new long[2 * buckets * HOURS];
+  }
+
+  /**
+   * Counts a range of persons, in a single pass over both segments. Can be
+   * called by any thread (the segments are acquired), with its own counts.
+   *
+   * @param sleepSegment the sleep data (one byte per person, at the same index)
+   * @param from         the first person
+   * @param to           the person after the last one
+   * @param counts       the counts the range is added to (see
+   *                     {@link #newCounts()})
+   * @throws IllegalStateException if a person has an invalid hour (24-31)
+   */
+  public void count(MemorySegment sleepSegment, long from, long to, long[] counts) {
+    if (from < 0 || to > population || from > to)
+      throw new IndexOutOfBoundsException("Range " + from + "-" + to + " out of bounds for population " + population);
+    try (MemorySegment sleep = sleepSegment.acquire(); MemorySegment age = column.segment().acquire()) {
+      MemoryAddress sleepBase = sleep.baseAddress();
+      MemoryAddress ageBase = age.baseAddress();
+      for (long l = from; l < to; l++) {
+        byte current = (byte) BYTE_HANDLE.get(sleepBase, l);
+        int bucket = (byte) BYTE_HANDLE.get(ageBase, l) & 0xFF;
+        int state = (current & SLEEP) == SLEEP ? 1 : 0;
+        int hour = current & 0b11111;
+        // 5 bits go up to 31: hours 24-31 would be counted in the next bucket
+        if (hour >= HOURS)
+          throw new IllegalStateException("Invalid hour " + hour + " for person " + l);
+        counts[(state * buckets + bucket) * HOURS + hour]++;
+      }
+    }
+  }
+
+  /**
+   * @param counts the counts of all the persons (see
+   *               {@link #count(MemorySegment, long, long, long[])}), kept by
+   *               the histogram
+   * @return the histogram
+   */
+  public Histogram histogram(long[] counts) {
+    if (counts.length != 2 * buckets * HOURS)
+      throw new IllegalArgumentException("Expecting " + 2 * buckets * HOURS + " counts, not " + counts.length);
+    return new Histogram(counts);
+  }
+
+  @Override
+  public void close() {
+    column.close();
+  }
+
+  private static long[] add(long[] left, long[] right) {
+    for (int i = 0; i < left.length; i++)
+      left[i] += right[i];
+    return left;
+  }
+
+  private long checkIndex(long index) {
+    if (index < 0 || index >= population)
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for population " + population);
+    return index;
+  }
+
+  /**
+   * The counts of persons per state, age bucket and hour.
+   */
+  public final class Histogram {
+    private final long[] counts;
+
+    private Histogram(long[] counts) {
+      this.counts = counts;
+    }
+
+    /**
+     * @param bucket an age bucket
+     * @param hour   an hour
+     * @return the number of persons of the bucket that went to sleep at that
+     *         hour
+     */
+    public long asleep(int bucket, int hour) {
+      return counts[(buckets + bucket) * HOURS + hour];
+    }
+
+    /**
+     * @param bucket an age bucket
+     * @param hour   an hour
+     * @return the number of persons of the bucket that woke up at that hour
+     */
+    public long awake(int bucket, int hour) {
+      return counts[bucket * HOURS + hour];
+    }
+
+    /**
+     * @param hour an hour
+     * @return the number of persons (of all the buckets) that went to sleep at
+     *         that hour
+     */
+    public long asleepAt(int hour) {
+      long total = 0;
+      for (int bucket = 0; bucket < buckets; bucket++)
+        total += asleep(bucket, hour);
+      return total;
+    }
+
+    /**
+     * @param hour an hour
+     * @return the number of persons (of all the buckets) that woke up at that
+     *         hour
+     */
+    public long awakeAt(int hour) {
+      long total = 0;
+      for (int bucket = 0; bucket < buckets; bucket++)
+        total += awake(bucket, hour);
+      return total;
+    }
+
+    /**
+     * @param bucket an age bucket
+     * @return the number of persons of the bucket that are asleep
+     */
+    public long asleep(int bucket) {
+      long total = 0;
+      for (int hour = 0; hour < HOURS; hour++)
+        total += asleep(bucket, hour);
+      return total;
+    }
+
+    /**
+     * @param bucket an age bucket
+     * @return the number of persons of the bucket that are awake
+     */
+    public long awake(int bucket) {
+      long total = 0;
+      for (int hour = 0; hour < HOURS; hour++)
+        total += awake(bucket, hour);
+      return total;
+    }
+
+    /**
+     * @param bucket an age bucket
+     * @param asleep the state
+     * @return the most frequent hour of the bucket for that state (-1 if the
+     *         bucket is empty)
+     */
+    public int peakHour(int bucket, boolean asleep) {
+      int peak = -1;
+      long max = 0;
+      for (int hour = 0; hour < HOURS; hour++) {
+        long count = asleep ? asleep(bucket, hour) : awake(bucket, hour);
+        if (count > max) {
+          max = count;
+          peak = hour;
+        }
+      }
+      return peak;
+    }
+  }
+}
@@ -39,6 +39,8 @@ public class ByteBufferExample {
    * @param args
    */
   public static void main(String[] args) {
+    NativeMemoryTracker.registerMXBean();
+    NativeMemoryTracker tracker = NativeMemoryTracker.getInstance();
     try (Scanner in = new Scanner(System.in)) {
       System.out.println("Allocating buffers...");
       // we keep references to the bytebuffers to use them later on.
@@ -47,7 +49,8 @@ public class ByteBufferExample {
         ByteBuffer bb = ByteBuffer.allocateDirect(Integer.MAX_VALUE);
         buffers.add(bb);
       }
-      System.out.println("Buffers allocated. Now type 'Enter' to deallocate and GC.");
+      System.out.println("Buffers allocated (" + tracker.getDirectBufferBytes()
+          + " bytes of direct memory). Now type 'Enter' to deallocate and GC.");
 
       // wait for some user input...
       in.nextLine();
@@ -58,6 +61,9 @@ public class ByteBufferExample {
       // references to them so they can be GCed!
       System.out.println("Forcing garbage collection...");
       System.gc();
+      // the direct memory is released asynchronously (by a cleaner), after the
+      // buffers were found unreachable
+      System.out.println("Direct memory still in use: " + tracker.getDirectBufferBytes() + " bytes.");
 
       System.out.println("Type 'Enter' to finish the application...");
       in.nextLine();
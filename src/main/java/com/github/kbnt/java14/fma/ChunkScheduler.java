@@ -0,0 +1,329 @@
+package com.github.kbnt.java14.fma;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the scans and the writes of {@link SleepAnalytics} as chunk tasks on an
+ * executor, instead of dedicated threads checking {@code interrupted()} for
+ * every person:
+ * <ul>
+ * <li>A job covers the indexes {@code [0, size)}, split in chunks of a fixed
+ * size. For every pass, a few runners (typically one per worker of the
+ * executor) take the next chunk, run it and resubmit themselves until there is
+ * none left - so the jobs sharing the executor interleave chunk by chunk. The
+ * loop of a chunk is a plain counted loop, the JIT can unroll and vectorize
+ * it.
+ * <li>A job is cancelled, and reports its progress, at the chunk boundaries
+ * only: a cancelled job does not start any new chunk, the chunks in flight
+ * complete.
+ * <li>A repeated job starts a new pass after every pass (after an optional
+ * pause, which doesn't hold any thread), until it is cancelled.
+ * <li>{@link #shutdown(long, TimeUnit)} cancels all the jobs and waits for the
+ * chunks in flight - after it returns, no chunk touches the segments anymore
+ * and they can be closed.
+ * <li>If the executor rejects a chunk (e.g. it was shut down first), the job
+ * fails with the {@code RejectedExecutionException} instead of never
+ * completing.
+ * </ul>
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class ChunkScheduler {
+  private final ExecutorService executor;
+  private final int runners;
+  private final long chunkSize;
+  private final List<Job> jobs = new CopyOnWriteArrayList<>();
+
+  /**
+   * The work on one chunk.
+   */
+  @FunctionalInterface
+  public interface ChunkTask {
+    /**
+     * @param pass the pass (starting with 0)
+     * @param from the first index of the chunk
+     * @param to   the index after the last one of the chunk
+     */
+    void run(long pass, long from, long to) throws Exception;
+  }
+
+  /**
+   * Called (by the thread of the last chunk) after every complete pass.
+   */
+  @FunctionalInterface
+  public interface PassListener {
+    void passCompleted(long pass, long nanos) throws Exception;
+  }
+
+  /**
+   * @param executor  the executor running the chunks (owned by the caller)
+   * @param runners   the number of chunks of a job in flight at the same time
+   *                  (typically the number of workers of the executor)
+   * @param chunkSize the number of indexes of a chunk
+   */
+  public ChunkScheduler(ExecutorService executor, int runners, long chunkSize) {
+    if (runners < 1 || chunkSize < 1)
+      throw new IllegalArgumentException("Invalid runners " + runners + " or chunk size " + chunkSize);
+    this.executor = executor;
+    this.runners = runners;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Runs one pass.
+   *
+   * @param name the name of the job
+   * @param size the number of indexes
+   * @param task the work on a chunk
+   * @return the job
+   */
+  public Job run(String name, long size, ChunkTask task) {
+    return start(new Job(name, size, task, null, false, 0));
+  }
+
+  /**
+   * Runs passes until the job is cancelled.
+   *
+   * @param name        the name of the job
+   * @param size        the number of indexes
+   * @param task        the work on a chunk
+   * @param listener    called after every pass ({@code null} for none)
+   * @param pauseMillis the pause between two passes
+   * @return the job
+   */
+  public Job repeat(String name, long size, ChunkTask task, PassListener listener, long pauseMillis) {
+    return start(new Job(name, size, task, listener, true, pauseMillis));
+  }
+
+  /**
+   * Cancels all the jobs and waits for their chunks in flight (the executor
+   * is not shut down).
+   *
+   * @param timeout the maximum time to wait
+   * @param unit    the unit of the timeout
+   * @return {@code true} if all the jobs are done, {@code false} on timeout
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    for (Job job : jobs)
+      job.cancel();
+    CompletableFuture<?>[] done = jobs.stream().map(job -> job.done).toArray(CompletableFuture[]::new);
+    try {
+      CompletableFuture.allOf(done).exceptionally(e -> null).get(timeout, unit);
+      return true;
+    } catch (TimeoutException e) {
+      return false;
+    } catch (ExecutionException e) {
+      // the failures are reported by the jobs
+      return true;
+    }
+  }
+
+  private Job start(Job job) {
+    jobs.add(job);
+    job.done.whenComplete((result, failure) -> jobs.remove(job));
+    job.startPass();
+    return job;
+  }
+
+  /**
+   * A running (or done) job.
+   */
+  public final class Job {
+    private final String name;
+    private final long size;
+    private final long chunks;
+    private final ChunkTask task;
+    private final PassListener listener;
+    private final boolean repeated;
+    private final long pauseMillis;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicLong chunksDone = new AtomicLong();
+    private final AtomicInteger activeRunners = new AtomicInteger();
+    // from the start of a pass to the end of its listener
+    private volatile boolean running;
+    private volatile boolean cancelled;
+    private volatile Throwable failure;
+    private volatile long pass;
+    private volatile long passStart;
+
+    private Job(String name, long size, ChunkTask task, PassListener listener, boolean repeated,
+        long pauseMillis) {
+      this.name = name;
+      this.size = size;
+      this.chunks = (size + chunkSize - 1) / chunkSize;
+      this.task = task;
+      this.listener = listener;
+      this.repeated = repeated;
+      this.pauseMillis = pauseMillis;
+    }
+
+    public String name() {
+      return name;
+    }
+
+    /**
+     * @return the number of complete passes
+     */
+    public long passes() {
+      return pass;
+    }
+
+    /**
+     * @return the progress of the current pass, between 0 and 1 (updated at
+     *         the chunk boundaries)
+     */
+    public double progress() {
+      return chunks == 0 ? 1 : (double) chunksDone.get() / chunks;
+    }
+
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    public boolean isDone() {
+      return done.isDone();
+    }
+
+    /**
+     * Stops the job at the next chunk boundary.
+     */
+    public void cancel() {
+      cancelled = true;
+      // between two passes there's nothing to wait for
+      if (!running)
+        complete();
+    }
+
+    /**
+     * Waits for the job (a repeated job is done once cancelled and its chunks
+     * in flight are complete).
+     *
+     * @param timeout the maximum time to wait
+     * @param unit    the unit of the timeout
+     * @return {@code true} if the job is done, {@code false} on timeout
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ExecutionException   if a chunk or the listener failed
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException {
+      try {
+        done.get(timeout, unit);
+        return true;
+      } catch (TimeoutException e) {
+        return false;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "Job [name=" + name + ", passes=" + pass + ", progress=" + Math.round(100 * progress()) + "%"
+          + (cancelled ? ", cancelled" : "") + (failure != null ? ", failed: " + failure : "") + "]";
+    }
+
+    private void startPass() {
+      running = true;
+      if (cancelled) {
+        running = false;
+        complete();
+        return;
+      }
+      cursor.set(0);
+      chunksDone.set(0);
+      passStart = System.nanoTime();
+      int passRunners = (int) Math.max(1, Math.min(runners, chunks));
+      activeRunners.set(passRunners);
+      for (int r = 0; r < passRunners; r++) {
+        if (!submit(this::runChunk)) {
+          // the runners that didn't start are done
+          if (activeRunners.addAndGet(r - passRunners) == 0)
+            endPass();
+          return;
+        }
+      }
+    }
+
+    /**
+     * Runs one chunk and resubmits itself, so the jobs sharing the executor
+     * interleave chunk by chunk.
+     */
+    private void runChunk() {
+      try {
+        long chunk;
+        if (!cancelled && (chunk = cursor.getAndIncrement()) < chunks) {
+          task.run(pass, chunk * chunkSize, Math.min(size, (chunk + 1) * chunkSize));
+          chunksDone.incrementAndGet();
+          if (submit(this::runChunk))
+            return;
+        }
+      } catch (Throwable e) {
+        fail(e);
+      }
+      if (activeRunners.decrementAndGet() == 0)
+        endPass();
+    }
+
+    private void endPass() {
+      if (!cancelled) {
+        try {
+          if (listener != null)
+            listener.passCompleted(pass, System.nanoTime() - passStart);
+        } catch (Throwable e) {
+          fail(e);
+        }
+        pass++;
+      }
+      running = false;
+      // read after running is reset, so a concurrent cancel() is never missed
+      if (cancelled || !repeated) {
+        complete();
+      } else if (pauseMillis > 0) {
+        // not a delayed executor on top of ours: it would drop a rejection
+        CompletableFuture.delayedExecutor(pauseMillis, TimeUnit.MILLISECONDS).execute(() -> {
+          if (!submit(this::startPass))
+            complete();
+        });
+      } else if (!submit(this::startPass)) {
+        complete();
+      }
+    }
+
+    /**
+     * @return {@code false} if the executor rejected the action (the job has
+     *         failed)
+     */
+    private boolean submit(Runnable action) {
+      try {
+        executor.execute(action);
+        return true;
+      } catch (RejectedExecutionException e) {
+        fail(e);
+        return false;
+      }
+    }
+
+    private void fail(Throwable e) {
+      if (failure == null)
+        failure = e;
+      cancelled = true;
+    }
+
+    private void complete() {
+      if (failure != null)
+        done.completeExceptionally(failure);
+      else
+        done.complete(null);
+    }
+  }
+}
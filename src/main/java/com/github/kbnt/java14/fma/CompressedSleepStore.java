@@ -0,0 +1,406 @@
+package com.github.kbnt.java14.fma;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemoryLayout;
+import jdk.incubator.foreign.MemoryLayout.PathElement;
+import jdk.incubator.foreign.MemoryLayouts;
+import jdk.incubator.foreign.MemorySegment;
+
+import com.github.kbnt.java14.fma.NativeMemoryTracker.TrackedSegment;
+
+/**
+ * A block-compressed alternative to the one-byte-per-person segment of
+ * {@link SleepAnalytics}. The hours cluster around 20-23 and 6-9, so a block of
+ * {@value #BLOCK_SIZE} persons usually contains just a handful of distinct
+ * values. Each block is stored with the smallest of the following encodings:
+ * <ul>
+ * <li><b>RLE</b> - runs of (value, length - 1 as an unsigned short);
+ * <li><b>DICTIONARY</b> - the dictionary size, the distinct values and then the
+ * bit-packed codes (1, 2 or 4 bits each, for up to 16 distinct values);
+ * <li><b>RAW</b> - the bytes as they are.
+ * </ul>
+ * Two memory-mapped files are used: an index file (offset, slot capacity,
+ * encoded length and encoding of every block) and a data file holding the
+ * encoded blocks. A block is rewritten
+ * in place while it fits in its slot, otherwise it gets a new slot (a power of
+ * two between 4KB and {@value #BLOCK_SIZE} bytes) appended at the end of the
+ * data file. Because slots only grow, a block can move at most five times, so
+ * twice the raw size is always enough for the data file. The file is sparse:
+ * the pages that were never written don't cost disk space nor I/O.<br>
+ * <br>
+ * Memory segments are confined to their owner thread, so every thread works
+ * through its own {@link View}. Readers take a block's read lock, writers the
+ * write lock - decoding a block is far more expensive than the lock itself.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class CompressedSleepStore implements AutoCloseable {
+  public static final int BLOCK_SIZE = 64 * 1024;
+  private static final int MIN_SLOT = 4 * 1024;
+
+  private static final int RAW = 0;
+  private static final int RLE = 1;
+  private static final int DICTIONARY = 2;
+  private static final int MAX_DICTIONARY = 16;
+
+  private static final MemoryLayout BLOCK_ENTRY = MemoryLayout.ofStruct(
+      MemoryLayouts.JAVA_LONG.withName("offset"),
+      MemoryLayouts.JAVA_INT.withName("capacity"),
+      MemoryLayouts.JAVA_INT.withName("length"),
+      MemoryLayouts.JAVA_INT.withName("encoding"),
+      MemoryLayout.ofPaddingBits(32));
+
+  /**
+   * Called by {@link View#update(long, BlockUpdater)} with the decoded content
+   * of a block.
+   */
+  @FunctionalInterface
+  public interface BlockUpdater {
+    /**
+     * @param firstPerson the index of the person stored at {@code block[0]}
+     * @param block       the decoded block (to be modified in place)
+     * @param length      the number of persons in this block
+     */
+    public void update(long firstPerson, byte[] block, int length);
+  }
+
+  private final long population;
+  private final long blockCount;
+  private final long dataSize;
+  private final TrackedSegment index;
+  private final TrackedSegment data;
+  private final VarHandle offsetHandle;
+  private final VarHandle capacityHandle;
+  private final VarHandle lengthHandle;
+  private final VarHandle encodingHandle;
+  private final StampedLock[] locks;
+  private final AtomicLong allocated = new AtomicLong();
+
+  /**
+   * Creates (and maps) the index and the data files.
+   *
+   * @param dataPath   the file holding the encoded blocks
+   * @param indexPath  the file holding the block entries
+   * @param population the number of persons
+   * @throws IOException if any of the files already exists or cannot be mapped
+   */
+  public CompressedSleepStore(Path dataPath, Path indexPath, long population) throws IOException {
+    this.population = population;
+    this.blockCount = (population + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    this.dataSize = blockCount * 2 * BLOCK_SIZE;
+
+    MemoryLayout indexLayout = MemoryLayout.ofSequence(blockCount, BLOCK_ENTRY);
+    offsetHandle = indexLayout.varHandle(long.class, PathElement.sequenceElement(), PathElement.groupElement("offset"));
+    capacityHandle = indexLayout.varHandle(int.class, PathElement.sequenceElement(),
+        PathElement.groupElement("capacity"));
+    lengthHandle = indexLayout.varHandle(int.class, PathElement.sequenceElement(), PathElement.groupElement("length"));
+    encodingHandle = indexLayout.varHandle(int.class, PathElement.sequenceElement(),
+        PathElement.groupElement("encoding"));
+
+    locks = new StampedLock[Math.toIntExact(blockCount)];
+    for (int i = 0; i < locks.length; i++)
+      locks[i] = new StampedLock();
+
+    Files.createFile(indexPath);
+    Files.createFile(dataPath);
+    NativeMemoryTracker tracker = NativeMemoryTracker.getInstance();
+    index = tracker.mapFromPath(indexPath, indexLayout.byteSize(), MapMode.READ_WRITE);
+    data = tracker.mapFromPath(dataPath, dataSize, MapMode.READ_WRITE);
+  }
+
+  public long population() {
+    return population;
+  }
+
+  public long blockCount() {
+    return blockCount;
+  }
+
+  /**
+   * @return a view confined to the calling thread (close it when done).
+   */
+  public View acquire() {
+    return new View();
+  }
+
+  /**
+   * Closes the mapped files. All the views must be closed before.
+   */
+  @Override
+  public void close() {
+    data.close();
+    index.close();
+  }
+
+  private int blockLength(long block) {
+    return (int) Math.min(BLOCK_SIZE, population - block * BLOCK_SIZE);
+  }
+
+  private static int bitWidth(int dictionarySize) {
+    if (dictionarySize <= 2)
+      return 1;
+    if (dictionarySize <= 4)
+      return 2;
+    return 4;
+  }
+
+  private static int slotSize(int length) {
+    return Math.max(MIN_SLOT, Integer.highestOneBit(length - 1) << 1);
+  }
+
+  /**
+   * The access point of one thread to the store.
+   */
+  public final class View implements AutoCloseable {
+    private final MemorySegment indexSegment;
+    private final MemorySegment dataSegment;
+    private final MemoryAddress indexBase;
+    private final MemoryAddress dataBase;
+    private final byte[] raw = new byte[BLOCK_SIZE];
+    // RLE and DICTIONARY are chosen only when smaller than RAW
+    private final byte[] encoded = new byte[BLOCK_SIZE];
+    private final MemorySegment encodedSegment = MemorySegment.ofArray(encoded);
+    private final int[] dictionary = new int[256];
+    private final int[] distinct = new int[MAX_DICTIONARY];
+    private final long[] codeCounts = new long[MAX_DICTIONARY];
+    private int encodedLength;
+
+    private View() {
+      indexSegment = index.segment().acquire();
+      dataSegment = data.segment().acquire();
+      indexBase = indexSegment.baseAddress();
+      dataBase = dataSegment.baseAddress();
+      Arrays.fill(dictionary, -1);
+    }
+
+    /**
+     * Adds the number of persons having each byte value (the index in the array)
+     * in the given block to {@code valueCounts}, working directly on the encoded
+     * form.
+     *
+     * @param block       the block index
+     * @param valueCounts an array of 256 counters
+     */
+    public void countValues(long block, long[] valueCounts) {
+      StampedLock lock = locks[(int) block];
+      long stamp = lock.readLock();
+      try {
+        int blockLength = blockLength(block);
+        int capacity = (int) capacityHandle.get(indexBase, block);
+        if (capacity == 0) {
+          // never written, all zeros
+          valueCounts[0] += blockLength;
+          return;
+        }
+
+        int length = load(block);
+        switch ((int) encodingHandle.get(indexBase, block)) {
+        case RAW -> {
+          for (int i = 0; i < length; i++)
+            valueCounts[encoded[i] & 0xFF]++;
+        }
+        case RLE -> {
+          for (int i = 0; i < length; i += 3)
+            valueCounts[encoded[i] & 0xFF] += runLength(i) + 1;
+        }
+        case DICTIONARY -> {
+          int dictionarySize = encoded[0] & 0xFF;
+          int width = bitWidth(dictionarySize);
+          int mask = (1 << width) - 1;
+          Arrays.fill(codeCounts, 0);
+          for (int i = 0, bit = 0; i < blockLength; i++, bit += width) {
+            int code = (encoded[1 + dictionarySize + (bit >>> 3)] >>> (bit & 7)) & mask;
+            codeCounts[code]++;
+          }
+          for (int c = 0; c < dictionarySize; c++)
+            valueCounts[encoded[1 + c] & 0xFF] += codeCounts[c];
+        }
+        default -> throw new IllegalStateException("Unknown encoding for block " + block);
+        }
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    /**
+     * Decompresses a block, lets the updater modify it and recompresses it.
+     *
+     * @param block   the block index
+     * @param updater the modification
+     */
+    public void update(long block, BlockUpdater updater) {
+      StampedLock lock = locks[(int) block];
+      long stamp = lock.writeLock();
+      try {
+        int blockLength = blockLength(block);
+        decode(block, blockLength);
+        updater.update(block * BLOCK_SIZE, raw, blockLength);
+        int encoding = encode(blockLength);
+        store(block, encoding);
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    /**
+     * @return the number of bytes used by the encoded blocks (without the unused
+     *         room left in their slots).
+     */
+    public long compressedBytes() {
+      long total = 0;
+      for (long block = 0; block < blockCount; block++) {
+        StampedLock lock = locks[(int) block];
+        long stamp = lock.readLock();
+        try {
+          total += (int) lengthHandle.get(indexBase, block);
+        } finally {
+          lock.unlockRead(stamp);
+        }
+      }
+      return total;
+    }
+
+    @Override
+    public void close() {
+      encodedSegment.close();
+      dataSegment.close();
+      indexSegment.close();
+    }
+
+    private int runLength(int i) {
+      return ((encoded[i + 1] & 0xFF) << 8) | (encoded[i + 2] & 0xFF);
+    }
+
+    private int load(long block) {
+      int length = (int) lengthHandle.get(indexBase, block);
+      long offset = (long) offsetHandle.get(indexBase, block);
+      MemoryAddress.copy(dataBase.addOffset(offset), encodedSegment.baseAddress(), length);
+      return length;
+    }
+
+    private void decode(long block, int blockLength) {
+      if ((int) capacityHandle.get(indexBase, block) == 0) {
+        Arrays.fill(raw, 0, blockLength, (byte) 0);
+        return;
+      }
+
+      int length = load(block);
+      switch ((int) encodingHandle.get(indexBase, block)) {
+      case RAW -> System.arraycopy(encoded, 0, raw, 0, length);
+      case RLE -> {
+        for (int i = 0, position = 0; i < length; i += 3) {
+          int run = runLength(i) + 1;
+          Arrays.fill(raw, position, position + run, encoded[i]);
+          position += run;
+        }
+      }
+      case DICTIONARY -> {
+        int dictionarySize = encoded[0] & 0xFF;
+        int width = bitWidth(dictionarySize);
+        int mask = (1 << width) - 1;
+        for (int i = 0, bit = 0; i < blockLength; i++, bit += width) {
+          int code = (encoded[1 + dictionarySize + (bit >>> 3)] >>> (bit & 7)) & mask;
+          raw[i] = encoded[1 + code];
+        }
+      }
+      default -> throw new IllegalStateException("Unknown encoding for block " + block);
+      }
+    }
+
+    /**
+     * Encodes {@code raw[0..blockLength)} into {@code encoded} with the cheapest
+     * encoding.
+     *
+     * @return the chosen encoding ({@link #encodedLength} holds the size)
+     */
+    private int encode(int blockLength) {
+      // one pass to find the runs and the distinct values
+      int runs = 0;
+      int dictionarySize = 0;
+      byte previous = 0;
+      for (int i = 0; i < blockLength; i++) {
+        byte current = raw[i];
+        if (i == 0 || current != previous)
+          runs++;
+        previous = current;
+        if (dictionary[current & 0xFF] < 0 && dictionarySize <= MAX_DICTIONARY) {
+          if (dictionarySize < MAX_DICTIONARY) {
+            dictionary[current & 0xFF] = dictionarySize;
+            distinct[dictionarySize] = current & 0xFF;
+          }
+          dictionarySize++;
+        }
+      }
+
+      int rleLength = runs * 3;
+      int dictionaryLength = dictionarySize <= MAX_DICTIONARY
+          ? 1 + dictionarySize + (blockLength * bitWidth(dictionarySize) + 7) / 8
+          : Integer.MAX_VALUE;
+
+      int encoding;
+      if (rleLength <= dictionaryLength && rleLength <= blockLength) {
+        encoding = RLE;
+        encodedLength = 0;
+        for (int i = 0; i < blockLength;) {
+          int start = i;
+          while (i < blockLength && raw[i] == raw[start])
+            i++;
+          int run = i - start - 1;
+          encoded[encodedLength++] = raw[start];
+          encoded[encodedLength++] = (byte) (run >>> 8);
+          encoded[encodedLength++] = (byte) run;
+        }
+      } else if (dictionaryLength <= blockLength) {
+        encoding = DICTIONARY;
+        int width = bitWidth(dictionarySize);
+        encoded[0] = (byte) dictionarySize;
+        for (int c = 0; c < dictionarySize; c++)
+          encoded[1 + c] = (byte) distinct[c];
+        int packedStart = 1 + dictionarySize;
+        Arrays.fill(encoded, packedStart, dictionaryLength, (byte) 0);
+        for (int i = 0, bit = 0; i < blockLength; i++, bit += width)
+          encoded[packedStart + (bit >>> 3)] |= dictionary[raw[i] & 0xFF] << (bit & 7);
+        encodedLength = dictionaryLength;
+      } else {
+        encoding = RAW;
+        System.arraycopy(raw, 0, encoded, 0, blockLength);
+        encodedLength = blockLength;
+      }
+
+      // reset the dictionary for the next block
+      for (int c = 0; c < Math.min(dictionarySize, MAX_DICTIONARY); c++)
+        dictionary[distinct[c]] = -1;
+      return encoding;
+    }
+
+    private void store(long block, int encoding) {
+      int capacity = (int) capacityHandle.get(indexBase, block);
+      long offset;
+      if (encodedLength > capacity) {
+        // grow: the old slot is abandoned
+        capacity = slotSize(encodedLength);
+        offset = allocated.getAndAdd(capacity);
+        if (offset + capacity > dataSize)
+          throw new IllegalStateException("The compressed store ran out of space.");
+        offsetHandle.set(indexBase, block, offset);
+        capacityHandle.set(indexBase, block, capacity);
+      } else {
+        offset = (long) offsetHandle.get(indexBase, block);
+      }
+
+      MemoryAddress.copy(encodedSegment.baseAddress(), dataBase.addOffset(offset), encodedLength);
+      lengthHandle.set(indexBase, block, encodedLength);
+      encodingHandle.set(indexBase, block, encoding);
+    }
+  }
+}
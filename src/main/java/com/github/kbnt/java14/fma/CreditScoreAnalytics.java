@@ -0,0 +1,288 @@
+package com.github.kbnt.java14.fma;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
+
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * Analytics over a segment of {@link CreditScoreFile} records (typically the
+ * whole file, mapped), in a single parallel pass:
+ * <ul>
+ * <li>the top K SSNs by credit score;
+ * <li>the distribution of the credit scores (count, min, max, mean and
+ * percentiles).
+ * </ul>
+ * The segment is cut in chunks of a million records, scanned by the workers of
+ * the pool. Each worker acquires the segment for its chunks and accumulates
+ * in its own bounded heap (K packed {@code long}s) and its own fixed-bucket
+ * histogram (one bucket per score point) - both mergeable, so they are merged
+ * once per worker at the end. The inner loop reads one {@code int} per record;
+ * the SSN is only decoded when the score can enter the heap. No object is
+ * created per record, so the pass scales with the cores (and the memory
+ * bandwidth) even for hundreds of millions of records.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class CreditScoreAnalytics {
+  private static final long CHUNK_RECORDS = 1 << 20;
+
+  private CreditScoreAnalytics() {
+  }
+
+  /**
+   * The result of an analysis.
+   */
+  public record Result(TopK top, Histogram histogram) {
+  }
+
+  /**
+   * Analyzes with the common pool.
+   *
+   * @param segment the records
+   * @param k       the number of top SSNs
+   * @return the result
+   */
+  public static Result analyze(MemorySegment segment, int k) {
+    return analyze(segment, k, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Analyzes with the given pool. Can be called by any thread.
+   *
+   * @param segment the records
+   * @param k       the number of top SSNs
+   * @param pool    the pool running the scan
+   * @return the result
+   */
+  public static Result analyze(MemorySegment segment, int k, ForkJoinPool pool) {
+    if (k < 1)
+      throw new IllegalArgumentException("Invalid K: " + k);
+    long records = CreditScoreFile.records(segment);
+    long chunks = (records + CHUNK_RECORDS - 1) / CHUNK_RECORDS;
+    Accumulator accumulator = pool.submit(() -> LongStream.range(0, chunks).parallel().collect(
+        () -> new Accumulator(k),
+        (a, chunk) -> a.scan(segment, chunk * CHUNK_RECORDS, Math.min(records, (chunk + 1) * CHUNK_RECORDS)),
+        Accumulator::merge)).join();
+    accumulator.top.rank();
+    return new Result(accumulator.top, accumulator.histogram);
+  }
+
+  /**
+   * What a worker accumulates.
+   */
+  private static final class Accumulator {
+    private final TopK top;
+    private final Histogram histogram = new Histogram();
+
+    private Accumulator(int k) {
+      top = new TopK(k);
+    }
+
+    private void scan(MemorySegment segment, long from, long to) {
+      try (MemorySegment acquired = segment.acquire()) {
+        MemoryAddress base = acquired.baseAddress();
+        for (long record = from; record < to; record++) {
+          int creditScore = CreditScoreFile.creditScore(base, record);
+          histogram.add(creditScore);
+          if (top.accepts(creditScore))
+            top.offer(creditScore, CreditScoreFile.ssn(base, record));
+        }
+      }
+    }
+
+    private void merge(Accumulator other) {
+      top.merge(other.top);
+      histogram.merge(other.histogram);
+    }
+  }
+
+  /**
+   * The top K SSNs by credit score (the lower SSN first for equal scores): a
+   * min-heap of packed {@code (score, SSN)} keys while scanning, ranked at the
+   * end.
+   */
+  public static final class TopK {
+    private final long[] heap;
+    private int size;
+
+    TopK(int k) {
+      heap = new long[k];
+    }
+
+    /**
+     * @return the number of SSNs (K, unless there are fewer records)
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * @param rank a rank (0 for the best score)
+     * @return the SSN with that rank
+     */
+    public long ssn(int rank) {
+      return ~checkRank(rank) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @param rank a rank (0 for the best score)
+     * @return the credit score with that rank
+     */
+    public int creditScore(int rank) {
+      return (int) (checkRank(rank) >>> 32);
+    }
+
+    boolean accepts(int creditScore) {
+      // equal scores may still win, with a lower SSN
+      return size < heap.length || creditScore >= heap[0] >>> 32;
+    }
+
+    void offer(int creditScore, long ssn) {
+      offer((long) creditScore << 32 | ~ssn & 0xFFFFFFFFL);
+    }
+
+    void merge(TopK other) {
+      for (int i = 0; i < other.size; i++)
+        offer(other.heap[i]);
+    }
+
+    /**
+     * Sorts the heap by rank (it's not a heap anymore).
+     */
+    void rank() {
+      Arrays.sort(heap, 0, size);
+      for (int i = 0, j = size - 1; i < j; i++, j--) {
+        long key = heap[i];
+        heap[i] = heap[j];
+        heap[j] = key;
+      }
+    }
+
+    private void offer(long key) {
+      if (size < heap.length) {
+        int i = size++;
+        // sift up
+        while (i > 0 && heap[(i - 1) / 2] > key) {
+          heap[i] = heap[(i - 1) / 2];
+          i = (i - 1) / 2;
+        }
+        heap[i] = key;
+      } else if (key > heap[0]) {
+        int i = 0;
+        // sift down
+        while (2 * i + 1 < size) {
+          int child = 2 * i + 1;
+          if (child + 1 < size && heap[child + 1] < heap[child])
+            child++;
+          if (heap[child] >= key)
+            break;
+          heap[i] = heap[child];
+          i = child;
+        }
+        heap[i] = key;
+      }
+    }
+
+    private long checkRank(int rank) {
+      if (rank < 0 || rank >= size)
+        throw new IndexOutOfBoundsException("Rank " + rank + " out of bounds for " + size + " SSNs");
+      return heap[rank];
+    }
+  }
+
+  /**
+   * The distribution of the credit scores: one counter per score point, from
+   * 0 to 1023. The scores outside (corrupted records) are only counted apart,
+   * in {@link #outOfRange()}: they are not in the count, the mean or the
+   * percentiles. Two histograms are merged by adding their counters.
+   */
+  public static final class Histogram {
+    public static final int BUCKETS = 1024;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long outOfRange;
+
+    Histogram() {
+    }
+
+    void add(int creditScore) {
+      if (creditScore < 0 || creditScore >= BUCKETS) {
+        outOfRange++;
+        return;
+      }
+      counts[creditScore]++;
+      count++;
+      sum += creditScore;
+    }
+
+    void merge(Histogram other) {
+      for (int i = 0; i < BUCKETS; i++)
+        counts[i] += other.counts[i];
+      count += other.count;
+      sum += other.sum;
+      outOfRange += other.outOfRange;
+    }
+
+    /**
+     * @return the number of records with a score in the histogram
+     */
+    public long count() {
+      return count;
+    }
+
+    /**
+     * @return the number of records with a score below 0 or above 1023 (not
+     *         in the histogram)
+     */
+    public long outOfRange() {
+      return outOfRange;
+    }
+
+    /**
+     * @param creditScore a credit score
+     * @return the number of records with that score
+     */
+    public long count(int creditScore) {
+      return creditScore < 0 || creditScore >= BUCKETS ? 0 : counts[creditScore];
+    }
+
+    public double mean() {
+      return count == 0 ? Double.NaN : (double) sum / count;
+    }
+
+    public int min() {
+      return percentile(0);
+    }
+
+    public int max() {
+      return percentile(100);
+    }
+
+    /**
+     * @param percentile a percentile, between 0 and 100
+     * @return the lowest score such that at least that percentage of the
+     *         records have a lower or equal score (nearest rank), -1 if there
+     *         are no records
+     */
+    public int percentile(double percentile) {
+      if (percentile < 0 || percentile > 100)
+        throw new IllegalArgumentException("Invalid percentile: " + percentile);
+      if (count == 0)
+        return -1;
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+      long cumulated = 0;
+      for (int score = 0; score < BUCKETS; score++) {
+        cumulated += counts[score];
+        if (cumulated >= rank)
+          return score;
+      }
+      return BUCKETS - 1;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package com.github.kbnt.java14.fma;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+
+import com.github.kbnt.java14.fma.CreditScoreAnalytics.Histogram;
+import com.github.kbnt.java14.fma.CreditScoreAnalytics.Result;
+import com.github.kbnt.java14.fma.CreditScoreAnalytics.TopK;
+import com.github.kbnt.java14.fma.NativeMemoryTracker.TrackedSegment;
+
+/**
+ * Generates a file of SSN to credit score records (20 millions, or the number
+ * given as the first argument - 24 bytes each, so mind the disk) and analyzes
+ * it with {@link CreditScoreAnalytics}, with 1, 2, 4... workers up to the
+ * number of cores.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class CreditScoreAnalyticsExample {
+  private static final int TOP = 10;
+  private static final double[] PERCENTILES = { 1, 10, 50, 90, 99, 99.9 };
+
+  public static void main(String[] args) {
+    try {
+      CreditScoreAnalyticsExample csae = new CreditScoreAnalyticsExample();
+      long records = args.length > 0 ? Long.parseLong(args[0]) : 20_000_000;
+      Path path = Paths.get("target", "runtime", "credit-scores.bin");
+      csae.example00Generate(path, records);
+      csae.example01Analyze(path);
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with one of our examples:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  public void example00Generate(Path path, long records) throws IOException {
+    insertExampleSeparator();
+
+    Files.deleteIfExists(path);
+    long start = System.nanoTime();
+    CreditScoreFile.generate(path, records, 2342342);
+    System.out.println(records + " records (" + Files.size(path) / (1024 * 1024) + " MB) generated in "
+        + (System.nanoTime() - start) / 1000000 + " milliseconds.");
+  }
+
+  public void example01Analyze(Path path) throws IOException {
+    insertExampleSeparator();
+
+    try (TrackedSegment file = CreditScoreFile.map(path, MapMode.READ_ONLY)) {
+      long records = CreditScoreFile.records(file.segment());
+      Result reference = null;
+      for (int workers = 1; workers <= Runtime.getRuntime().availableProcessors(); workers *= 2) {
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        try {
+          // the first pass warms up (and pages the file in)
+          CreditScoreAnalytics.analyze(file.segment(), TOP, pool);
+          long start = System.nanoTime();
+          Result result = CreditScoreAnalytics.analyze(file.segment(), TOP, pool);
+          long elapsed = System.nanoTime() - start;
+          System.out.println(workers + " worker(s): " + records + " records in " + elapsed / 1000000
+              + " milliseconds (" + (double) elapsed / records + " ns per record).");
+          if (reference == null)
+            reference = result;
+          else if (!sameTop(reference.top(), result.top())
+              || reference.histogram().percentile(50) != result.histogram().percentile(50))
+            throw new IllegalStateException("The results depend on the number of workers!");
+        } finally {
+          pool.shutdown();
+        }
+      }
+      print(reference);
+    }
+  }
+
+  private static boolean sameTop(TopK left, TopK right) {
+    if (left.size() != right.size())
+      return false;
+    for (int rank = 0; rank < left.size(); rank++)
+      if (left.ssn(rank) != right.ssn(rank) || left.creditScore(rank) != right.creditScore(rank))
+        return false;
+    return true;
+  }
+
+  private static void print(Result result) {
+    System.out.println("Top " + result.top().size() + " credit scores:");
+    for (int rank = 0; rank < result.top().size(); rank++)
+      System.out.println("  " + CreditScoreFile.format(result.top().ssn(rank)) + ": "
+          + result.top().creditScore(rank));
+
+    Histogram histogram = result.histogram();
+    System.out.println("Credit scores: count " + histogram.count() + ", min " + histogram.min() + ", max "
+        + histogram.max() + ", mean " + String.format("%.2f", histogram.mean()) + " (" + histogram.outOfRange()
+        + " out of range)");
+    for (double percentile : PERCENTILES)
+      System.out.println("  p" + percentile + ": " + histogram.percentile(percentile));
+  }
+}
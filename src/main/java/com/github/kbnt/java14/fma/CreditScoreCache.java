@@ -0,0 +1,267 @@
+package com.github.kbnt.java14.fma;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemoryHandles;
+import jdk.incubator.foreign.MemorySegment;
+
+import com.github.kbnt.java14.fma.NativeMemoryTracker.TrackedSegment;
+
+/**
+ * A fixed-size off-heap read-through cache of SSN to credit score lookups, in
+ * front of any store (e.g. a {@link CreditScoreFile} on slow storage) - the
+ * lookups are usually skewed to a small hot set of SSNs.<br>
+ * <br>
+ * The cache is a set-associative table in native memory, allocated once: an
+ * SSN is hashed to a set of {@value #WAYS} slots (a cache line), every slot is
+ * one {@code long} - valid bit, reference bit, credit score and SSN - so it is
+ * always read and written at once:
+ * <ul>
+ * <li><b>hits</b> are lock-free: one acquire read per slot of the set, and the
+ * reference bit is set (if it isn't yet) with a compare and set;
+ * <li><b>misses</b> load the credit score from the store (no lock held), then
+ * insert it under the lock of the stripe of the set (so two threads missing
+ * the same SSN don't insert it twice);
+ * <li><b>eviction</b> is CLOCK within the set: the hand of the set skips (and
+ * clears) the slots referenced since its last pass and evicts the first one
+ * that wasn't.
+ * </ul>
+ * The SSNs the store doesn't know are cached too ({@link #ABSENT}). The
+ * footprint is the table and one byte (the hand) per set, whatever the number
+ * of SSNs looked up.<br>
+ * <br>
+ * Threads: every thread looks up through its own {@link View} (an acquired
+ * segment and the store it reads on a miss).
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class CreditScoreCache implements AutoCloseable {
+  public static final int WAYS = 8;
+  public static final int ABSENT = -1;
+
+  private static final long SET_BYTES = WAYS * Long.BYTES;
+  private static final long VALID = 1L << 63;
+  private static final long REFERENCED = 1L << 62;
+  private static final int SCORE_SHIFT = 32;
+  private static final long SCORE_MASK = 0xFFFF;
+  private static final long SSN_MASK = 0xFFFFFFFFL;
+  private static final int STRIPES = 256;
+
+  private static final VarHandle LONG_HANDLE = MemoryHandles
+      .withStride(MemoryHandles.varHandle(long.class, ByteOrder.nativeOrder()), 1);
+
+  /**
+   * The store behind the cache, read on a miss (by the thread of the view).
+   */
+  @FunctionalInterface
+  public interface Loader {
+    /**
+     * @param ssn an SSN
+     * @return its credit score, {@link #ABSENT} if the store doesn't know it
+     */
+    int creditScore(long ssn);
+  }
+
+  private final TrackedSegment table;
+  private final long sets;
+  private final byte[] hands;
+  private final Object[] stripes = new Object[STRIPES];
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder loadNanos = new LongAdder();
+
+  /**
+   * @param capacity the number of entries (rounded up to a multiple of
+   *                 {@value #WAYS})
+   */
+  public CreditScoreCache(long capacity) {
+    if (capacity < 1 || (capacity + WAYS - 1) / WAYS > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Invalid capacity: " + capacity);
+    sets = (capacity + WAYS - 1) / WAYS;
+    // the native memory is zeroed: all the slots are empty
+    table = NativeMemoryTracker.getInstance().allocateNative(sets * SET_BYTES);
+    hands = new byte[(int) sets];
+    for (int s = 0; s < STRIPES; s++)
+      stripes[s] = new Object();
+  }
+
+  /**
+   * @param loader the store read on a miss
+   * @return the lookups of the calling thread
+   */
+  public View view(Loader loader) {
+    return new View(table.segment().acquire(), loader);
+  }
+
+  public long capacity() {
+    return sets * WAYS;
+  }
+
+  /**
+   * @return the native memory of the cache (it never grows)
+   */
+  public long byteSize() {
+    return table.byteSize();
+  }
+
+  public long hits() {
+    return hits.sum();
+  }
+
+  public long misses() {
+    return misses.sum();
+  }
+
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  public double hitRatio() {
+    long hits = hits();
+    long lookups = hits + misses();
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  /**
+   * @return the average time to load a credit score on a miss, in
+   *         microseconds
+   */
+  public double averageLoadMicros() {
+    long misses = misses();
+    return misses == 0 ? 0 : loadNanos.sum() / 1000.0 / misses;
+  }
+
+  @Override
+  public void close() {
+    table.close();
+  }
+
+  @Override
+  public String toString() {
+    return "CreditScoreCache [capacity=" + capacity() + ", byteSize=" + byteSize() + ", hits=" + hits() + ", misses="
+        + misses() + ", hitRatio=" + String.format("%.4f", hitRatio()) + ", evictions=" + evictions()
+        + ", averageLoadMicros=" + String.format("%.2f", averageLoadMicros()) + "]";
+  }
+
+  private long set(long ssn) {
+    return (CreditScoreFile.mix(ssn) >>> 32) * sets >>> 32;
+  }
+
+  private static long slot(long ssn, int creditScore) {
+    return VALID | (creditScore & SCORE_MASK) << SCORE_SHIFT | ssn;
+  }
+
+  private static int scoreOf(long slot) {
+    int creditScore = (int) (slot >>> SCORE_SHIFT & SCORE_MASK);
+    return creditScore == SCORE_MASK ? ABSENT : creditScore;
+  }
+
+  /**
+   * @return the slot of the SSN, 0 if it isn't cached
+   */
+  private long lookup(MemoryAddress base, long setOffset, long ssn) {
+    for (long offset = setOffset; offset < setOffset + SET_BYTES; offset += Long.BYTES) {
+      long slot = (long) LONG_HANDLE.getAcquire(base, offset);
+      if ((slot & VALID) != 0 && (slot & SSN_MASK) == ssn) {
+        // a lost race only delays the reference
+        if ((slot & REFERENCED) == 0)
+          LONG_HANDLE.compareAndSet(base, offset, slot, slot | REFERENCED);
+        return slot;
+      }
+    }
+    return 0;
+  }
+
+  private void insert(MemoryAddress base, long set, long ssn, int creditScore) {
+    long setOffset = set * SET_BYTES;
+    synchronized (stripes[(int) (set % STRIPES)]) {
+      // another thread may have loaded it meanwhile
+      if (lookup(base, setOffset, ssn) != 0)
+        return;
+
+      int hand = hands[(int) set];
+      // two turns at most (the readers may reference the slots again)
+      for (int step = 0; step < 2 * WAYS; step++, hand = (hand + 1) % WAYS) {
+        long slot = (long) LONG_HANDLE.getAcquire(base, setOffset + hand * Long.BYTES);
+        if ((slot & VALID) == 0 || (slot & REFERENCED) == 0)
+          break;
+        LONG_HANDLE.getAndBitwiseAndRelease(base, setOffset + hand * Long.BYTES, ~REFERENCED);
+      }
+      long evicted = (long) LONG_HANDLE.getAndSetRelease(base, setOffset + hand * Long.BYTES, slot(ssn, creditScore));
+      if ((evicted & VALID) != 0)
+        evictions.increment();
+      hands[(int) set] = (byte) ((hand + 1) % WAYS);
+    }
+  }
+
+  private void invalidate(MemoryAddress base, long ssn) {
+    long set = set(ssn);
+    long setOffset = set * SET_BYTES;
+    synchronized (stripes[(int) (set % STRIPES)]) {
+      for (long offset = setOffset; offset < setOffset + SET_BYTES; offset += Long.BYTES) {
+        long slot = (long) LONG_HANDLE.getAcquire(base, offset);
+        if ((slot & VALID) != 0 && (slot & SSN_MASK) == ssn)
+          LONG_HANDLE.setRelease(base, offset, 0L);
+      }
+    }
+  }
+
+  /**
+   * The lookups of one thread.
+   */
+  public final class View implements AutoCloseable {
+    private final MemorySegment segment;
+    private final MemoryAddress base;
+    private final Loader loader;
+
+    private View(MemorySegment segment, Loader loader) {
+      this.segment = segment;
+      this.base = segment.baseAddress();
+      this.loader = loader;
+    }
+
+    /**
+     * @param ssn an SSN (at most 9 digits)
+     * @return its credit score, from the cache or loaded from the store;
+     *         {@link #ABSENT} if the store doesn't know it
+     */
+    public int creditScore(long ssn) {
+      if (ssn < 0 || ssn > 999_999_999)
+        throw new IllegalArgumentException("Invalid SSN: " + ssn);
+      long set = set(ssn);
+      long slot = lookup(base, set * SET_BYTES, ssn);
+      if (slot != 0) {
+        hits.increment();
+        return scoreOf(slot);
+      }
+
+      misses.increment();
+      long start = System.nanoTime();
+      int creditScore = loader.creditScore(ssn);
+      loadNanos.add(System.nanoTime() - start);
+      insert(base, set, ssn, creditScore);
+      return creditScore;
+    }
+
+    /**
+     * Forgets an SSN (e.g. its credit score changed in the store). A lookup
+     * loading the SSN at the same time may still cache the value it read.
+     *
+     * @param ssn an SSN
+     */
+    public void invalidate(long ssn) {
+      CreditScoreCache.this.invalidate(base, ssn);
+    }
+
+    @Override
+    public void close() {
+      segment.close();
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package com.github.kbnt.java14.fma;
+
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.LockSupport;
+
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemorySegment;
+
+import com.github.kbnt.java14.fma.NativeMemoryTracker.TrackedSegment;
+
+/**
+ * Looks up credit scores by SSN, from several threads, with most of the
+ * lookups on a small hot set of SSNs: straight from the store and through a
+ * {@link CreditScoreCache} of several sizes. The store is a file of records
+ * sorted by SSN (see {@link CreditScoreSort}) searched by bisection, with a
+ * simulated storage latency on every load ({@code cache.storage.micros}, 50 by
+ * default).<br>
+ * <br>
+ * We report the lookups per second, the hit ratio and the evictions - and that
+ * the native memory of the cache doesn't move, whatever the number of SSNs
+ * looked up.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class CreditScoreCacheExample {
+  private static final long RECORDS = 10_000_000;
+  private static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+  private static final int LOOKUPS_PER_THREAD = 200_000;
+  // 90% of the lookups on 0.1% of the SSNs
+  private static final long HOT_PER_MILLE = 1;
+  private static final long STORAGE_NANOS = Long.getLong("cache.storage.micros", 50) * 1000;
+  private static final long[] CAPACITIES = { 1 << 12, 1 << 14, 1 << 16 };
+
+  public static void main(String[] args) {
+    try {
+      CreditScoreCacheExample csce = new CreditScoreCacheExample();
+      Path unsorted = Paths.get("target", "runtime", "credit-scores.bin");
+      Path sorted = unsorted.resolveSibling("credit-scores-by-ssn.bin");
+      if (!Files.exists(unsorted))
+        CreditScoreFile.generate(unsorted, RECORDS, 2342342);
+      if (!Files.exists(sorted))
+        CreditScoreSort.sort(unsorted, sorted, CreditScoreSort.Key.SSN, 1 << 22);
+
+      try (TrackedSegment store = CreditScoreFile.map(sorted, MapMode.READ_ONLY)) {
+        csce.example00NoCache(store.segment());
+        csce.example01SkewedLookups(store.segment());
+        csce.example02BoundedFootprint(store.segment());
+      }
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with one of our examples:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  public void example00NoCache(MemorySegment store) throws InterruptedException {
+    insertExampleSeparator();
+
+    long nanos = lookups(store, null);
+    System.out.println(THREADS + " threads, no cache: " + Math.round(THREADS * LOOKUPS_PER_THREAD * 1e9 / nanos)
+        + " lookups per second.");
+  }
+
+  public void example01SkewedLookups(MemorySegment store) throws InterruptedException {
+    insertExampleSeparator();
+
+    for (long capacity : CAPACITIES) {
+      try (CreditScoreCache cache = new CreditScoreCache(capacity)) {
+        long nanos = lookups(store, cache);
+        System.out.println(THREADS + " threads, cache of " + cache.capacity() + " entries ("
+            + cache.byteSize() / 1024 + " KB): " + Math.round(THREADS * LOOKUPS_PER_THREAD * 1e9 / nanos)
+            + " lookups per second.");
+        System.out.println("  " + cache);
+      }
+    }
+  }
+
+  public void example02BoundedFootprint(MemorySegment store) {
+    insertExampleSeparator();
+
+    NativeMemoryTracker tracker = NativeMemoryTracker.getInstance();
+    MemoryAddress base = store.baseAddress();
+    long records = CreditScoreFile.records(store);
+    try (CreditScoreCache cache = new CreditScoreCache(CAPACITIES[0]);
+        CreditScoreCache.View view = cache.view(ssn -> load(base, records, ssn))) {
+      long liveBytes = tracker.getLiveBytes();
+      // many distinct SSNs: nothing but misses and evictions
+      for (long record = 0; record < records; record += 10)
+        view.creditScore(CreditScoreFile.ssn(base, record));
+      System.out.println("Looked up " + records / 10 + " distinct SSNs: " + cache);
+      System.out.println("Native memory before " + liveBytes + " bytes, after " + tracker.getLiveBytes()
+          + " bytes.");
+    }
+  }
+
+  /**
+   * @return the time for all the threads to do their lookups
+   */
+  private long lookups(MemorySegment store, CreditScoreCache cache) throws InterruptedException {
+    Thread[] threads = new Thread[THREADS];
+    long start = System.nanoTime();
+    for (int t = 0; t < THREADS; t++) {
+      long seed = t;
+      threads[t] = new Thread(() -> {
+        try (MemorySegment acquired = store.acquire()) {
+          MemoryAddress base = acquired.baseAddress();
+          long records = CreditScoreFile.records(acquired);
+          long hotRecords = Math.max(1, records * HOT_PER_MILLE / 1000);
+          CreditScoreCache.Loader loader = ssn -> {
+            // the slow storage
+            LockSupport.parkNanos(STORAGE_NANOS);
+            return load(base, records, ssn);
+          };
+          CreditScoreCache.View view = cache == null ? null : cache.view(loader);
+          SplittableRandom sr = new SplittableRandom(seed);
+          for (int i = 0; i < LOOKUPS_PER_THREAD; i++) {
+            long record = sr.nextInt(10) != 0 ? sr.nextLong(hotRecords) : sr.nextLong(records);
+            // the SSNs of the generated records (see CreditScoreFile, the
+            // sorted file has the same records), some of them unknown
+            long ssn = sr.nextInt(100) == 0 ? sr.nextLong(100_000_000)
+                : 100_000_000 + record * 1_000_003 % 900_000_000;
+            int creditScore = view == null ? loader.creditScore(ssn) : view.creditScore(ssn);
+            if (creditScore == CreditScoreCache.ABSENT && ssn >= 100_000_000)
+              throw new IllegalStateException("SSN " + CreditScoreFile.format(ssn) + " not found!");
+          }
+          if (view != null)
+            view.close();
+        }
+      }, "lookups-" + t);
+      threads[t].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * @return the credit score of the SSN in the file sorted by SSN,
+   *         {@link CreditScoreCache#ABSENT} if it isn't there
+   */
+  private static int load(MemoryAddress base, long records, long ssn) {
+    long low = 0;
+    long high = records - 1;
+    while (low <= high) {
+      long middle = (low + high) >>> 1;
+      long current = CreditScoreFile.ssn(base, middle);
+      if (current < ssn)
+        low = middle + 1;
+      else if (current > ssn)
+        high = middle - 1;
+      else
+        return CreditScoreFile.creditScore(base, middle);
+    }
+    return CreditScoreCache.ABSENT;
+  }
+}
@@ -0,0 +1,175 @@
+package com.github.kbnt.java14.fma;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
+
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemoryLayout;
+import jdk.incubator.foreign.MemoryLayout.PathElement;
+import jdk.incubator.foreign.MemorySegment;
+
+import com.github.kbnt.java14.fma.NativeMemoryTracker.TrackedSegment;
+
+/**
+ * The SSN to credit score records of
+ * {@link ForeignMemoryAccessExamples#example04SSNToCreditScoreWithPadding()} -
+ * the 9 digits of the SSN as {@code char}s, 2 bytes of padding and the credit
+ * score as an {@code int}, 24 bytes per record - as a file format: a file is
+ * just the records, one after the other.<br>
+ * <br>
+ * The accessors take the base address of a segment owned (or acquired) by the
+ * calling thread and the index of a record, so the scans don't create any
+ * object per record.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class CreditScoreFile {
+  public static final int SSN_DIGITS = 9;
+  public static final int MIN_CREDIT_SCORE = 300;
+  public static final int MAX_CREDIT_SCORE = 850;
+
+  private static final ByteOrder ORDER = ByteOrder.nativeOrder();
+  public static final MemoryLayout RECORD = MemoryLayout.ofStruct(
+      MemoryLayout.ofSequence(SSN_DIGITS, MemoryLayout.ofValueBits(Character.SIZE, ORDER)).withName("ssn"),
+      MemoryLayout.ofPaddingBits(16), MemoryLayout.ofValueBits(Integer.SIZE, ORDER).withName("creditScore"));
+  public static final long RECORD_BYTES = RECORD.byteSize();
+
+  // an unbounded sequence of records: the coordinates are (address, record) or
+  // (address, record, digit)
+  private static final MemoryLayout RECORDS = MemoryLayout.ofSequence(RECORD);
+  private static final VarHandle SSN_HANDLE = RECORDS.varHandle(char.class, PathElement.sequenceElement(),
+      PathElement.groupElement("ssn"), PathElement.sequenceElement());
+  private static final VarHandle CREDIT_SCORE_HANDLE = RECORDS.varHandle(int.class, PathElement.sequenceElement(),
+      PathElement.groupElement("creditScore"));
+
+  private static final long GENERATION_CHUNK = 1 << 20;
+
+  private CreditScoreFile() {
+  }
+
+  /**
+   * @param segment a segment of records
+   * @return the number of (complete) records in the segment
+   */
+  public static long records(MemorySegment segment) {
+    return segment.byteSize() / RECORD_BYTES;
+  }
+
+  /**
+   * @param base   the base address of the segment
+   * @param record the index of the record
+   * @return the credit score of the record
+   */
+  public static int creditScore(MemoryAddress base, long record) {
+    return (int) CREDIT_SCORE_HANDLE.get(base, record);
+  }
+
+  /**
+   * @param base   the base address of the segment
+   * @param record the index of the record
+   * @return the SSN of the record, as a number
+   */
+  public static long ssn(MemoryAddress base, long record) {
+    long ssn = 0;
+    for (long digit = 0; digit < SSN_DIGITS; digit++)
+      ssn = ssn * 10 + (char) SSN_HANDLE.get(base, record, digit) - '0';
+    return ssn;
+  }
+
+  /**
+   * @param base        the base address of the segment
+   * @param record      the index of the record
+   * @param ssn         the SSN (at most 9 digits)
+   * @param creditScore the credit score
+   */
+  public static void write(MemoryAddress base, long record, long ssn, int creditScore) {
+    long digits = ssn;
+    for (long digit = SSN_DIGITS - 1; digit >= 0; digit--, digits /= 10)
+      SSN_HANDLE.set(base, record, digit, (char) ('0' + digits % 10));
+    CREDIT_SCORE_HANDLE.set(base, record, creditScore);
+  }
+
+  /**
+   * Copies a whole record.
+   */
+  public static void copy(MemoryAddress from, long fromRecord, MemoryAddress to, long toRecord) {
+    MemoryAddress.copy(from.addOffset(fromRecord * RECORD_BYTES), to.addOffset(toRecord * RECORD_BYTES),
+        RECORD_BYTES);
+  }
+
+  /**
+   * @param ssn an SSN
+   * @return the SSN formatted as usual (123-45-6789)
+   */
+  public static String format(long ssn) {
+    String digits = String.format("%09d", ssn);
+    return digits.substring(0, 3) + "-" + digits.substring(3, 5) + "-" + digits.substring(5);
+  }
+
+  /**
+   * @param path     a file of records
+   * @param mapMode  the mapping mode
+   * @return the whole file, mapped
+   * @throws IOException if the file cannot be mapped
+   */
+  public static TrackedSegment map(Path path, MapMode mapMode) throws IOException {
+    return NativeMemoryTracker.getInstance().mapFromPath(path, Files.size(path), mapMode);
+  }
+
+  /**
+   * Generates a file of records, in parallel: distinct SSNs (in a scrambled
+   * order) and credit scores between {@link #MIN_CREDIT_SCORE} and
+   * {@link #MAX_CREDIT_SCORE}, most of them in the middle.
+   *
+   * @param path    the file (created, it must not exist)
+   * @param records the number of records (at most 900 millions)
+   * @param seed    the seed of the scores
+   * @throws IOException if the file cannot be created or mapped
+   */
+  public static void generate(Path path, long records, long seed) throws IOException {
+    if (records < 0 || records > 900_000_000)
+      throw new IllegalArgumentException("Invalid number of records: " + records);
+    // a bare file name has no parent (the working directory)
+    if (path.getParent() != null)
+      Files.createDirectories(path.getParent());
+    Files.createFile(path);
+    try (TrackedSegment file = NativeMemoryTracker.getInstance().mapFromPath(path, records * RECORD_BYTES,
+        MapMode.READ_WRITE)) {
+      MemorySegment segment = file.segment();
+      long chunks = (records + GENERATION_CHUNK - 1) / GENERATION_CHUNK;
+      ForkJoinPool.commonPool().submit(() -> LongStream.range(0, chunks).parallel().forEach(chunk -> {
+        try (MemorySegment acquired = segment.acquire()) {
+          MemoryAddress base = acquired.baseAddress();
+          long to = Math.min(records, (chunk + 1) * GENERATION_CHUNK);
+          for (long record = chunk * GENERATION_CHUNK; record < to; record++) {
+            long hash = mix(seed + record);
+            // 1000003 is prime (and not a factor of 900000000), so the SSNs are
+            // distinct
+            long ssn = 100_000_000 + record * 1_000_003 % 900_000_000;
+            int spread = (MAX_CREDIT_SCORE - MIN_CREDIT_SCORE) / 2;
+            int creditScore = MIN_CREDIT_SCORE + (int) ((hash & 0xFFFF) % (spread + 1))
+                + (int) ((hash >>> 16 & 0xFFFF) % (spread + 1));
+            write(base, record, ssn, creditScore);
+          }
+        }
+      })).join();
+    }
+  }
+
+  /**
+   * The SplitMix64 finalizer.
+   */
+  static long mix(long value) {
+    long z = value * 0x9E3779B97F4A7C15L;
+    z = (z ^ z >>> 30) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ z >>> 27) * 0x94D049BB133111EBL;
+    return z ^ z >>> 31;
+  }
+}
@@ -0,0 +1,318 @@
+package com.github.kbnt.java14.fma;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemorySegment;
+
+import com.github.kbnt.java14.fma.NativeMemoryTracker.TrackedSegment;
+
+/**
+ * An external sort of the SSN to credit score files (see
+ * {@link CreditScoreFile}) - the records never get on the heap, so the files
+ * can be much larger than the heap (and than the RAM). Two phases:
+ * <ol>
+ * <li><b>Run generation</b> - the input is split in runs of a fixed number of
+ * records, sorted in parallel: the keys of a run (packed with the index of
+ * their record) are sorted on the heap, then the records are copied in that
+ * order to a mapped runs file, next to the output.
+ * <li><b>Merge</b> - the key space is split in partitions (the splitters are
+ * sampled from the sorted runs), so the partitions are merged in parallel: a
+ * partition k-way merges its part of every run, with a heap of the current key
+ * of every run, into its own range of the mapped output.
+ * </ol>
+ * The sort is stable: the ties are broken by the index of the record in its
+ * run, then by the index of the run. The keys are read through the handles of
+ * the record layout ({@link CreditScoreFile#RECORD}) - the 9 digits of the SSN
+ * or the credit score.<br>
+ * <br>
+ * The heap needed is 8 bytes per record of a run, for every run sorted at the
+ * same time (the parallelism of the pool).
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class CreditScoreSort {
+  public static final String RUNS_EXTENSION = ".runs";
+  // the index of the run in the merge heap entries (the SSNs take 30 bits)
+  private static final int RUN_BITS = 24;
+  private static final long RUN_MASK = (1L << RUN_BITS) - 1;
+  private static final int SAMPLES_PER_PARTITION = 64;
+
+  private CreditScoreSort() {
+  }
+
+  /**
+   * The sort key.
+   */
+  public enum Key {
+    SSN {
+      @Override
+      long of(MemoryAddress base, long record) {
+        return CreditScoreFile.ssn(base, record);
+      }
+    },
+    CREDIT_SCORE {
+      @Override
+      long of(MemoryAddress base, long record) {
+        return CreditScoreFile.creditScore(base, record);
+      }
+    };
+
+    /**
+     * @return the key of a record (positive, below 2^30)
+     */
+    abstract long of(MemoryAddress base, long record);
+  }
+
+  /**
+   * One phase of a sort.
+   */
+  public record Phase(String name, long nanos, long bytesRead, long bytesWritten) {
+    @Override
+    public String toString() {
+      double seconds = nanos / 1e9;
+      return name + ": " + nanos / 1000000 + " milliseconds, " + bytesRead / (1024 * 1024) + " MB read and "
+          + bytesWritten / (1024 * 1024) + " MB written ("
+          + Math.round((bytesRead + bytesWritten) / (1024 * 1024) / Math.max(seconds, 1e-9)) + " MB/s)";
+    }
+  }
+
+  /**
+   * What a sort did.
+   */
+  public record Report(long records, int runs, int partitions, Phase runGeneration, Phase merge) {
+    public long nanos() {
+      return runGeneration.nanos() + merge.nanos();
+    }
+
+    @Override
+    public String toString() {
+      return records + " records, " + runs + " runs, " + partitions + " partitions, " + nanos() / 1000000
+          + " milliseconds:\n  " + runGeneration + "\n  " + merge;
+    }
+  }
+
+  /**
+   * Sorts a file with the common pool.
+   *
+   * @param input      the file to sort
+   * @param output     the sorted file (created, it must not exist)
+   * @param key        the sort key
+   * @param runRecords the number of records of a run
+   * @return the report of the sort
+   * @throws IOException if the files cannot be mapped
+   */
+  public static Report sort(Path input, Path output, Key key, long runRecords) throws IOException {
+    return sort(input, output, key, runRecords, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Sorts a file with the given pool.
+   *
+   * @param input      the file to sort
+   * @param output     the sorted file (created, it must not exist)
+   * @param key        the sort key
+   * @param runRecords the number of records of a run
+   * @param pool       the pool sorting the runs and merging the partitions
+   * @return the report of the sort
+   * @throws IOException if the files cannot be mapped
+   */
+  public static Report sort(Path input, Path output, Key key, long runRecords, ForkJoinPool pool)
+      throws IOException {
+    if (runRecords < 1 || runRecords > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Invalid number of records per run: " + runRecords);
+    long records = Files.size(input) / CreditScoreFile.RECORD_BYTES;
+    long bytes = records * CreditScoreFile.RECORD_BYTES;
+    int runs = (int) ((records + runRecords - 1) / runRecords);
+    if (runs > RUN_MASK)
+      throw new IllegalArgumentException("Too many runs: " + runs);
+    Files.createFile(output);
+    if (records == 0)
+      return new Report(0, 0, 0, new Phase("run generation", 0, 0, 0), new Phase("merge", 0, 0, 0));
+
+    NativeMemoryTracker tracker = NativeMemoryTracker.getInstance();
+    Path runsPath = output.resolveSibling(output.getFileName() + RUNS_EXTENSION);
+    Files.deleteIfExists(runsPath);
+    Files.createFile(runsPath);
+    try (TrackedSegment in = CreditScoreFile.map(input, MapMode.READ_ONLY);
+        TrackedSegment runsFile = tracker.mapFromPath(runsPath, bytes, MapMode.READ_WRITE)) {
+      MemorySegment inSegment = in.segment();
+      MemorySegment runsSegment = runsFile.segment();
+
+      long start = System.nanoTime();
+      pool.submit(() -> IntStream.range(0, runs).parallel().forEach(run -> sortRun(inSegment, runsSegment, key,
+          run * runRecords, Math.min(records, (run + 1) * runRecords)))).join();
+      Phase runGeneration = new Phase("run generation", System.nanoTime() - start, bytes, bytes);
+
+      start = System.nanoTime();
+      // a single run is already sorted, but we still need the output
+      int partitions = runs == 1 ? 1 : pool.getParallelism() * 4;
+      long[][] bounds = partitionBounds(runsSegment.baseAddress(), key, records, runRecords, runs, partitions);
+      try (TrackedSegment out = tracker.mapFromPath(output, bytes, MapMode.READ_WRITE)) {
+        MemorySegment outSegment = out.segment();
+        pool.submit(() -> IntStream.range(0, partitions).parallel().forEach(
+            p -> mergePartition(runsSegment, outSegment, key, bounds[p], bounds[p + 1], outputStart(bounds, p))))
+            .join();
+      }
+      Phase merge = new Phase("merge", System.nanoTime() - start, bytes, bytes);
+      return new Report(records, runs, partitions, runGeneration, merge);
+    } finally {
+      Files.deleteIfExists(runsPath);
+    }
+  }
+
+  /**
+   * @param file a file of records
+   * @param key  the sort key
+   * @return the index of the first record out of order, -1 if the file is
+   *         sorted
+   * @throws IOException if the file cannot be mapped
+   */
+  public static long firstUnsorted(Path file, Key key) throws IOException {
+    try (TrackedSegment in = CreditScoreFile.map(file, MapMode.READ_ONLY)) {
+      MemoryAddress base = in.segment().baseAddress();
+      long records = CreditScoreFile.records(in.segment());
+      long previous = Long.MIN_VALUE;
+      for (long record = 0; record < records; record++) {
+        long current = key.of(base, record);
+        if (current < previous)
+          return record;
+        previous = current;
+      }
+      return -1;
+    }
+  }
+
+  private static void sortRun(MemorySegment in, MemorySegment runs, Key key, long from, long to) {
+    try (MemorySegment input = in.acquire(); MemorySegment output = runs.acquire()) {
+      MemoryAddress inBase = input.baseAddress();
+      MemoryAddress outBase = output.baseAddress();
+      int length = (int) (to - from);
+      // the key and the index of its record: sorting the longs sorts the
+      // records, stable
+      long[] keys = new long[length];
+      for (int i = 0; i < length; i++)
+        keys[i] = key.of(inBase, from + i) << Integer.SIZE | i;
+      Arrays.sort(keys);
+      for (int i = 0; i < length; i++)
+        CreditScoreFile.copy(inBase, from + (keys[i] & 0xFFFFFFFFL), outBase, from + i);
+    }
+  }
+
+  /**
+   * @return for every partition boundary (0 to partitions included), the first
+   *         record of every run in the partition after that boundary; the
+   *         partition {@code p} is the records between {@code bounds[p]} and
+   *         {@code bounds[p + 1]}
+   */
+  private static long[][] partitionBounds(MemoryAddress runsBase, Key key, long records, long runRecords, int runs,
+      int partitions) {
+    // the splitters are quantiles of a sample of the sorted runs
+    int samplesPerRun = Math.max(1, SAMPLES_PER_PARTITION * partitions / runs);
+    long[] sample = new long[runs * samplesPerRun];
+    for (int run = 0; run < runs; run++) {
+      long from = run * runRecords;
+      long length = Math.min(records, from + runRecords) - from;
+      for (int s = 0; s < samplesPerRun; s++)
+        sample[run * samplesPerRun + s] = key.of(runsBase, from + length * s / samplesPerRun);
+    }
+    Arrays.sort(sample);
+
+    long[][] bounds = new long[partitions + 1][runs];
+    for (int run = 0; run < runs; run++) {
+      long from = run * runRecords;
+      long to = Math.min(records, from + runRecords);
+      bounds[0][run] = from;
+      bounds[partitions][run] = to;
+      for (int p = 1; p < partitions; p++) {
+        long splitter = sample[(int) ((long) sample.length * p / partitions)];
+        bounds[p][run] = lowerBound(runsBase, key, bounds[p - 1][run], to, splitter);
+      }
+    }
+    return bounds;
+  }
+
+  /**
+   * @return the first record between {@code from} and {@code to} (a sorted
+   *         range) with a key greater or equal to {@code value}
+   */
+  private static long lowerBound(MemoryAddress base, Key key, long from, long to, long value) {
+    long low = from;
+    long high = to;
+    while (low < high) {
+      long middle = (low + high) >>> 1;
+      if (key.of(base, middle) < value)
+        low = middle + 1;
+      else
+        high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * @return where a partition starts in the output: the partitions before it
+   *         take all the records before its bounds in every run
+   */
+  private static long outputStart(long[][] bounds, int partition) {
+    long start = 0;
+    for (int run = 0; run < bounds[0].length; run++)
+      start += bounds[partition][run] - bounds[0][run];
+    return start;
+  }
+
+  /**
+   * Merges the parts of the runs between {@code from} and {@code to} into the
+   * output, from the record {@code next}.
+   */
+  private static void mergePartition(MemorySegment runs, MemorySegment out, Key key, long[] from, long[] to,
+      long next) {
+    try (MemorySegment input = runs.acquire(); MemorySegment output = out.acquire()) {
+      MemoryAddress inBase = input.baseAddress();
+      MemoryAddress outBase = output.baseAddress();
+      long[] cursors = from.clone();
+      // a min-heap of the current key of every run, with the index of the run
+      // (so the ties are merged in the order of the runs)
+      long[] heap = new long[cursors.length];
+      int size = 0;
+      for (int run = 0; run < cursors.length; run++)
+        if (cursors[run] < to[run])
+          heap[size++] = key.of(inBase, cursors[run]) << RUN_BITS | run;
+      // a sorted array is a heap
+      Arrays.sort(heap, 0, size);
+
+      while (size > 0) {
+        int run = (int) (heap[0] & RUN_MASK);
+        CreditScoreFile.copy(inBase, cursors[run]++, outBase, next++);
+        if (cursors[run] < to[run])
+          heap[0] = key.of(inBase, cursors[run]) << RUN_BITS | run;
+        else
+          heap[0] = heap[--size];
+        siftDown(heap, size);
+      }
+    }
+  }
+
+  /**
+   * Restores the heap after its top was replaced.
+   */
+  private static void siftDown(long[] heap, int size) {
+    int parent = 0;
+    long value = heap[0];
+    for (int child; (child = 2 * parent + 1) < size; parent = child) {
+      if (child + 1 < size && heap[child + 1] < heap[child])
+        child++;
+      if (value <= heap[child])
+        break;
+      heap[parent] = heap[child];
+    }
+    if (size > 0)
+      heap[parent] = value;
+  }
+}
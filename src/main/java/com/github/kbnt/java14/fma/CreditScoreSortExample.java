@@ -0,0 +1,101 @@
+package com.github.kbnt.java14.fma;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import jdk.incubator.foreign.MemoryAddress;
+
+import com.github.kbnt.java14.fma.CreditScoreSort.Key;
+import com.github.kbnt.java14.fma.CreditScoreSort.Report;
+import com.github.kbnt.java14.fma.NativeMemoryTracker.TrackedSegment;
+
+/**
+ * Sorts a file of SSN to credit score records (20 millions, or the number
+ * given as the first argument) with {@link CreditScoreSort}, by SSN and by
+ * credit score, with small and large runs, and checks the results.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class CreditScoreSortExample {
+  private static final long[] RUN_RECORDS = { 1 << 20, 1 << 23 };
+
+  public static void main(String[] args) {
+    try {
+      CreditScoreSortExample csse = new CreditScoreSortExample();
+      long records = args.length > 0 ? Long.parseLong(args[0]) : 20_000_000;
+      Path input = Paths.get("target", "runtime", "credit-scores-unsorted.bin");
+      csse.example00Generate(input, records);
+      csse.example01Sort(input, Key.SSN);
+      csse.example01Sort(input, Key.CREDIT_SCORE);
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with one of our examples:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  public void example00Generate(Path input, long records) throws IOException {
+    insertExampleSeparator();
+
+    if (Files.exists(input) && Files.size(input) == records * CreditScoreFile.RECORD_BYTES) {
+      System.out.println("Reusing " + input + ".");
+      return;
+    }
+    Files.deleteIfExists(input);
+    long start = System.nanoTime();
+    CreditScoreFile.generate(input, records, 2342342);
+    System.out.println(records + " records (" + Files.size(input) / (1024 * 1024) + " MB) generated in "
+        + (System.nanoTime() - start) / 1000000 + " milliseconds.");
+  }
+
+  public void example01Sort(Path input, Key key) throws IOException {
+    insertExampleSeparator();
+
+    long checksum = checksum(input);
+    for (long runRecords : RUN_RECORDS) {
+      Path output = input.resolveSibling("credit-scores-by-" + key.name().toLowerCase() + ".bin");
+      Files.deleteIfExists(output);
+      Report report = CreditScoreSort.sort(input, output, key, runRecords);
+      System.out.println("Sorted by " + key + " with runs of " + runRecords + " records: " + report);
+
+      long unsorted = CreditScoreSort.firstUnsorted(output, key);
+      if (unsorted >= 0)
+        throw new IllegalStateException("The record " + unsorted + " is out of order!");
+      if (checksum(output) != checksum)
+        throw new IllegalStateException("The records changed!");
+      printFirstAndLast(output);
+      Files.delete(output);
+    }
+  }
+
+  /**
+   * The same records, in any order, have the same checksum.
+   */
+  private static long checksum(Path file) throws IOException {
+    try (TrackedSegment in = CreditScoreFile.map(file, MapMode.READ_ONLY)) {
+      MemoryAddress base = in.segment().baseAddress();
+      long checksum = 0;
+      for (long record = 0; record < CreditScoreFile.records(in.segment()); record++)
+        checksum += CreditScoreFile.mix(CreditScoreFile.ssn(base, record) << 10 | CreditScoreFile.creditScore(base,
+            record));
+      return checksum;
+    }
+  }
+
+  private static void printFirstAndLast(Path file) throws IOException {
+    try (TrackedSegment in = CreditScoreFile.map(file, MapMode.READ_ONLY)) {
+      MemoryAddress base = in.segment().baseAddress();
+      long last = CreditScoreFile.records(in.segment()) - 1;
+      System.out.println("  first " + CreditScoreFile.format(CreditScoreFile.ssn(base, 0)) + " "
+          + CreditScoreFile.creditScore(base, 0) + ", last " + CreditScoreFile.format(CreditScoreFile.ssn(base, last))
+          + " " + CreditScoreFile.creditScore(base, last) + ".");
+    }
+  }
+}
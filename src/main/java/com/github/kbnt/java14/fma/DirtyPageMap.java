@@ -0,0 +1,131 @@
+package com.github.kbnt.java14.fma;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * One bit per page of a segment, set by the write paths after they write a
+ * page and cleared by the {@link IncrementalCheckpointer} when it copies the
+ * page - so a checkpoint ships only the pages changed since the previous
+ * one.<br>
+ * <br>
+ * The protocol, for any number of writers and one checkpointer:
+ * <ul>
+ * <li>a writer marks a page <b>after</b> writing it: a full fence (the write
+ * is visible before the bit is read), then the bit is set only if it is clear
+ * - the hot pages don't make the writers fight over the cache lines of the
+ * bitmap;
+ * <li>the checkpointer atomically clears a word, then copies its pages: a
+ * write is either visible to that copy, or its bit is set again for the next
+ * checkpoint.
+ * </ul>
+ * Marking a range (e.g. a chunk of persons) costs one fence for all its pages,
+ * so the chunked write paths should mark per chunk rather than per byte.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class DirtyPageMap {
+  public static final int PAGE_SHIFT = 12;
+  public static final long PAGE_SIZE = 1L << PAGE_SHIFT;
+  private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+  private final long byteSize;
+  private final long pages;
+  private final long[] words;
+
+  /**
+   * @param byteSize the size of the tracked segment
+   * @param allDirty whether all the pages start dirty (so the first
+   *                 checkpoint is a full copy)
+   */
+  public DirtyPageMap(long byteSize, boolean allDirty) {
+    this.byteSize = byteSize;
+    this.pages = (byteSize + PAGE_SIZE - 1) >>> PAGE_SHIFT;
+    if ((pages + 63) / 64 > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Too large: " + byteSize);
+    this.words = new long[(int) ((pages + 63) / 64)];
+    if (allDirty)
+      markRange(0, byteSize);
+  }
+
+  public long byteSize() {
+    return byteSize;
+  }
+
+  public long pages() {
+    return pages;
+  }
+
+  /**
+   * Marks the page of a byte that was just written.
+   *
+   * @param offset the offset of the byte
+   */
+  public void mark(long offset) {
+    VarHandle.fullFence();
+    setBit(offset >>> PAGE_SHIFT);
+  }
+
+  /**
+   * Marks the pages of bytes that were just written.
+   *
+   * @param from the offset of the first byte
+   * @param to   the offset after the last byte
+   */
+  public void markRange(long from, long to) {
+    if (from >= to)
+      return;
+    VarHandle.fullFence();
+    for (long page = from >>> PAGE_SHIFT; page <= (to - 1) >>> PAGE_SHIFT; page++)
+      setBit(page);
+  }
+
+  /**
+   * @return the number of dirty pages (a snapshot, while the writers go on)
+   */
+  public long dirtyPages() {
+    long dirty = 0;
+    for (int word = 0; word < words.length; word++)
+      dirty += Long.bitCount((long) WORDS.getOpaque(words, word));
+    return dirty;
+  }
+
+  /**
+   * Clears the dirty pages of a word.
+   *
+   * @param word the word (64 pages, from {@code word * 64})
+   * @return the pages that were dirty, as bits
+   */
+  long drain(int word) {
+    // skip the clean words without writing to them
+    if ((long) WORDS.getOpaque(words, word) == 0)
+      return 0;
+    // volatile, not acquire: the clear must be visible before the copy reads
+    // the pages (the writers write, fence, then read the bit)
+    return (long) WORDS.getAndSet(words, word, 0L);
+  }
+
+  /**
+   * Sets the dirty pages of a word again (e.g. drained by a checkpoint that
+   * failed before shipping them).
+   *
+   * @param word the word (64 pages, from {@code word * 64})
+   * @param bits the pages, as bits
+   */
+  void restore(int word, long bits) {
+    if (bits != 0)
+      WORDS.getAndBitwiseOr(words, word, bits);
+  }
+
+  int words() {
+    return words.length;
+  }
+
+  private void setBit(long page) {
+    int word = (int) (page >>> 6);
+    long bit = 1L << page;
+    if (((long) WORDS.getOpaque(words, word) & bit) == 0)
+      WORDS.getAndBitwiseOrRelease(words, word, bit);
+  }
+}
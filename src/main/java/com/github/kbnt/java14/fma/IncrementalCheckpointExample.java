@@ -0,0 +1,198 @@
+package com.github.kbnt.java14.fma;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemoryHandles;
+import jdk.incubator.foreign.MemorySegment;
+
+import com.github.kbnt.java14.fma.IncrementalCheckpointer.Checkpoint;
+import com.github.kbnt.java14.fma.NativeMemoryTracker.TrackedSegment;
+
+/**
+ * Writers update random persons of a mapped file in the {@link SleepAnalytics}
+ * format (most of the updates hit a small hot part of the file), while an
+ * {@link IncrementalCheckpointer} ships the dirty pages to a replica in the
+ * background. We report:
+ * <ul>
+ * <li>the updates per second without tracking, with the dirty pages tracked
+ * and with the checkpoints running - and, for the latter, while a checkpoint
+ * copies pages or not;
+ * <li>the bytes shipped by every checkpoint, against a full copy of the file.
+ * </ul>
+ * At the end the replica must be equal to the file.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class IncrementalCheckpointExample {
+  private static final long SIZE = 256L * 1024 * 1024;
+  private static final long HOT_SIZE = SIZE / 100;
+  private static final int WRITERS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+  private static final long RUN_MILLIS = 3000;
+  private static final long CHECKPOINT_MILLIS = 200;
+  private static final long WINDOW_MILLIS = 20;
+  private static final VarHandle BYTE_HANDLE = MemoryHandles
+      .withStride(MemoryHandles.varHandle(byte.class, ByteOrder.nativeOrder()), 1);
+
+  private volatile boolean stopped;
+
+  public static void main(String[] args) {
+    try {
+      IncrementalCheckpointExample ice = new IncrementalCheckpointExample();
+      Path path = Paths.get("target", "runtime", "checkpoint-db.bin");
+      Path replica = path.resolveSibling("checkpoint-db.replica");
+      Files.createDirectories(path.getParent());
+      Files.deleteIfExists(path);
+      Files.deleteIfExists(replica);
+      Files.createFile(path);
+      try (TrackedSegment file = NativeMemoryTracker.getInstance().mapFromPath(path, SIZE, MapMode.READ_WRITE)) {
+        ice.example00WritersAlone(file.segment());
+        ice.example01Checkpoints(file.segment(), replica);
+      }
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with one of our examples:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  public void example00WritersAlone(MemorySegment segment) throws InterruptedException {
+    insertExampleSeparator();
+
+    Rates untracked = write(segment, null, null);
+    System.out.println(WRITERS + " writers, no tracking: " + untracked.overall() + " updates per second.");
+    Rates tracked = write(segment, new DirtyPageMap(SIZE, false), null);
+    System.out.println(WRITERS + " writers, dirty pages tracked: " + tracked.overall() + " updates per second ("
+        + percent(tracked.overall(), untracked.overall()) + ").");
+  }
+
+  public void example01Checkpoints(MemorySegment segment, Path replica) throws Exception {
+    insertExampleSeparator();
+
+    DirtyPageMap dirtyPages = new DirtyPageMap(SIZE, true);
+    List<Checkpoint> checkpoints = new ArrayList<>();
+    Rates rates;
+    try (IncrementalCheckpointer checkpointer = new IncrementalCheckpointer(segment, dirtyPages,
+        IncrementalCheckpointer.replica(replica), CHECKPOINT_MILLIS, checkpoints::add)) {
+      rates = write(segment, dirtyPages, checkpointer);
+    }
+    // the last one was made by close(), after the writers
+    long shipped = 0;
+    for (Checkpoint checkpoint : checkpoints) {
+      System.out.println(checkpoint + " (" + String.format("%.1f", 100.0 * checkpoint.bytes() / SIZE)
+          + "% of the file).");
+      shipped += checkpoint.bytes();
+    }
+    System.out.println(checkpoints.size() + " checkpoints shipped " + shipped / (1024 * 1024) + " MB, full copies would "
+        + "have shipped " + checkpoints.size() * SIZE / (1024 * 1024) + " MB.");
+    System.out.println(WRITERS + " writers with the checkpoints: " + rates.overall()
+        + " updates per second; while a checkpoint runs: " + rates.duringCheckpoints() + " ("
+        + percent(rates.duringCheckpoints(), rates.outsideCheckpoints()) + " against the rest of the time, "
+        + rates.checkpointWindows + " of " + rates.windows + " windows).");
+
+    try (FileChannel channel = FileChannel.open(replica, StandardOpenOption.READ);
+        MemorySegment acquired = segment.acquire()) {
+      boolean equal = channel.map(FileChannel.MapMode.READ_ONLY, 0, SIZE).equals(acquired.asByteBuffer());
+      System.out.println("The replica is " + (equal ? "equal to" : "DIFFERENT from") + " the file.");
+    }
+  }
+
+  private static String percent(long rate, long reference) {
+    return String.format("%+.1f%%", 100.0 * (rate - reference) / reference);
+  }
+
+  /**
+   * The updates per second, overall and over windows of
+   * {@link #WINDOW_MILLIS} with or without a checkpoint running.
+   */
+  private static final class Rates {
+    private long updates;
+    private long nanos;
+    private long windows;
+    private long checkpointWindows;
+    private long checkpointUpdates;
+    private long checkpointNanos;
+
+    long overall() {
+      return Math.round(updates * 1e9 / nanos);
+    }
+
+    long duringCheckpoints() {
+      return checkpointNanos == 0 ? 0 : Math.round(checkpointUpdates * 1e9 / checkpointNanos);
+    }
+
+    long outsideCheckpoints() {
+      return nanos == checkpointNanos ? 0
+          : Math.round((updates - checkpointUpdates) * 1e9 / (nanos - checkpointNanos));
+    }
+  }
+
+  private Rates write(MemorySegment segment, DirtyPageMap dirtyPages, IncrementalCheckpointer checkpointer)
+      throws InterruptedException {
+    LongAdder updates = new LongAdder();
+    Thread[] writers = new Thread[WRITERS];
+    stopped = false;
+    for (int w = 0; w < WRITERS; w++) {
+      long seed = w;
+      writers[w] = new Thread(() -> {
+        SplittableRandom sr = new SplittableRandom(seed);
+        try (MemorySegment acquired = segment.acquire()) {
+          MemoryAddress base = acquired.baseAddress();
+          while (!stopped) {
+            for (int i = 0; i < 1024; i++) {
+              long person = sr.nextInt(10) == 0 ? sr.nextLong(SIZE) : sr.nextLong(HOT_SIZE);
+              BYTE_HANDLE.set(base, person, (byte) (sr.nextBoolean() ? 0b10000000 | 20 + sr.nextInt(4)
+                  : 6 + sr.nextInt(4)));
+              if (dirtyPages != null)
+                dirtyPages.mark(person);
+            }
+            updates.add(1024);
+          }
+        }
+      }, "writer-" + w);
+      writers[w].start();
+    }
+
+    Rates rates = new Rates();
+    long start = System.nanoTime();
+    long previous = 0;
+    long previousTime = start;
+    while (previousTime - start < RUN_MILLIS * 1000000) {
+      boolean checkpointing = checkpointer != null && checkpointer.isRunning();
+      Thread.sleep(WINDOW_MILLIS);
+      checkpointing |= checkpointer != null && checkpointer.isRunning();
+      long now = System.nanoTime();
+      long current = updates.sum();
+      rates.windows++;
+      if (checkpointing) {
+        rates.checkpointWindows++;
+        rates.checkpointUpdates += current - previous;
+        rates.checkpointNanos += now - previousTime;
+      }
+      previous = current;
+      previousTime = now;
+    }
+    rates.updates = previous;
+    rates.nanos = previousTime - start;
+
+    stopped = true;
+    for (Thread writer : writers)
+      writer.join();
+    return rates;
+  }
+}
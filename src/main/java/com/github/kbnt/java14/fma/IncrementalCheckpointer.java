@@ -0,0 +1,373 @@
+package com.github.kbnt.java14.fma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * Copies the pages of a segment changed since the previous checkpoint (see
+ * {@link DirtyPageMap}) to a sink, in the background, without stopping the
+ * writers. The consecutive dirty pages are shipped together, straight from
+ * the segment (no copy on the heap). Two sinks:
+ * <ul>
+ * <li>a <b>replica</b> file - the pages are written at the same offsets, so
+ * the replica catches up with the segment at every checkpoint;
+ * <li>a <b>delta</b> file - the pages are appended (offset, length, bytes), one
+ * checkpoint after the other, to be applied later on another copy (see
+ * {@link #applyDelta(Path, Path)}).
+ * </ul>
+ * A checkpoint is fuzzy: the writers go on while the pages are copied, so a
+ * page may be copied with writes newer than others - its bit is set again and
+ * the next checkpoint ships it again. Once the writers stopped, a last
+ * checkpoint (done by {@link #close()}) makes the replica equal to the
+ * segment. A checkpoint that fails sets the bits of the pages it drained
+ * again, so the next one ships them.<br>
+ * <br>
+ * The checkpointer acquires the segment for every checkpoint, so the segment
+ * must not be closed before the checkpointer.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class IncrementalCheckpointer implements AutoCloseable {
+  private static final long END_OF_CHECKPOINT = -1;
+
+  /**
+   * Where the dirty pages go.
+   */
+  public interface PageSink extends AutoCloseable {
+    /**
+     * @param offset the offset of the pages in the segment
+     * @param pages  the content of the pages
+     */
+    void write(long offset, ByteBuffer pages) throws IOException;
+
+    /**
+     * Called once all the pages of a checkpoint were written.
+     *
+     * @param checkpoint the number of the checkpoint
+     */
+    void completed(long checkpoint) throws IOException;
+
+    @Override
+    void close() throws IOException;
+  }
+
+  /**
+   * What a checkpoint shipped.
+   */
+  public record Checkpoint(long number, long pages, long runs, long bytes, long nanos) {
+    @Override
+    public String toString() {
+      return "Checkpoint " + number + ": " + pages + " pages in " + runs + " runs, " + bytes / 1024 + " KB shipped in "
+          + nanos / 1000000 + " milliseconds";
+    }
+  }
+
+  private final MemorySegment segment;
+  private final DirtyPageMap dirtyPages;
+  private final PageSink sink;
+  private final Consumer<Checkpoint> listener;
+  private final ScheduledExecutorService scheduler;
+  private final long[] drained;
+
+  private long checkpoints;
+  private final LongAdder bytesShipped = new LongAdder();
+  private volatile boolean running;
+  private volatile Checkpoint last;
+
+  /**
+   * Starts checkpointing in the background.
+   *
+   * @param segment      the segment (written by the writers, which mark the
+   *                     dirty pages)
+   * @param dirtyPages   the dirty pages of the segment
+   * @param sink         where the pages go (closed with the checkpointer)
+   * @param periodMillis the time between the end of a checkpoint and the
+   *                     start of the next one
+   * @param listener     called after every checkpoint ({@code null} for none)
+   */
+  public IncrementalCheckpointer(MemorySegment segment, DirtyPageMap dirtyPages, PageSink sink, long periodMillis,
+      Consumer<Checkpoint> listener) {
+    if (dirtyPages.byteSize() != segment.byteSize())
+      throw new IllegalArgumentException("The dirty pages don't match the segment");
+    this.segment = segment;
+    this.dirtyPages = dirtyPages;
+    this.sink = sink;
+    this.listener = listener;
+    drained = new long[dirtyPages.words()];
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "incremental-checkpointer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    scheduler.scheduleWithFixedDelay(() -> {
+      try {
+        checkpoint();
+      } catch (IOException e) {
+        System.err.println("The checkpoint failed: " + e.getMessage());
+        e.printStackTrace();
+      }
+    }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * A replica of the segment: the pages are written at their offsets.
+   *
+   * @param path the replica (created if needed)
+   * @return the sink
+   * @throws IOException if the replica cannot be opened
+   */
+  public static PageSink replica(Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    return new PageSink() {
+      @Override
+      public void write(long offset, ByteBuffer pages) throws IOException {
+        while (pages.hasRemaining())
+          offset += channel.write(pages, offset);
+      }
+
+      @Override
+      public void completed(long checkpoint) throws IOException {
+        channel.force(false);
+      }
+
+      @Override
+      public void close() throws IOException {
+        channel.close();
+      }
+    };
+  }
+
+  /**
+   * A delta file: the pages are appended, every checkpoint ends with a marker.
+   * A failed write is truncated away, so the file always ends with a complete
+   * entry.
+   *
+   * @param path the delta file (created or truncated)
+   * @return the sink
+   * @throws IOException if the file cannot be opened
+   */
+  public static PageSink delta(Path path) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+    ByteBuffer header = ByteBuffer.allocateDirect(Long.BYTES + Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    return new PageSink() {
+      // the end of the last complete entry
+      private long end;
+
+      @Override
+      public void write(long offset, ByteBuffer pages) throws IOException {
+        try {
+          writeHeader(offset, pages.remaining());
+          while (pages.hasRemaining())
+            channel.write(pages);
+        } catch (IOException | RuntimeException e) {
+          truncate(e);
+          throw e;
+        }
+        end = channel.position();
+      }
+
+      @Override
+      public void completed(long checkpoint) throws IOException {
+        try {
+          writeHeader(END_OF_CHECKPOINT, (int) checkpoint);
+          channel.force(false);
+        } catch (IOException | RuntimeException e) {
+          truncate(e);
+          throw e;
+        }
+        end = channel.position();
+      }
+
+      /**
+       * Removes the torn entry before the failure is thrown: applyDelta would
+       * misread it, and every entry appended after it.
+       */
+      private void truncate(Exception failure) {
+        try {
+          channel.truncate(end);
+          channel.position(end);
+        } catch (IOException | RuntimeException e) {
+          failure.addSuppressed(e);
+        }
+      }
+
+      private void writeHeader(long offset, int length) throws IOException {
+        header.clear().putLong(offset).putInt(length).flip();
+        while (header.hasRemaining())
+          channel.write(header);
+      }
+
+      @Override
+      public void close() throws IOException {
+        channel.close();
+      }
+    };
+  }
+
+  /**
+   * Applies the complete checkpoints of a delta file to a copy of the segment.
+   *
+   * @param delta  the delta file
+   * @param target the copy (e.g. the replica of an earlier checkpoint, or a
+   *               new file if the delta starts with a full checkpoint)
+   * @return the number of checkpoints applied
+   * @throws IOException if the files cannot be read or written
+   */
+  public static long applyDelta(Path delta, Path target) throws IOException {
+    try (FileChannel in = FileChannel.open(delta, StandardOpenOption.READ);
+        FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      ByteBuffer header = ByteBuffer.allocateDirect(Long.BYTES + Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      long applied = 0;
+      // the entries of the current checkpoint: position in the delta, offset
+      // in the target and length - applied once the whole checkpoint is there
+      List<long[]> entries = new ArrayList<>();
+      while (readFully(in, header.clear())) {
+        long offset = header.flip().getLong();
+        int length = header.getInt();
+        if (offset == END_OF_CHECKPOINT) {
+          for (long[] entry : entries)
+            for (long copied = 0; copied < entry[2];)
+              copied += in.transferTo(entry[0] + copied, entry[2] - copied, out.position(entry[1] + copied));
+          entries.clear();
+          applied++;
+        } else {
+          entries.add(new long[] { in.position(), offset, length });
+          in.position(in.position() + length);
+        }
+      }
+      out.force(false);
+      return applied;
+    }
+  }
+
+  private static boolean readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining())
+      if (in.read(buffer) < 0)
+        return false;
+    return true;
+  }
+
+  /**
+   * Ships the dirty pages now (any thread, one checkpoint at a time).
+   *
+   * @return what was shipped
+   * @throws IOException if the sink failed
+   */
+  public synchronized Checkpoint checkpoint() throws IOException {
+    running = true;
+    // the words drained so far: set again if the checkpoint fails, or the
+    // pages not shipped yet would never be shipped
+    int drainedWords = 0;
+    try (MemorySegment source = segment.acquire()) {
+      long start = System.nanoTime();
+      long pages = 0;
+      long runs = 0;
+      long bytes = 0;
+      // the current run of consecutive dirty pages
+      long runStart = -1;
+      long runEnd = -1;
+      for (int word = 0; word < dirtyPages.words(); word++) {
+        long bits = dirtyPages.drain(word);
+        drained[word] = bits;
+        drainedWords = word + 1;
+        while (bits != 0) {
+          long page = (long) word * 64 + Long.numberOfTrailingZeros(bits);
+          bits &= bits - 1;
+          pages++;
+          if (page == runEnd) {
+            runEnd++;
+            continue;
+          }
+          if (runStart >= 0) {
+            bytes += ship(source, runStart, runEnd);
+            runs++;
+          }
+          runStart = page;
+          runEnd = page + 1;
+        }
+      }
+      if (runStart >= 0) {
+        bytes += ship(source, runStart, runEnd);
+        runs++;
+      }
+      sink.completed(checkpoints);
+      bytesShipped.add(bytes);
+      Checkpoint checkpoint = new Checkpoint(checkpoints++, pages, runs, bytes, System.nanoTime() - start);
+      last = checkpoint;
+      if (listener != null)
+        listener.accept(checkpoint);
+      return checkpoint;
+    } catch (IOException | RuntimeException e) {
+      // the pages already written are shipped again too: the checkpoint
+      // didn't complete (e.g. no end marker in a delta)
+      for (int word = 0; word < drainedWords; word++)
+        dirtyPages.restore(word, drained[word]);
+      throw e;
+    } finally {
+      running = false;
+    }
+  }
+
+  /**
+   * @return whether a checkpoint is running (e.g. to measure its impact on
+   *         the writers)
+   */
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * @return the last checkpoint, {@code null} if none yet
+   */
+  public Checkpoint last() {
+    return last;
+  }
+
+  public long bytesShipped() {
+    return bytesShipped.sum();
+  }
+
+  /**
+   * Stops the background checkpoints, ships the last dirty pages and closes
+   * the sink (the writers must be done).
+   */
+  @Override
+  public void close() throws IOException {
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try (sink) {
+      checkpoint();
+    }
+  }
+
+  private long ship(MemorySegment source, long fromPage, long toPage) throws IOException {
+    long offset = fromPage << DirtyPageMap.PAGE_SHIFT;
+    long length = Math.min(source.byteSize(), toPage << DirtyPageMap.PAGE_SHIFT) - offset;
+    // a buffer can't be larger than 2GB
+    for (long shipped = 0; shipped < length;) {
+      long chunk = Math.min(length - shipped, 1 << 30);
+      sink.write(offset + shipped, source.asSlice(offset + shipped, chunk).asByteBuffer());
+      shipped += chunk;
+    }
+    return length;
+  }
+}
@@ -0,0 +1,276 @@
+package com.github.kbnt.java14.fma;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Cleaner;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * A thin accounting layer on top of {@link MemorySegment#allocateNative(long)}
+ * and {@link MemorySegment#mapFromPath(Path, long, MapMode)}. The segments
+ * themselves are not touched - the tracker only keeps counters of the live
+ * bytes per allocation site (the first stack frame outside of this class) and
+ * exposes them through the {@link NativeMemoryTrackerMXBean}.<br>
+ * <br>
+ * A segment is returned wrapped in a {@link TrackedSegment}. If a
+ * {@code TrackedSegment} becomes unreachable without being closed, the tracker
+ * counts (and optionally reports) it as a leak. Capturing a full stack trace on
+ * every allocation would be too expensive, so only one allocation out of
+ * {@code kbnt.nmt.sampleEvery} (default 16, 0 disables the capture) keeps its
+ * stack trace. The other ones are reported with the allocation site only.
+ * Finding the allocation site walks the stack too: with
+ * {@code -Dkbnt.nmt.sites=false}, the tracker skips the walk and counts all the
+ * segments under a single {@value #UNKNOWN_SITE} site.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class NativeMemoryTracker implements NativeMemoryTrackerMXBean {
+  public static final String OBJECT_NAME = "com.github.kbnt.java14.fma:type=NativeMemoryTracker";
+  public static final String UNKNOWN_SITE = "unknown";
+
+  private static final NativeMemoryTracker INSTANCE = new NativeMemoryTracker(
+      Integer.getInteger("kbnt.nmt.sampleEvery", 16),
+      Boolean.parseBoolean(System.getProperty("kbnt.nmt.sites", "true")));
+
+  private static final StackWalker WALKER = StackWalker.getInstance();
+
+  private final ConcurrentHashMap<String, LongAdder> liveBytesBySite = new ConcurrentHashMap<>();
+  private final LongAdder liveBytes = new LongAdder();
+  private final LongAdder liveSegments = new LongAdder();
+  private final LongAdder totalAllocatedBytes = new LongAdder();
+  private final LongAdder leakedSegments = new LongAdder();
+  private final AtomicLong allocations = new AtomicLong();
+  private final Cleaner cleaner = Cleaner.create();
+  private final int sampleEvery;
+  private final boolean sites;
+  private volatile boolean leakReporting = true;
+
+  private NativeMemoryTracker(int sampleEvery, boolean sites) {
+    this.sampleEvery = sampleEvery;
+    this.sites = sites;
+  }
+
+  public static NativeMemoryTracker getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Registers the tracker with the platform MBean server (if not already
+   * registered).
+   */
+  public static void registerMXBean() {
+    try {
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+      }
+    } catch (JMException e) {
+      System.err.println("Could not register the native memory tracker: " + e.getMessage());
+    }
+  }
+
+  /**
+   * The tracked counterpart of {@link MemorySegment#allocateNative(long)}.
+   *
+   * @param bytesSize the size of the segment
+   * @return the tracked segment
+   */
+  public TrackedSegment allocateNative(long bytesSize) {
+    return track(MemorySegment.allocateNative(bytesSize));
+  }
+
+  /**
+   * The tracked counterpart of
+   * {@link MemorySegment#mapFromPath(Path, long, MapMode)}.
+   *
+   * @param path      the file to map
+   * @param bytesSize the size of the mapped segment
+   * @param mapMode   the mapping mode
+   * @return the tracked segment
+   * @throws IOException if the file could not be mapped
+   */
+  public TrackedSegment mapFromPath(Path path, long bytesSize, MapMode mapMode) throws IOException {
+    return track(MemorySegment.mapFromPath(path, bytesSize, mapMode));
+  }
+
+  private TrackedSegment track(MemorySegment segment) {
+    long bytes = segment.byteSize();
+    String site = sites ? allocationSite() : UNKNOWN_SITE;
+    Throwable stack = null;
+    if (sampleEvery > 0 && allocations.getAndIncrement() % sampleEvery == 0) {
+      stack = new Throwable("Allocation of a " + bytes + " bytes segment at " + site);
+    }
+
+    Accounting accounting = new Accounting(site, bytes, stack);
+    liveBytesBySite.computeIfAbsent(site, s -> new LongAdder()).add(bytes);
+    liveBytes.add(bytes);
+    liveSegments.increment();
+    totalAllocatedBytes.add(bytes);
+
+    TrackedSegment tracked = new TrackedSegment(segment, accounting);
+    tracked.cleanable = cleaner.register(tracked, accounting::leaked);
+    return tracked;
+  }
+
+  private static String allocationSite() {
+    return WALKER.walk(frames -> frames
+        .dropWhile(f -> f.getClassName().startsWith(NativeMemoryTracker.class.getName()))
+        .findFirst()
+        .map(f -> f.getClassName() + "." + f.getMethodName() + ":" + f.getLineNumber())
+        .orElse(UNKNOWN_SITE));
+  }
+
+  @Override
+  public long getLiveBytes() {
+    return liveBytes.sum();
+  }
+
+  @Override
+  public long getLiveSegments() {
+    return liveSegments.sum();
+  }
+
+  @Override
+  public long getTotalAllocatedBytes() {
+    return totalAllocatedBytes.sum();
+  }
+
+  @Override
+  public long getLeakedSegments() {
+    return leakedSegments.sum();
+  }
+
+  @Override
+  public long getDirectBufferBytes() {
+    for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+      if ("direct".equals(pool.getName()))
+        return pool.getMemoryUsed();
+    }
+    return 0;
+  }
+
+  @Override
+  public Map<String, Long> getLiveBytesBySite() {
+    Map<String, Long> result = new TreeMap<>();
+    liveBytesBySite.forEach((site, bytes) -> {
+      long sum = bytes.sum();
+      if (sum > 0)
+        result.put(site, sum);
+    });
+    return result;
+  }
+
+  @Override
+  public boolean isLeakReporting() {
+    return leakReporting;
+  }
+
+  @Override
+  public void setLeakReporting(boolean leakReporting) {
+    this.leakReporting = leakReporting;
+  }
+
+  /**
+   * Prints a short summary of the tracked native memory to the console.
+   */
+  public void printSummary() {
+    System.out.println("Native memory: " + getLiveBytes() + " bytes in " + getLiveSegments() + " live segments ("
+        + getTotalAllocatedBytes() + " bytes allocated overall, " + getLeakedSegments() + " leaked segments, "
+        + getDirectBufferBytes() + " bytes in direct buffers).");
+    getLiveBytesBySite().forEach((site, bytes) -> System.out.println("  " + site + ": " + bytes + " bytes"));
+  }
+
+  /**
+   * The bookkeeping of one segment. It must not reference the
+   * {@link TrackedSegment}, otherwise the cleaner would never see it as
+   * unreachable.
+   */
+  private final class Accounting {
+    private final String site;
+    private final long bytes;
+    private final Throwable stack;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private Accounting(String site, long bytes, Throwable stack) {
+      this.site = site;
+      this.bytes = bytes;
+      this.stack = stack;
+    }
+
+    private void release() {
+      if (!released.compareAndSet(false, true))
+        return;
+      liveBytesBySite.get(site).add(-bytes);
+      liveBytes.add(-bytes);
+      liveSegments.decrement();
+    }
+
+    private void leaked() {
+      // the memory is still there (only the owner thread can close the segment),
+      // so we keep it in the live counters and just flag the leak
+      if (!released.compareAndSet(false, true))
+        return;
+      leakedSegments.increment();
+      if (leakReporting) {
+        System.err.println("Leak: a segment of " + bytes + " bytes allocated at " + site + " was never closed.");
+        if (stack != null)
+          stack.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * A {@link MemorySegment} together with its accounting. Keep a reference to
+   * this object for as long as the segment is in use and close it instead of the
+   * segment.
+   */
+  public static final class TrackedSegment implements AutoCloseable {
+    private final MemorySegment segment;
+    private final Accounting accounting;
+    private Cleaner.Cleanable cleanable;
+
+    private TrackedSegment(MemorySegment segment, Accounting accounting) {
+      this.segment = segment;
+      this.accounting = accounting;
+    }
+
+    public MemorySegment segment() {
+      return segment;
+    }
+
+    public long byteSize() {
+      return accounting.bytes;
+    }
+
+    public String allocationSite() {
+      return accounting.site;
+    }
+
+    /**
+     * Closes the segment (must be called from the owner thread) and updates the
+     * counters.
+     */
+    @Override
+    public void close() {
+      segment.close();
+      accounting.release();
+      // unregistered, so the cleaner doesn't keep (and later check) it: the
+      // action does nothing once the accounting is released
+      cleanable.clean();
+    }
+  }
+}
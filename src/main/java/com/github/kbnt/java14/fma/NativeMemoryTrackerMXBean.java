@@ -0,0 +1,53 @@
+package com.github.kbnt.java14.fma;
+
+import java.util.Map;
+
+/**
+ * The management interface of the {@link NativeMemoryTracker}. Once
+ * registered (see {@link NativeMemoryTracker#registerMXBean()}), the values
+ * can be watched from JConsole/VisualVM under the
+ * {@value NativeMemoryTracker#OBJECT_NAME} name.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public interface NativeMemoryTrackerMXBean {
+  /**
+   * @return the number of bytes held by the tracked segments that were not
+   *         closed yet.
+   */
+  public long getLiveBytes();
+
+  /**
+   * @return the number of tracked segments that were not closed yet.
+   */
+  public long getLiveSegments();
+
+  /**
+   * @return the number of bytes allocated (or mapped) through the tracker since
+   *         the application started.
+   */
+  public long getTotalAllocatedBytes();
+
+  /**
+   * @return the number of tracked segments that became unreachable without being
+   *         closed.
+   */
+  public long getLeakedSegments();
+
+  /**
+   * @return the number of bytes used by direct {@link java.nio.ByteBuffer}s
+   *         (these are not allocated through the tracker, but they are native
+   *         memory as well).
+   */
+  public long getDirectBufferBytes();
+
+  /**
+   * @return the live bytes grouped by allocation site (class, method and line).
+   */
+  public Map<String, Long> getLiveBytesBySite();
+
+  public boolean isLeakReporting();
+
+  public void setLeakReporting(boolean leakReporting);
+}
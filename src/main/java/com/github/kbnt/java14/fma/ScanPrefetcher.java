@@ -0,0 +1,199 @@
+package com.github.kbnt.java14.fma;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemoryHandles;
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * Reads ahead of a scan over a memory-mapped segment. When the file is not in
+ * the page cache (e.g. {@code sleep-db.bin} or a file of SSN to credit score
+ * records larger than the RAM), a scan stalls on one page fault after the
+ * other: the kernel read-ahead helps a little, but the scan still waits for
+ * the disk most of the time. The helper threads of a prefetcher touch (read
+ * one byte of) the pages a configurable distance ahead of the scan cursor, so
+ * the faults - and the disk reads - happen in parallel with the scan, and the
+ * scan mostly finds its pages already mapped.<br>
+ * <br>
+ * Two patterns are supported:
+ * <ul>
+ * <li><b>sequential</b> - every page of the segment;
+ * <li><b>strided</b> - one page every {@code stride} bytes, for the scans
+ * reading one value every {@code stride} bytes (e.g. sampling a large
+ * segment).
+ * </ul>
+ * The scan reports its position with {@link #advance(long)} (once per page or
+ * once per chunk is enough; with several scanning threads the furthest
+ * position wins). The helpers never go further than the distance ahead of it,
+ * so the prefetched pages are not evicted before the scan gets there.<br>
+ * <br>
+ * The helpers acquire the segment in their own threads, so the segment must
+ * not be closed before the prefetcher.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class ScanPrefetcher implements AutoCloseable {
+  public static final long PAGE_SIZE = 4096;
+  private static final long WAIT_NANOS = 50_000;
+  private static final VarHandle BYTE_HANDLE = MemoryHandles.varHandle(byte.class, ByteOrder.nativeOrder());
+
+  private final MemorySegment segment;
+  private final long stepBytes;
+  private final long steps;
+  private final long distance;
+  private final Thread[] helpers;
+
+  private final AtomicLong nextStep = new AtomicLong();
+  private final AtomicLong cursor = new AtomicLong();
+  private volatile boolean closed;
+
+  private final LongAdder prefetched = new LongAdder();
+  private final LongAdder late = new LongAdder();
+  private final LongAdder waits = new LongAdder();
+  @SuppressWarnings("unused")
+  private volatile long sink;
+
+  private ScanPrefetcher(MemorySegment segment, long stepBytes, long distance, int helpers) {
+    if (distance < PAGE_SIZE || helpers < 1)
+      throw new IllegalArgumentException("Invalid distance " + distance + " or helpers " + helpers);
+    this.segment = segment;
+    this.stepBytes = stepBytes;
+    this.steps = (segment.byteSize() + stepBytes - 1) / stepBytes;
+    this.distance = distance;
+    this.helpers = new Thread[helpers];
+    for (int h = 0; h < helpers; h++) {
+      this.helpers[h] = new Thread(this::prefetch, "scan-prefetcher-" + h);
+      this.helpers[h].setDaemon(true);
+      this.helpers[h].start();
+    }
+  }
+
+  /**
+   * Reads ahead of a scan of every page.
+   *
+   * @param segment  the scanned segment
+   * @param distance how far (bytes) ahead of the scan to read
+   * @param helpers  the number of helper threads (the number of disk reads in
+   *                 flight)
+   * @return the prefetcher, already running
+   */
+  public static ScanPrefetcher sequential(MemorySegment segment, long distance, int helpers) {
+    return new ScanPrefetcher(segment, PAGE_SIZE, distance, helpers);
+  }
+
+  /**
+   * Reads ahead of a scan of one value every {@code stride} bytes (a stride
+   * below the page size is a sequential scan).
+   *
+   * @param segment  the scanned segment
+   * @param stride   the bytes between two values read by the scan
+   * @param distance how far (bytes) ahead of the scan to read
+   * @param helpers  the number of helper threads
+   * @return the prefetcher, already running
+   */
+  public static ScanPrefetcher strided(MemorySegment segment, long stride, long distance, int helpers) {
+    if (stride < 1)
+      throw new IllegalArgumentException("Invalid stride: " + stride);
+    return new ScanPrefetcher(segment, Math.max(stride, PAGE_SIZE), distance, helpers);
+  }
+
+  /**
+   * Reports the position of the scan (any thread).
+   *
+   * @param offset the offset the scan reached
+   */
+  public void advance(long offset) {
+    long current;
+    while ((current = cursor.get()) < offset && !cursor.compareAndSet(current, offset))
+      ;
+  }
+
+  /**
+   * @return the number of pages touched ahead of the scan - the page faults
+   *         the scan didn't have to wait for (at least not for the whole disk
+   *         read)
+   */
+  public long prefetched() {
+    return prefetched.sum();
+  }
+
+  /**
+   * @return the number of pages skipped because the scan got there first (the
+   *         helpers are too few or too slow)
+   */
+  public long late() {
+    return late.sum();
+  }
+
+  /**
+   * @return the number of times a helper waited for the scan (the distance is
+   *         reached: the disk is faster than the scan)
+   */
+  public long waits() {
+    return waits.sum();
+  }
+
+  /**
+   * Stops the helpers (the pages they are touching are still read) and waits
+   * for all of them, even if the calling thread is interrupted: they hold
+   * acquired segments, which must be closed before the segment. The interrupt
+   * status is restored afterwards.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    for (Thread helper : helpers)
+      LockSupport.unpark(helper);
+    boolean interrupted = false;
+    for (Thread helper : helpers) {
+      while (true) {
+        try {
+          helper.join();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  @Override
+  public String toString() {
+    return "ScanPrefetcher [helpers=" + helpers.length + ", distance=" + distance + ", stepBytes=" + stepBytes
+        + ", prefetched=" + prefetched() + ", late=" + late() + ", waits=" + waits() + "]";
+  }
+
+  private void prefetch() {
+    try (MemorySegment acquired = segment.acquire()) {
+      MemoryAddress base = acquired.baseAddress();
+      long sum = 0;
+      long step;
+      while (!closed && (step = nextStep.getAndIncrement()) < steps) {
+        long offset = step * stepBytes;
+        // not too far ahead, the page could be evicted before the scan gets
+        // there
+        if (offset > cursor.get() + distance) {
+          waits.increment();
+          while (!closed && offset > cursor.get() + distance)
+            LockSupport.parkNanos(WAIT_NANOS);
+        }
+        if (offset < cursor.get()) {
+          late.increment();
+          continue;
+        }
+        // the fault (and the disk read) happens here, not in the scan
+        sum += (byte) BYTE_HANDLE.get(base.addOffset(offset));
+        prefetched.increment();
+      }
+      sink = sum;
+    }
+  }
+}
@@ -0,0 +1,221 @@
+package com.github.kbnt.java14.fma;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemoryHandles;
+import jdk.incubator.foreign.MemorySegment;
+
+import com.github.kbnt.java14.fma.NativeMemoryTracker.TrackedSegment;
+
+/**
+ * Cold scans of a memory-mapped file in the {@link SleepAnalytics} format (one
+ * byte per person), without and with a {@link ScanPrefetcher}: the statistics
+ * scan (sequential) and a sampling scan (one person every 64KB, strided). For
+ * every scan we report the throughput and the major page faults of the
+ * scanning thread (from {@code /proc/thread-self/stat}, Linux only) - the
+ * faults the prefetcher avoided are the difference.<br>
+ * <br>
+ * The file is larger than the RAM by default (see the
+ * {@code prefetch.bytes} property), so a scan always evicts what the previous
+ * one read. The page cache is also dropped before every scan when we are
+ * allowed to ({@code /proc/sys/vm/drop_caches}, as root) - otherwise some of the
+ * pages read by the previous scan may still be there.<br>
+ * <br>
+ * The properties: {@code prefetch.bytes} (the file size),
+ * {@code prefetch.distance} (bytes, 64MB by default) and
+ * {@code prefetch.helpers} (8 by default).
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class ScanPrefetcherBenchmark {
+  private static final long SAMPLING_STRIDE = 64 * 1024;
+  private static final long DISTANCE = Long.getLong("prefetch.distance", 64L * 1024 * 1024);
+  private static final int HELPERS = Integer.getInteger("prefetch.helpers", 8);
+  private static final byte SLEEP = (byte) 0b10000000;
+  private static final VarHandle BYTE_HANDLE = MemoryHandles
+      .withStride(MemoryHandles.varHandle(byte.class, ByteOrder.nativeOrder()), 1);
+
+  public static void main(String[] args) {
+    try {
+      ScanPrefetcherBenchmark spb = new ScanPrefetcherBenchmark();
+      Path path = Paths.get("target", "runtime", "prefetch-db.bin");
+      long bytes = Long.getLong("prefetch.bytes", defaultSize());
+      spb.generate(path, bytes);
+      spb.benchmark00Sequential(path);
+      spb.benchmark01Strided(path);
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with the benchmark:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  /**
+   * The RAM plus 1GB.
+   */
+  private static long defaultSize() {
+    return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+        .getTotalMemorySize() + (1L << 30);
+  }
+
+  /**
+   * Writes the file through a channel (a sparse file would be read without any
+   * I/O), unless it already has the right size.
+   */
+  public void generate(Path path, long bytes) throws IOException {
+    insertExampleSeparator();
+
+    if (Files.exists(path) && Files.size(path) == bytes) {
+      System.out.println("Reusing " + path + " (" + bytes / (1024 * 1024) + " MB).");
+      return;
+    }
+    Files.createDirectories(path.getParent());
+    long start = System.nanoTime();
+    SplittableRandom sr = new SplittableRandom(2342342);
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      for (long written = 0; written < bytes;) {
+        buffer.clear();
+        while (buffer.hasRemaining())
+          buffer.put((byte) (sr.nextBoolean() ? SLEEP | 20 + sr.nextInt(4) : 6 + sr.nextInt(4)));
+        buffer.flip().limit((int) Math.min(buffer.capacity(), bytes - written));
+        while (buffer.hasRemaining())
+          written += channel.write(buffer);
+      }
+      channel.force(false);
+    }
+    System.out.println("Generated " + path + " (" + bytes / (1024 * 1024) + " MB) in "
+        + (System.nanoTime() - start) / 1000000 + " milliseconds.");
+  }
+
+  public void benchmark00Sequential(Path path) throws IOException {
+    insertExampleSeparator();
+
+    try (TrackedSegment file = NativeMemoryTracker.getInstance().mapFromPath(path, Files.size(path),
+        MapMode.READ_ONLY)) {
+      MemorySegment segment = file.segment();
+      dropPageCache();
+      Scan baseline = scan(segment, null, ScanPrefetcher.PAGE_SIZE, 1);
+      report("Sequential, no prefetcher", baseline, null, segment.byteSize());
+      dropPageCache();
+      try (ScanPrefetcher prefetcher = ScanPrefetcher.sequential(segment, DISTANCE, HELPERS)) {
+        Scan prefetched = scan(segment, prefetcher, ScanPrefetcher.PAGE_SIZE, 1);
+        report("Sequential, " + HELPERS + " helpers " + DISTANCE / (1024 * 1024) + " MB ahead", prefetched, baseline,
+            segment.byteSize());
+        System.out.println(prefetcher);
+      }
+    }
+  }
+
+  public void benchmark01Strided(Path path) throws IOException {
+    insertExampleSeparator();
+
+    try (TrackedSegment file = NativeMemoryTracker.getInstance().mapFromPath(path, Files.size(path),
+        MapMode.READ_ONLY)) {
+      MemorySegment segment = file.segment();
+      dropPageCache();
+      Scan baseline = scan(segment, null, SAMPLING_STRIDE, SAMPLING_STRIDE);
+      report("Strided (" + SAMPLING_STRIDE / 1024 + "KB), no prefetcher", baseline, null, segment.byteSize());
+      // the same number of pages in flight covers a lot more bytes
+      long distance = DISTANCE * (SAMPLING_STRIDE / ScanPrefetcher.PAGE_SIZE);
+      dropPageCache();
+      try (ScanPrefetcher prefetcher = ScanPrefetcher.strided(segment, SAMPLING_STRIDE, distance, HELPERS)) {
+        Scan prefetched = scan(segment, prefetcher, SAMPLING_STRIDE, SAMPLING_STRIDE);
+        report("Strided (" + SAMPLING_STRIDE / 1024 + "KB), " + HELPERS + " helpers " + distance / (1024 * 1024)
+            + " MB ahead", prefetched, baseline, segment.byteSize());
+        System.out.println(prefetcher);
+      }
+    }
+  }
+
+  private static final class Scan {
+    private long nanos;
+    private long majorFaults;
+    private long minorFaults;
+    private long asleep;
+  }
+
+  /**
+   * Counts the persons asleep, reading one byte every {@code stride} bytes and
+   * reporting the position every {@code advance} bytes.
+   */
+  private Scan scan(MemorySegment segment, ScanPrefetcher prefetcher, long advance, long stride) {
+    Scan scan = new Scan();
+    long[] faults = threadFaults();
+    long start = System.nanoTime();
+    MemoryAddress base = segment.baseAddress();
+    long size = segment.byteSize();
+    long asleep = 0;
+    for (long from = 0; from < size; from += advance) {
+      if (prefetcher != null)
+        prefetcher.advance(from);
+      long to = Math.min(size, from + advance);
+      for (long l = from; l < to; l += stride)
+        if (((byte) BYTE_HANDLE.get(base, l) & SLEEP) == SLEEP)
+          asleep++;
+    }
+    scan.nanos = System.nanoTime() - start;
+    long[] after = threadFaults();
+    scan.minorFaults = after[0] - faults[0];
+    scan.majorFaults = after[1] - faults[1];
+    scan.asleep = asleep;
+    return scan;
+  }
+
+  private void report(String name, Scan scan, Scan baseline, long bytes) {
+    System.out.println(name + ": " + scan.nanos / 1000000 + " milliseconds, "
+        + Math.round(bytes * 1e9 / scan.nanos / (1024 * 1024)) + " MB/s of file covered, " + scan.majorFaults
+        + " major faults and " + scan.minorFaults + " minor faults in the scanning thread (" + scan.asleep
+        + " asleep).");
+    if (baseline != null)
+      System.out.println("  " + String.format("%.2f", (double) baseline.nanos / scan.nanos) + " times faster, "
+          + (baseline.majorFaults - scan.majorFaults) + " major faults avoided.");
+  }
+
+  /**
+   * @return the minor and major page faults of the current thread, zeros if
+   *         unknown
+   */
+  private static long[] threadFaults() {
+    try {
+      String stat = Files.readString(Paths.get("/proc/thread-self/stat"));
+      // the fields after the command (which may contain spaces): state, ppid,
+      // pgrp, session, tty_nr, tpgid, flags, minflt, cminflt, majflt
+      String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+      return new long[] { Long.parseLong(fields[7]), Long.parseLong(fields[9]) };
+    } catch (IOException | RuntimeException e) {
+      return new long[2];
+    }
+  }
+
+  private static boolean warned;
+
+  private static void dropPageCache() {
+    try {
+      Files.writeString(Paths.get("/proc/sys/vm/drop_caches"), "1");
+    } catch (IOException | RuntimeException e) {
+      if (!warned) {
+        warned = true;
+        System.out.println("Cannot drop the page cache (" + e.getMessage()
+            + "), the scans are only cold if the file is larger than the RAM.");
+      }
+    }
+  }
+}
@@ -7,13 +7,20 @@ import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.SplittableRandom;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import jdk.incubator.foreign.MemoryAddress;
 import jdk.incubator.foreign.MemoryLayout;
 import jdk.incubator.foreign.MemoryLayout.PathElement;
 import jdk.incubator.foreign.MemorySegment;
 
+import com.github.kbnt.java14.fma.NativeMemoryTracker.TrackedSegment;
+
 /**
  * A scenario that assumes we want to analyze the time (hours) when people go to
  * sleep and when they wake up (we introduce a bias for sleep time and wake
@@ -25,7 +32,8 @@ import jdk.incubator.foreign.MemorySegment;
  * <li>The 5 least significant bits are going to represent the hour (because the
  * hour is between 0 and 23 we need 5 bits to accommodate that information)
  * </ul>
- * The application will start two threads:
+ * The application will start two jobs, run chunk by chunk by a pool of
+ * workers (see {@link ChunkScheduler}):
  * <ol>
  * <li>The first one will write continuously data to the memory. For
  * simplification purposes, I avoided any randomization.
@@ -33,6 +41,8 @@ import jdk.incubator.foreign.MemorySegment;
  * statistics I sacrificed memory access safety for the sake of speed and
  * simplicity.
  * </ol>
+ * The size of the pool is given by the {@code sleep.analytics.workers} system
+ * property (the number of cores by default).
  * 
  * Starting with the primary goal, we are going to focus on 2 main
  * sub-scenarios:
@@ -44,10 +54,29 @@ import jdk.incubator.foreign.MemorySegment;
  * going to present how memory segments can be used to construct databases. We
  * don't want to overload the system, so we decresed the population to 1
  * million.
+ * <li><b>Block-compressed memory mapped files.</b> The same database
+ * simulation, but the data is stored in compressed blocks (see
+ * {@link CompressedSleepStore}) - useful when the data set is larger than the
+ * RAM and the disk I/O is the bottleneck.
  * </ol>
  * 
- * In order to flip between the scenarios, follow the <i>scenario 1</i> and
- * <i>scenario 2</i> comments at the beginning of the source file.
+ * For the first two scenarios we also keep the age bucket of every person in a
+ * side column (see {@link AgeBucketColumn}), so the statistics are broken down
+ * by age as well - in the same pass, the totals per hour being summed from the
+ * age buckets (with the {@code sleep.analytics.baseline} system property, the
+ * plain scan of the sleep data runs too, to compare). The latest statistics
+ * are also served to other processes by a local
+ * {@link SleepStatisticsServer}.<br>
+ * <br>
+ * In the memory-mapped scenario, the file can also be replicated: with the
+ * {@code sleep.analytics.checkpoint.millis} system property, the writer marks
+ * the pages it changes (see {@link DirtyPageMap}) and only these pages are
+ * copied to {@code sleep-db.replica} in the background (see
+ * {@link IncrementalCheckpointer}).<br>
+ * <br>
+ * In order to flip between the scenarios, follow the <i>scenario 1</i>,
+ * <i>scenario 2</i> and <i>scenario 3</i> comments at the beginning of the
+ * source file.
  * 
  * 
  * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
@@ -55,7 +84,7 @@ import jdk.incubator.foreign.MemorySegment;
  */
 public class SleepAnalytics {
   private static enum MODE {
-    MEMORY, MMF
+    MEMORY, MMF, COMPRESSED
   };
 
   // scenario 1 - in memory, large data (global population)
@@ -68,20 +97,42 @@ public class SleepAnalytics {
   private static final MODE M = MODE.MMF;
   private static final long RUN_PERIOD = 10 * 1000;
 
-  private SplittableRandom sr = new SplittableRandom(2342342);
+  // scenario 3 - block-compressed memory-mapped (larger than RAM)
+//  private static final long POPULATION = 7700000000L;
+//  private static final MODE M = MODE.COMPRESSED;
+//  private static final long RUN_PERIOD = 300 * 1000;
+
   private static final byte SLEEP = (byte) 0b10000000;
   private static final byte AWAKE = 0;
+  private static final int AGE_BUCKET_WIDTH = 10;
+  private static final int AGE_BUCKETS = 10;
+  // the persons of a chunk task
+  private static final long CHUNK_SIZE = 1 << 20;
+  private static final int WORKERS = Integer.getInteger("sleep.analytics.workers",
+      Runtime.getRuntime().availableProcessors());
 
   private VarHandle byteHandle;
+  private TrackedSegment trackedSegment;
   private MemorySegment mainSegment;
-  private Thread dataGathering;
-  private Thread statsGathering;
+  private CompressedSleepStore compressedStore;
+  private AgeBucketColumn ageBuckets;
+  private SleepStatisticsServer statisticsServer;
+  private ExecutorService workers;
+  private ChunkScheduler scheduler;
+  private ChunkScheduler.Job dataGathering;
+  private ChunkScheduler.Job statsGathering;
+  private DirtyPageMap dirtyPages;
+  private IncrementalCheckpointer checkpointer;
 
   public static void main(String[] args) {
     SleepAnalytics ima = new SleepAnalytics();
+    NativeMemoryTracker.registerMXBean();
     try {
       ima.initialize();
+      ima.startWorkers();
+      ima.startStatisticsServer();
       ima.prePopulate();
+      ima.startCheckpoints();
       ima.simulateDataGathering();
       ima.displayStatistics();
     } catch (Throwable e) {
@@ -94,27 +145,59 @@ public class SleepAnalytics {
 
   private void destroy() {
     try {
-      Thread.sleep(RUN_PERIOD);
+      // the run period, cut short if the statistics fail
+      if (statsGathering != null)
+        statsGathering.await(RUN_PERIOD, TimeUnit.MILLISECONDS);
     } catch (InterruptedException e) {
       System.err.println("The main thread was interrupted: " + e.getMessage());
       e.printStackTrace();
+    } catch (ExecutionException e) {
+      System.err.println("Exception while running the statistics.");
+      e.getCause().printStackTrace();
     }
-    if (dataGathering != null) {
-      dataGathering.interrupt();
-    }
-    if (statsGathering != null) {
-      statsGathering.interrupt();
+
+    // the jobs stop at the next chunk boundary, wait for the chunks in flight
+    // before the segments are closed
+    if (scheduler != null) {
+      try {
+        if (!scheduler.shutdown(10, TimeUnit.SECONDS))
+          System.err.println("Some chunks are still running, closing anyway.");
+      } catch (InterruptedException e) {
+        System.err.println("The main thread was interrupted: " + e.getMessage());
+        e.printStackTrace();
+      }
+      System.out.println("Finished " + dataGathering + " and " + statsGathering + ".");
     }
+    if (workers != null)
+      workers.shutdown();
 
-    try {
-      Thread.sleep(1000);
-    } catch (InterruptedException e) {
-      System.err.println("The main thread was interrupted: " + e.getMessage());
-      e.printStackTrace();
+    // the writer is done, the last checkpoint makes the replica up to date
+    if (checkpointer != null) {
+      try {
+        checkpointer.close();
+        System.out.println("Replica up to date, " + checkpointer.bytesShipped() / 1024 + " KB shipped.");
+      } catch (IOException e) {
+        System.err.println("The last checkpoint failed: " + e.getMessage());
+        e.printStackTrace();
+      }
     }
 
-    if (mainSegment != null)
-      mainSegment.close();
+    // no more queries, before the segments go away
+    if (statisticsServer != null) {
+      try {
+        statisticsServer.close();
+        System.out.println("Statistics server closed: " + statisticsServer);
+      } catch (IOException e) {
+        System.err.println("The statistics server could not be closed: " + e.getMessage());
+      }
+    }
+    if (ageBuckets != null)
+      ageBuckets.close();
+    if (trackedSegment != null)
+      trackedSegment.close();
+    if (compressedStore != null)
+      compressedStore.close();
+    NativeMemoryTracker.getInstance().printSummary();
   }
 
   public void initialize() throws IOException {
@@ -122,21 +205,80 @@ public class SleepAnalytics {
         MemoryLayout.ofValueBits(8, ByteOrder.nativeOrder()));
     byteHandle = byteArrayLayout.varHandle(byte.class, PathElement.sequenceElement());
     long start = System.currentTimeMillis();
-    mainSegment = switch (M) {
-    case MEMORY -> MemorySegment.allocateNative(POPULATION);
+    NativeMemoryTracker tracker = NativeMemoryTracker.getInstance();
+    trackedSegment = switch (M) {
+    case MEMORY -> tracker.allocateNative(POPULATION);
     case MMF -> {
       Path path = Paths.get("target", "runtime", "sleep-db.bin");
       Files.createDirectories(path.getParent());
       Files.createFile(path);
 
-      yield MemorySegment.mapFromPath(path, POPULATION, MapMode.READ_WRITE);
+      yield tracker.mapFromPath(path, POPULATION, MapMode.READ_WRITE);
+    }
+    case COMPRESSED -> {
+      Path path = Paths.get("target", "runtime", "sleep-db.cmp");
+      Files.createDirectories(path.getParent());
+      // the store maps (and tracks) its own files
+      compressedStore = new CompressedSleepStore(path, path.resolveSibling("sleep-db.idx"), POPULATION);
+      yield null;
     }
     };
+    if (trackedSegment != null)
+      mainSegment = trackedSegment.segment();
+
+    // the age buckets, aligned to the same person index
+    ageBuckets = switch (M) {
+    case MEMORY -> AgeBucketColumn.allocateNative(POPULATION, AGE_BUCKET_WIDTH, AGE_BUCKETS);
+    case MMF -> AgeBucketColumn.mapFromPath(Paths.get("target", "runtime", "sleep-ages.bin"), POPULATION,
+        AGE_BUCKET_WIDTH, AGE_BUCKETS);
+    case COMPRESSED -> null;
+    };
     System.out.println("Memory segment allocated for " + POPULATION + " bytes in "
         + (System.currentTimeMillis() - start) + " milliseconds.");
+    tracker.printSummary();
+  }
+
+  /**
+   * The scheduler of the jobs: a chunk is {@link #CHUNK_SIZE} persons, or the
+   * blocks holding as many persons in the compressed scenario.
+   */
+  private void startWorkers() {
+    workers = Executors.newFixedThreadPool(WORKERS, runnable -> {
+      Thread thread = new Thread(runnable, "sleep-analytics-worker");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long chunkSize = M == MODE.COMPRESSED ? Math.max(1, CHUNK_SIZE / CompressedSleepStore.BLOCK_SIZE) : CHUNK_SIZE;
+    scheduler = new ChunkScheduler(workers, WORKERS, chunkSize);
+  }
+
+  /**
+   * Other processes can query the latest statistics (see
+   * {@link SleepStatisticsServer}), on the port given by the
+   * {@code sleep.analytics.port} system property (any free port by default).
+   */
+  private void startStatisticsServer() throws IOException {
+    statisticsServer = new SleepStatisticsServer(Integer.getInteger("sleep.analytics.port", 0));
+    System.out.println("Serving the statistics on " + statisticsServer.address()
+        + " (e.g. printf 'STATS\\n' | nc localhost " + statisticsServer.address().getPort() + ").");
   }
 
   private void prePopulate() {
+    if (M == MODE.COMPRESSED) {
+      long start = System.currentTimeMillis();
+      try (CompressedSleepStore.View view = compressedStore.acquire()) {
+        for (long b = 0; b < compressedStore.blockCount(); b++) {
+          view.update(b, (first, block, length) -> {
+            for (int i = 0; i < length; i++)
+              block[i] = (first + i) % 2 == 0 ? SLEEP : AWAKE;
+          });
+        }
+        System.out.println("Start data prepopulated in " + (System.currentTimeMillis() - start) + " milliseconds ("
+            + view.compressedBytes() + " compressed bytes).");
+      }
+      return;
+    }
+
     MemoryAddress base = mainSegment.baseAddress();
     // we pre-populate the memory assuming that half of the population is awake and
     // half is asleep
@@ -144,103 +286,229 @@ public class SleepAnalytics {
     for (long l = 0; l < POPULATION; l++) {
       byteHandle.set(base, l, l % 2 == 0 ? SLEEP : AWAKE);
     }
+    // in real life the ages come from the persons (see
+    // AgeBucketColumn.fill(Iterable)), here we just spread them between 0 and 99
+    ageBuckets.fill(l -> (int) (l * 31 % 100));
     System.out.println("Start data prepopulated in " + (System.currentTimeMillis() - start) + " milliseconds.");
   }
 
+  /**
+   * Ships the pages changed by the writer to a replica every
+   * {@code sleep.analytics.checkpoint.millis} milliseconds (memory-mapped
+   * scenario only, off by default). The first checkpoint copies everything.
+   */
+  private void startCheckpoints() throws IOException {
+    long period = Long.getLong("sleep.analytics.checkpoint.millis", 0);
+    if (M != MODE.MMF || period <= 0)
+      return;
+    Path replica = Paths.get("target", "runtime", "sleep-db.replica");
+    dirtyPages = new DirtyPageMap(mainSegment.byteSize(), true);
+    checkpointer = new IncrementalCheckpointer(mainSegment, dirtyPages, IncrementalCheckpointer.replica(replica),
+        period, checkpoint -> System.out.println(checkpoint + " to " + replica + "."));
+  }
+
   private void simulateDataGathering() {
-    dataGathering = new Thread() {
-
-      @Override
-      public void run() {
-        try (MemorySegment gatheringSegment = mainSegment.acquire();) {
-          MemoryAddress base = gatheringSegment.baseAddress();
-
-          break_label: while (true) {
-            long start = System.currentTimeMillis();
-            for (long l = 0; l < POPULATION; l++) {
-              byte current = (byte) byteHandle.get(base, l);
-              byteHandle.set(base, l, flipState(current, l));
-              if (interrupted())
-                break break_label;
-            }
-            System.out.println(
-                "One full memory traversal for writing completed in " + (System.currentTimeMillis() - start) + "!");
-
-          }
-          System.out.println("Finished data gathering thread...");
-        } catch (Exception e) {
-          System.err.println("Exception while running the data gathering simulation.");
-          e.printStackTrace();
+    if (M == MODE.COMPRESSED) {
+      gatherCompressedData();
+      return;
+    }
+
+    dataGathering = scheduler.repeat("data gathering", POPULATION, (pass, from, to) -> {
+      try (MemorySegment gatheringSegment = mainSegment.acquire()) {
+        MemoryAddress base = gatheringSegment.baseAddress();
+        for (long l = from; l < to; l++) {
+          byte current = (byte) byteHandle.get(base, l);
+          byteHandle.set(base, l, flipState(current, l));
         }
       }
-    };
-    dataGathering.start();
+      // after the writes, once for the whole chunk
+      if (dirtyPages != null)
+        dirtyPages.markRange(from, to);
+    }, (pass, nanos) -> System.out
+        .println("One full memory traversal for writing completed in " + nanos / 1000000 + "!"), 0);
   }
 
   private void displayStatistics() {
-    statsGathering = new Thread() {
-
-      @Override
-      public void run() {
-        try (MemorySegment statsSegment = mainSegment.acquire().asReadOnly();) {
-          MemoryAddress base = statsSegment.baseAddress();
-          break_label: while (true) {
-            long[] statHoursForSleep = new long[24];
-            long[] statHoursForWake = new long[24];
-
-            long start = System.currentTimeMillis();
-            for (long l = 0; l < POPULATION; l++) {
-              byte current = (byte) byteHandle.get(base, l);
-              if ((current & SLEEP) == SLEEP) {
-                statHoursForSleep[current & 0b11111]++;
-              } else {
-                statHoursForWake[current & 0b11111]++;
-              }
-
-              if (interrupted())
-                break break_label;
-            }
-
-            long asleep = 0;
-            for (int i = 0; i < statHoursForSleep.length; i++)
-              asleep += statHoursForSleep[i];
-
-            long awake = 0;
-            for (int i = 0; i < statHoursForWake.length; i++)
-              awake += statHoursForWake[i];
-
-            if (awake > 0 && asleep > 0) {
-
-              System.out.println("============");
-              System.out.println("These are approximations (stats gathered in " + (System.currentTimeMillis() - start)
-                  + " milliseconds):");
-              System.out.println("We have " + asleep + " people asleep and " + awake + " awake.");
-              System.out.println("The hours distribution for going to sleep:");
-              for (int i = 0; i < statHoursForSleep.length; i++)
-                System.out.println("Hour " + i + ": " + (double) 100 * statHoursForSleep[i] / asleep + "%.");
-
-              System.out.println("The hours distribution for waking up:");
-              for (int i = 0; i < statHoursForWake.length; i++)
-                System.out.println("Hour " + i + ": " + (double) 100 * statHoursForWake[i] / awake + "%.");
-            }
-
-            Thread.sleep(1000);
-          }
-        } catch (InterruptedException ie) {
-          System.err.println("We got an interruption call ;-).");
-        } catch (Exception e) {
-          System.err.println("Exception while running the data gathering simulation.");
-          e.printStackTrace();
-        } finally {
-          System.out.println("Finished stats gathering thread...");
+    if (M == MODE.COMPRESSED) {
+      displayCompressedStatistics();
+      return;
+    }
+
+    // a single pass over both columns: the counts per state, age bucket and
+    // hour of the current pass, merged chunk by chunk (the totals per hour are
+    // the sums over the buckets)
+    long[] counts = ageBuckets.newCounts();
+    statsGathering = scheduler.repeat("statistics", POPULATION, (pass, from, to) -> {
+      long[] chunkCounts = ageBuckets.newCounts();
+      ageBuckets.count(mainSegment, from, to, chunkCounts);
+      merge(counts, chunkCounts);
+    }, (pass, nanos) -> {
+      long fusedScan = nanos / 1000000;
+      AgeBucketColumn.Histogram histogram = ageBuckets.histogram(counts.clone());
+      Arrays.fill(counts, 0);
+      long[] sleep = new long[24];
+      long[] wake = new long[24];
+      for (int hour = 0; hour < 24; hour++) {
+        sleep[hour] = histogram.asleepAt(hour);
+        wake[hour] = histogram.awakeAt(hour);
+      }
+      printStatistics(sleep, wake, System.currentTimeMillis() - fusedScan);
+      printAgeStatistics(histogram, fusedScan);
+      statisticsServer.publish(SleepStatistics.of(sleep, wake, fusedScan, ageBuckets, histogram));
+    }, 1000);
+
+    if (Boolean.getBoolean("sleep.analytics.baseline"))
+      startPlainScan();
+  }
+
+  /**
+   * The baseline of the statistics pass: the plain scan of the sleep data
+   * alone, per hour (with the {@code sleep.analytics.baseline} system
+   * property). It shares the workers with the other jobs, so it slows them
+   * down a little.
+   */
+  private void startPlainScan() {
+    // the totals of the current pass, so the scan can't be optimized away
+    long[] hours = new long[2 * 24];
+    scheduler.repeat("plain scan", POPULATION, (pass, from, to) -> {
+      long[] chunkHours = new long[2 * 24];
+      try (MemorySegment statsSegment = mainSegment.acquire().asReadOnly()) {
+        MemoryAddress base = statsSegment.baseAddress();
+        for (long l = from; l < to; l++) {
+          byte current = (byte) byteHandle.get(base, l);
+          chunkHours[((current & SLEEP) == SLEEP ? 24 : 0) + (current & 0b11111)]++;
         }
       }
+      merge(hours, chunkHours);
+    }, (pass, nanos) -> {
+      long persons = Arrays.stream(hours).sum();
+      Arrays.fill(hours, 0);
+      System.out.println("Plain scan (baseline) of " + persons + " persons completed in " + nanos / 1000000
+          + " milliseconds.");
+    }, 1000);
+  }
+
+  /**
+   * The writer of the compressed scenario: every block is decompressed, flipped
+   * and recompressed.
+   */
+  private void gatherCompressedData() {
+    CompressedSleepStore.BlockUpdater flip = (first, block, length) -> {
+      for (int i = 0; i < length; i++)
+        block[i] = flipState(block[i], first + i);
     };
-    statsGathering.start();
+
+    dataGathering = scheduler.repeat("data gathering", compressedStore.blockCount(), (pass, from, to) -> {
+      try (CompressedSleepStore.View view = compressedStore.acquire()) {
+        for (long b = from; b < to; b++)
+          view.update(b, flip);
+      }
+    }, (pass, nanos) -> {
+      try (CompressedSleepStore.View view = compressedStore.acquire()) {
+        System.out.println("One full traversal of the compressed blocks for writing completed in " + nanos / 1000000
+            + " (" + view.compressedBytes() + " compressed bytes)!");
+      }
+    }, 0);
+  }
+
+  /**
+   * The statistics of the compressed scenario: the blocks are never
+   * decompressed, we just count how many times each byte value occurs.
+   */
+  private void displayCompressedStatistics() {
+    long[] statHoursForSleep = new long[24];
+    long[] statHoursForWake = new long[24];
+    statsGathering = scheduler.repeat("statistics", compressedStore.blockCount(), (pass, from, to) -> {
+      long[] valueCounts = new long[256];
+      try (CompressedSleepStore.View view = compressedStore.acquire()) {
+        for (long b = from; b < to; b++)
+          view.countValues(b, valueCounts);
+      }
+
+      long[] chunkHoursForSleep = new long[24];
+      long[] chunkHoursForWake = new long[24];
+      for (int v = 0; v < valueCounts.length; v++) {
+        if (((byte) v & SLEEP) == SLEEP) {
+          chunkHoursForSleep[v & 0b11111] += valueCounts[v];
+        } else {
+          chunkHoursForWake[v & 0b11111] += valueCounts[v];
+        }
+      }
+      merge(statHoursForSleep, statHoursForWake, chunkHoursForSleep, chunkHoursForWake);
+    }, (pass, nanos) -> {
+      long[] sleep = statHoursForSleep.clone();
+      long[] wake = statHoursForWake.clone();
+      Arrays.fill(statHoursForSleep, 0);
+      Arrays.fill(statHoursForWake, 0);
+      printStatistics(sleep, wake, System.currentTimeMillis() - nanos / 1000000);
+      statisticsServer.publish(SleepStatistics.of(sleep, wake, nanos / 1000000));
+    }, 1000);
+  }
+
+  /**
+   * Adds the counts of a chunk to the counts of the pass (the listener of the
+   * pass reads them once all the chunks are done).
+   */
+  private static void merge(long[] counts, long[] chunkCounts) {
+    synchronized (counts) {
+      for (int i = 0; i < counts.length; i++)
+        counts[i] += chunkCounts[i];
+    }
+  }
+
+  /**
+   * Adds the statistics of a chunk to the totals of the pass (the listener of
+   * the pass reads them once all the chunks are done).
+   */
+  private static void merge(long[] statHoursForSleep, long[] statHoursForWake, long[] chunkHoursForSleep,
+      long[] chunkHoursForWake) {
+    synchronized (statHoursForSleep) {
+      for (int i = 0; i < statHoursForSleep.length; i++) {
+        statHoursForSleep[i] += chunkHoursForSleep[i];
+        statHoursForWake[i] += chunkHoursForWake[i];
+      }
+    }
+  }
+
+  private void printStatistics(long[] statHoursForSleep, long[] statHoursForWake, long start) {
+    long asleep = 0;
+    for (int i = 0; i < statHoursForSleep.length; i++)
+      asleep += statHoursForSleep[i];
+
+    long awake = 0;
+    for (int i = 0; i < statHoursForWake.length; i++)
+      awake += statHoursForWake[i];
+
+    if (awake > 0 && asleep > 0) {
+
+      System.out.println("============");
+      System.out.println(
+          "These are approximations (stats gathered in " + (System.currentTimeMillis() - start) + " milliseconds):");
+      System.out.println("We have " + asleep + " people asleep and " + awake + " awake.");
+      System.out.println("The hours distribution for going to sleep:");
+      for (int i = 0; i < statHoursForSleep.length; i++)
+        System.out.println("Hour " + i + ": " + (double) 100 * statHoursForSleep[i] / asleep + "%.");
+
+      System.out.println("The hours distribution for waking up:");
+      for (int i = 0; i < statHoursForWake.length; i++)
+        System.out.println("Hour " + i + ": " + (double) 100 * statHoursForWake[i] / awake + "%.");
+    }
+  }
+
+  private void printAgeStatistics(AgeBucketColumn.Histogram histogram, long fusedScan) {
+    System.out.println("The distribution by age (gathered in the same pass, " + fusedScan + " milliseconds with "
+        + WORKERS + " workers):");
+    for (int b = 0; b < ageBuckets.buckets(); b++) {
+      System.out.println("Ages " + ageBuckets.label(b) + ": " + histogram.asleep(b) + " asleep (mostly since "
+          + histogram.peakHour(b, true) + "), " + histogram.awake(b) + " awake (mostly since "
+          + histogram.peakHour(b, false) + ").");
+    }
   }
 
   private byte flipState(byte input, long personNumber) {
     boolean isAsleep = (input & SLEEP) == SLEEP;
+    // any worker may flip, so no shared generator
+    ThreadLocalRandom sr = ThreadLocalRandom.current();
     int newHour;
     // common scenario - go to sleep between 20 and 23, wake between 6 and 9
     if (isAsleep)
@@ -0,0 +1,151 @@
+package com.github.kbnt.java14.fma;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of the {@link SleepAnalytics} statistics - the result
+ * of one scan: the number of persons asleep and awake per hour (the hour they
+ * went to sleep or woke up) and, when available, the same per age bucket.<br>
+ * <br>
+ * The JSON of the snapshot is rendered once, when the snapshot is created, so
+ * serving it to many clients costs nothing but the copy (see
+ * {@link SleepStatisticsServer}).
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class SleepStatistics {
+  public static final int HOURS = 24;
+
+  private final long timestamp;
+  private final long scanMillis;
+  private final long[] asleep;
+  private final long[] awake;
+  private final String[] ageLabels;
+  private final long[][] asleepByAge;
+  private final long[][] awakeByAge;
+  private final long totalAsleep;
+  private final long totalAwake;
+  private final byte[] json;
+
+  private SleepStatistics(long scanMillis, long[] asleep, long[] awake, String[] ageLabels, long[][] asleepByAge,
+      long[][] awakeByAge) {
+    if (asleep.length != HOURS || awake.length != HOURS)
+      throw new IllegalArgumentException("Expecting " + HOURS + " hours");
+    this.timestamp = System.currentTimeMillis();
+    this.scanMillis = scanMillis;
+    this.asleep = asleep.clone();
+    this.awake = awake.clone();
+    this.ageLabels = ageLabels;
+    this.asleepByAge = asleepByAge;
+    this.awakeByAge = awakeByAge;
+    totalAsleep = Arrays.stream(asleep).sum();
+    totalAwake = Arrays.stream(awake).sum();
+    json = renderJson().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @param asleep     the persons asleep, per hour they went to sleep
+   * @param awake      the persons awake, per hour they woke up
+   * @param scanMillis the duration of the scan
+   * @return the snapshot
+   */
+  public static SleepStatistics of(long[] asleep, long[] awake, long scanMillis) {
+    return new SleepStatistics(scanMillis, asleep, awake, new String[0], new long[0][], new long[0][]);
+  }
+
+  /**
+   * @param asleep     the persons asleep, per hour they went to sleep
+   * @param awake      the persons awake, per hour they woke up
+   * @param scanMillis the duration of the scan
+   * @param column     the age buckets
+   * @param histogram  the histogram by age bucket
+   * @return the snapshot, with the age buckets
+   */
+  public static SleepStatistics of(long[] asleep, long[] awake, long scanMillis, AgeBucketColumn column,
+      AgeBucketColumn.Histogram histogram) {
+    int buckets = column.buckets();
+    String[] labels = new String[buckets];
+    long[][] asleepByAge = new long[buckets][HOURS];
+    long[][] awakeByAge = new long[buckets][HOURS];
+    for (int b = 0; b < buckets; b++) {
+      labels[b] = column.label(b);
+      for (int hour = 0; hour < HOURS; hour++) {
+        asleepByAge[b][hour] = histogram.asleep(b, hour);
+        awakeByAge[b][hour] = histogram.awake(b, hour);
+      }
+    }
+    return new SleepStatistics(scanMillis, asleep, awake, labels, asleepByAge, awakeByAge);
+  }
+
+  /**
+   * @return when the snapshot was taken (epoch milliseconds)
+   */
+  public long timestamp() {
+    return timestamp;
+  }
+
+  public long scanMillis() {
+    return scanMillis;
+  }
+
+  public long asleep() {
+    return totalAsleep;
+  }
+
+  public long awake() {
+    return totalAwake;
+  }
+
+  /**
+   * @param asleep   the state
+   * @param fromHour the first hour
+   * @param toHour   the last hour (included; before the first one for a range
+   *                 over midnight, e.g. 22 to 2)
+   * @return the number of persons in that state since one of these hours
+   */
+  public long count(boolean asleep, int fromHour, int toHour) {
+    if (fromHour < 0 || fromHour >= HOURS || toHour < 0 || toHour >= HOURS)
+      throw new IllegalArgumentException("Invalid hours: " + fromHour + " to " + toHour);
+    long[] hours = asleep ? this.asleep : awake;
+    long count = 0;
+    for (int hour = fromHour;; hour = (hour + 1) % HOURS) {
+      count += hours[hour];
+      if (hour == toHour)
+        return count;
+    }
+  }
+
+  /**
+   * @return the snapshot as JSON, on one line ending with a new line
+   */
+  public byte[] json() {
+    return json;
+  }
+
+  private String renderJson() {
+    StringBuilder builder = new StringBuilder(512 + ageLabels.length * 512);
+    builder.append("{\"timestamp\":").append(timestamp).append(",\"scanMillis\":").append(scanMillis)
+        .append(",\"asleep\":").append(totalAsleep).append(",\"awake\":").append(totalAwake);
+    appendHours(builder.append(",\"asleepByHour\":"), asleep);
+    appendHours(builder.append(",\"awakeByHour\":"), awake);
+    builder.append(",\"ages\":[");
+    for (int b = 0; b < ageLabels.length; b++) {
+      if (b > 0)
+        builder.append(',');
+      builder.append("{\"label\":\"").append(ageLabels[b]).append('"');
+      appendHours(builder.append(",\"asleepByHour\":"), asleepByAge[b]);
+      appendHours(builder.append(",\"awakeByHour\":"), awakeByAge[b]);
+      builder.append('}');
+    }
+    return builder.append("]}\n").toString();
+  }
+
+  private static void appendHours(StringBuilder builder, long[] hours) {
+    builder.append('[');
+    for (int hour = 0; hour < hours.length; hour++)
+      builder.append(hour == 0 ? "" : ",").append(hours[hour]);
+    builder.append(']');
+  }
+}
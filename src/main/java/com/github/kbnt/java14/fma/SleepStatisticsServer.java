@@ -0,0 +1,295 @@
+package com.github.kbnt.java14.fma;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A local query endpoint for the {@link SleepAnalytics} statistics: a
+ * non-blocking NIO server (one selector thread) bound to the loopback
+ * interface. The scans publish their results ({@link #publish(SleepStatistics)})
+ * and the server only ever answers from the latest published snapshot - so
+ * any number of clients never cause an extra scan.<br>
+ * <br>
+ * The protocol is line based: every request is a line, every response is one
+ * line of JSON.
+ * <ul>
+ * <li>{@code STATS} - the whole snapshot, per hour and per age bucket (the
+ * JSON rendered when the snapshot was published);
+ * <li>{@code RANGE asleep|awake <from hour> <to hour>} - the number of persons
+ * in that state since one of these hours (over midnight if the last hour is
+ * before the first);
+ * <li>{@code METRICS} - the metrics of the server.
+ * </ul>
+ * E.g. {@code printf 'RANGE asleep 20 23\n' | nc localhost <port>}. The
+ * requests of a client aren't read while its responses aren't written, so a
+ * client that doesn't read its socket can't make the server queue more.<br>
+ * <br>
+ * <b>Note</b>: the Unix domain socket channels only come with Java 16, so we
+ * listen on the loopback interface.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class SleepStatisticsServer implements AutoCloseable {
+  private static final int MAX_REQUEST_BYTES = 256;
+  private static final byte[] NO_STATISTICS = "{\"error\":\"No statistics yet\"}\n"
+      .getBytes(StandardCharsets.US_ASCII);
+
+  private final Selector selector;
+  private final ServerSocketChannel serverChannel;
+  private final Thread thread;
+  private volatile SleepStatistics latest;
+  private volatile boolean running = true;
+
+  private final long started = System.nanoTime();
+  private final LongAdder connections = new LongAdder();
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder processingNanos = new LongAdder();
+  private final LongAdder published = new LongAdder();
+
+  /**
+   * Starts the server.
+   *
+   * @param port the port (0 for any free port, see {@link #address()})
+   * @throws IOException if the server cannot listen
+   */
+  public SleepStatisticsServer(int port) throws IOException {
+    selector = Selector.open();
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 128);
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+    thread = new Thread(this::serve, "sleep-statistics-server");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * @return the address the server listens on
+   */
+  public InetSocketAddress address() throws IOException {
+    return (InetSocketAddress) serverChannel.getLocalAddress();
+  }
+
+  /**
+   * Replaces the snapshot served (any thread).
+   *
+   * @param statistics the latest statistics
+   */
+  public void publish(SleepStatistics statistics) {
+    latest = statistics;
+    published.increment();
+  }
+
+  /**
+   * @return the snapshot served, {@code null} if nothing was published yet
+   */
+  public SleepStatistics latest() {
+    return latest;
+  }
+
+  public long requests() {
+    return requests.sum();
+  }
+
+  /**
+   * @return the requests per second since the server started
+   */
+  public double requestsPerSecond() {
+    return requests.sum() * 1e9 / (System.nanoTime() - started);
+  }
+
+  /**
+   * @return the average time to answer a request (from the moment it was read
+   *         to the moment the response was queued), in microseconds
+   */
+  public double averageProcessingMicros() {
+    long count = requests.sum();
+    return count == 0 ? 0 : processingNanos.sum() / 1000.0 / count;
+  }
+
+  /**
+   * Stops the server and closes all the connections.
+   */
+  @Override
+  public void close() throws IOException {
+    running = false;
+    selector.wakeup();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "SleepStatisticsServer [connections=" + connections.sum() + ", requests=" + requests()
+        + ", requestsPerSecond=" + Math.round(requestsPerSecond()) + ", averageProcessingMicros="
+        + averageProcessingMicros() + ", errors=" + errors.sum() + ", published=" + published.sum() + "]";
+  }
+
+  /**
+   * The requests read and the responses not written yet of a client.
+   */
+  private static final class Connection {
+    private final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+    private final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+  }
+
+  private void serve() {
+    try (selector; serverChannel) {
+      while (running) {
+        selector.select();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          try {
+            if (key.isAcceptable())
+              accept();
+            else {
+              if (key.isReadable())
+                read(key);
+              if (key.isValid() && key.isWritable())
+                write(key);
+            }
+          } catch (IOException e) {
+            // the client went away
+            key.channel().close();
+          }
+        }
+      }
+      for (SelectionKey key : selector.keys())
+        key.channel().close();
+    } catch (IOException | ClosedSelectorException e) {
+      System.err.println("The statistics server stopped: " + e.getMessage());
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = serverChannel.accept();
+    if (channel == null)
+      return;
+    channel.configureBlocking(false);
+    channel.register(selector, SelectionKey.OP_READ, new Connection());
+    connections.increment();
+  }
+
+  private void read(SelectionKey key) throws IOException {
+    Connection connection = (Connection) key.attachment();
+    if (((SocketChannel) key.channel()).read(connection.in) < 0) {
+      key.channel().close();
+      return;
+    }
+
+    // every complete line is a request
+    ByteBuffer in = connection.in;
+    int start = 0;
+    for (int i = 0; i < in.position(); i++) {
+      if (in.get(i) == '\n') {
+        long begin = System.nanoTime();
+        String request = new String(in.array(), start, i - start, StandardCharsets.US_ASCII).strip();
+        connection.out.add(ByteBuffer.wrap(answer(request)));
+        processingNanos.add(System.nanoTime() - begin);
+        requests.increment();
+        start = i + 1;
+      }
+    }
+    in.limit(in.position()).position(start);
+    in.compact();
+    if (!in.hasRemaining()) {
+      errors.increment();
+      key.channel().close();
+      return;
+    }
+    // backpressure: no more requests read until the responses are written -
+    // so a client that pipelines requests without reading its socket queues
+    // the responses of one buffer of requests at most
+    if (!connection.out.isEmpty())
+      key.interestOps(SelectionKey.OP_WRITE);
+  }
+
+  private void write(SelectionKey key) throws IOException {
+    Connection connection = (Connection) key.attachment();
+    SocketChannel channel = (SocketChannel) key.channel();
+    while (!connection.out.isEmpty()) {
+      ByteBuffer response = connection.out.peek();
+      channel.write(response);
+      if (response.hasRemaining())
+        return;
+      connection.out.poll();
+    }
+    key.interestOps(SelectionKey.OP_READ);
+  }
+
+  private byte[] answer(String request) {
+    SleepStatistics statistics = latest;
+    String[] words = request.split("\\s+");
+    try {
+      switch (words[0].toUpperCase()) {
+      case "STATS":
+        return statistics == null ? NO_STATISTICS : statistics.json();
+      case "RANGE": {
+        if (statistics == null)
+          return NO_STATISTICS;
+        if (words.length != 4 || !words[1].equalsIgnoreCase("asleep") && !words[1].equalsIgnoreCase("awake"))
+          return error("Expecting RANGE asleep|awake <from hour> <to hour>");
+        boolean asleep = words[1].equalsIgnoreCase("asleep");
+        int from = Integer.parseInt(words[2]);
+        int to = Integer.parseInt(words[3]);
+        long count = statistics.count(asleep, from, to);
+        long total = asleep ? statistics.asleep() : statistics.awake();
+        return ("{\"timestamp\":" + statistics.timestamp() + ",\"state\":\"" + (asleep ? "asleep" : "awake")
+            + "\",\"from\":" + from + ",\"to\":" + to + ",\"count\":" + count + ",\"percent\":"
+            + (total == 0 ? 0 : 100.0 * count / total) + "}\n").getBytes(StandardCharsets.US_ASCII);
+      }
+      case "METRICS":
+        return ("{\"connections\":" + connections.sum() + ",\"requests\":" + requests() + ",\"requestsPerSecond\":"
+            + Math.round(requestsPerSecond()) + ",\"averageProcessingMicros\":" + averageProcessingMicros()
+            + ",\"errors\":" + errors.sum() + ",\"published\":" + published.sum() + "}\n")
+                .getBytes(StandardCharsets.US_ASCII);
+      default:
+        return error("Unknown request '" + request + "', expecting STATS, RANGE or METRICS");
+      }
+    } catch (IllegalArgumentException e) {
+      return error(e.getMessage());
+    }
+  }
+
+  private byte[] error(String message) {
+    errors.increment();
+    return ("{\"error\":\"" + escape(message) + "\"}\n").getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return the string as the content of a JSON string (the messages may
+   *         contain the request, i.e. anything the client sent)
+   */
+  private static String escape(String string) {
+    StringBuilder escaped = new StringBuilder(string.length() + 16);
+    for (int i = 0; i < string.length(); i++) {
+      char c = string.charAt(i);
+      if (c == '"' || c == '\\')
+        escaped.append('\\').append(c);
+      else if (c < 0x20 || c == 0x7F)
+        escaped.append(String.format("\\u%04x", (int) c));
+      else
+        escaped.append(c);
+    }
+    return escaped.toString();
+  }
+}
@@ -0,0 +1,144 @@
+package com.github.kbnt.java14.fma;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a {@link SleepStatisticsServer} with many concurrent local clients,
+ * while snapshots are published 10 times per second (as a scanning
+ * {@link SleepAnalytics} would do), and reports the requests per second and
+ * the round trip latencies seen by the clients.<br>
+ * <br>
+ * This example doesn't need the Foreign-Memory Access API: the snapshots are
+ * made up.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class SleepStatisticsServerExample {
+  private static final int CLIENTS = 32;
+  private static final int REQUESTS_PER_CLIENT = 5000;
+  private static final byte[] STATS = "STATS\n".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] RANGE = "RANGE asleep 20 23\n".getBytes(StandardCharsets.US_ASCII);
+
+  public static void main(String[] args) {
+    try {
+      SleepStatisticsServerExample ssse = new SleepStatisticsServerExample();
+      ssse.example00Queries();
+      ssse.example01ManyClients();
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with one of our examples:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  public void example00Queries() throws IOException {
+    insertExampleSeparator();
+
+    try (SleepStatisticsServer server = new SleepStatisticsServer(0);
+        SocketChannel channel = SocketChannel.open(server.address())) {
+      ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+      System.out.print(request(channel, buffer, STATS));
+      server.publish(snapshot(new SplittableRandom(1)));
+      System.out.print(request(channel, buffer, STATS));
+      System.out.print(request(channel, buffer, RANGE));
+      System.out.print(request(channel, buffer, "RANGE awake 9 6\n".getBytes(StandardCharsets.US_ASCII)));
+      System.out.print(request(channel, buffer, "HELLO\n".getBytes(StandardCharsets.US_ASCII)));
+      System.out.print(request(channel, buffer, "METRICS\n".getBytes(StandardCharsets.US_ASCII)));
+    }
+  }
+
+  public void example01ManyClients() throws Exception {
+    insertExampleSeparator();
+
+    ExecutorService executor = Executors.newFixedThreadPool(CLIENTS + 1);
+    try (SleepStatisticsServer server = new SleepStatisticsServer(0)) {
+      InetSocketAddress address = server.address();
+      server.publish(snapshot(new SplittableRandom(1)));
+
+      // the "scans", 10 per second
+      Future<?> publisher = executor.submit(() -> {
+        SplittableRandom sr = new SplittableRandom(2);
+        while (!Thread.currentThread().isInterrupted()) {
+          server.publish(snapshot(sr));
+          try {
+            Thread.sleep(100);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      });
+
+      long start = System.nanoTime();
+      List<Future<long[]>> clients = new ArrayList<>();
+      for (int c = 0; c < CLIENTS; c++) {
+        clients.add(executor.submit(() -> {
+          long[] latencies = new long[REQUESTS_PER_CLIENT];
+          ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+          try (SocketChannel channel = SocketChannel.open(address)) {
+            for (int r = 0; r < REQUESTS_PER_CLIENT; r++) {
+              long begin = System.nanoTime();
+              request(channel, buffer, r % 2 == 0 ? STATS : RANGE);
+              latencies[r] = System.nanoTime() - begin;
+            }
+          }
+          return latencies;
+        }));
+      }
+      long[] latencies = new long[CLIENTS * REQUESTS_PER_CLIENT];
+      for (int c = 0; c < CLIENTS; c++)
+        System.arraycopy(clients.get(c).get(), 0, latencies, c * REQUESTS_PER_CLIENT, REQUESTS_PER_CLIENT);
+      long elapsed = System.nanoTime() - start;
+      publisher.cancel(true);
+
+      Arrays.sort(latencies);
+      System.out.println(CLIENTS + " clients, " + latencies.length + " requests in " + elapsed / 1000000
+          + " milliseconds: " + Math.round(latencies.length * 1e9 / elapsed) + " requests per second.");
+      System.out.println("Round trip latencies: p50 " + latencies[latencies.length / 2] / 1000 + " us, p99 "
+          + latencies[(int) (latencies.length * 0.99)] / 1000 + " us, max " + latencies[latencies.length - 1] / 1000
+          + " us.");
+      System.out.println(server);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Sends a request and reads its response (one line), blocking.
+   */
+  private static String request(SocketChannel channel, ByteBuffer buffer, byte[] request) throws IOException {
+    ByteBuffer out = ByteBuffer.wrap(request);
+    while (out.hasRemaining())
+      channel.write(out);
+    buffer.clear();
+    do {
+      if (channel.read(buffer) < 0)
+        throw new IOException("The server closed the connection");
+    } while (buffer.position() == 0 || buffer.get(buffer.position() - 1) != '\n');
+    return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+  }
+
+  private static SleepStatistics snapshot(SplittableRandom sr) {
+    long[] asleep = new long[SleepStatistics.HOURS];
+    long[] awake = new long[SleepStatistics.HOURS];
+    for (int hour = 20; hour < 24; hour++)
+      asleep[hour] = 1_000_000 + sr.nextInt(100_000);
+    for (int hour = 6; hour < 10; hour++)
+      awake[hour] = 1_000_000 + sr.nextInt(100_000);
+    return SleepStatistics.of(asleep, awake, 100 + sr.nextInt(50));
+  }
+}
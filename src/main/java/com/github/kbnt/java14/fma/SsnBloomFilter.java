@@ -0,0 +1,331 @@
+package com.github.kbnt.java14.fma;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
+
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemoryHandles;
+import jdk.incubator.foreign.MemorySegment;
+
+import com.github.kbnt.java14.fma.NativeMemoryTracker.TrackedSegment;
+
+/**
+ * An off-heap blocked Bloom filter of SSNs, so the lookups of absent SSNs (most
+ * of them) don't touch the {@link CreditScoreFile} at all.<br>
+ * <br>
+ * The filter is split in blocks of 64 bytes (a cache line): an SSN is hashed to
+ * one block and sets (or tests) its K bits in that block only - so a lookup
+ * costs one cache miss (or one page fault), whatever K is. The number of blocks
+ * and K are computed from the expected number of SSNs and the target false
+ * positive rate (blocking costs a bit of precision, so we add 20% of bits).<br>
+ * <br>
+ * The filter lives in a {@link MemorySegment}: in native memory, or in a file
+ * next to the data file ({@code credit-scores.bin.bloom}) with a 64-byte header
+ * (magic, version, blocks, K, expected SSNs, target rate), so it can be
+ * reopened instead of rebuilt. {@link #forDataFile(Path, double)} builds it in
+ * a temporary file and renames it once complete, so an interrupted build never
+ * leaves a partial filter behind.<br>
+ * <br>
+ * Threads: {@link #add(long)} and {@link #mightContain(long)} are for the
+ * owner thread; other threads read through their own {@link Reader} (an
+ * acquired segment), so their lookups don't allocate anything either. The bits
+ * are set with atomic ORs (release) and read with acquire reads: the lookups
+ * are safe during {@link #addAll(MemorySegment, ForkJoinPool)} - an SSN is
+ * found as soon as its insertion is complete.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class SsnBloomFilter implements AutoCloseable {
+  public static final String EXTENSION = ".bloom";
+
+  private static final long MAGIC = 0x4D4F4F4C424E5353L; // "SSNBLOOM"
+  private static final long VERSION = 1;
+  private static final long HEADER_BYTES = 64;
+  private static final long BLOCK_BYTES = 64;
+  private static final int BLOCK_BITS = (int) BLOCK_BYTES * 8;
+  private static final int MAX_HASHES = 16;
+  private static final long CHUNK_RECORDS = 1 << 20;
+
+  private static final VarHandle LONG_HANDLE = MemoryHandles
+      .withStride(MemoryHandles.varHandle(long.class, ByteOrder.nativeOrder()), 1);
+
+  private final TrackedSegment filter;
+  private final long blocks;
+  private final int hashes;
+  private final long expected;
+  private final double falsePositiveRate;
+
+  private SsnBloomFilter(TrackedSegment filter, long blocks, int hashes, long expected, double falsePositiveRate) {
+    this.filter = filter;
+    this.blocks = blocks;
+    this.hashes = hashes;
+    this.expected = expected;
+    this.falsePositiveRate = falsePositiveRate;
+  }
+
+  /**
+   * @param expected          the expected number of SSNs
+   * @param falsePositiveRate the target false positive rate (e.g. 0.01)
+   * @return an empty filter in native memory
+   */
+  public static SsnBloomFilter allocateNative(long expected, double falsePositiveRate) {
+    long blocks = blocks(expected, falsePositiveRate);
+    TrackedSegment filter = NativeMemoryTracker.getInstance().allocateNative(HEADER_BYTES + blocks * BLOCK_BYTES);
+    return initialize(filter, blocks, expected, falsePositiveRate);
+  }
+
+  /**
+   * @param path              the file of the filter (created, it must not
+   *                          exist)
+   * @param expected          the expected number of SSNs
+   * @param falsePositiveRate the target false positive rate (e.g. 0.01)
+   * @return an empty filter in a memory-mapped file
+   * @throws IOException if the file cannot be created or mapped
+   */
+  public static SsnBloomFilter create(Path path, long expected, double falsePositiveRate) throws IOException {
+    long blocks = blocks(expected, falsePositiveRate);
+    Files.createFile(path);
+    TrackedSegment filter = NativeMemoryTracker.getInstance().mapFromPath(path, HEADER_BYTES + blocks * BLOCK_BYTES,
+        MapMode.READ_WRITE);
+    return initialize(filter, blocks, expected, falsePositiveRate);
+  }
+
+  /**
+   * @param path the file of a filter
+   * @return the filter, mapped
+   * @throws IOException if the file cannot be mapped or is not a filter
+   */
+  public static SsnBloomFilter open(Path path) throws IOException {
+    if (Files.size(path) < HEADER_BYTES)
+      throw new IOException(path + " is not a Bloom filter (too small)");
+    TrackedSegment filter = NativeMemoryTracker.getInstance().mapFromPath(path, Files.size(path),
+        MapMode.READ_WRITE);
+    MemoryAddress base = filter.segment().baseAddress();
+    long blocks = (long) LONG_HANDLE.get(base, 16L);
+    if ((long) LONG_HANDLE.get(base, 0L) != MAGIC || (long) LONG_HANDLE.get(base, 8L) != VERSION
+        || filter.byteSize() != HEADER_BYTES + blocks * BLOCK_BYTES) {
+      filter.close();
+      throw new IOException(path + " is not a Bloom filter (version " + VERSION + ")");
+    }
+    return new SsnBloomFilter(filter, blocks, (int) (long) LONG_HANDLE.get(base, 24L),
+        (long) LONG_HANDLE.get(base, 32L), Double.longBitsToDouble((long) LONG_HANDLE.get(base, 40L)));
+  }
+
+  /**
+   * Opens the filter stored next to a data file or, if it is missing or older
+   * than the data file, (re)builds it from the data file.
+   *
+   * @param dataFile          a {@link CreditScoreFile}
+   * @param falsePositiveRate the target false positive rate, when building
+   * @return the filter of the data file
+   * @throws IOException if a file cannot be read, created or mapped
+   */
+  public static SsnBloomFilter forDataFile(Path dataFile, double falsePositiveRate) throws IOException {
+    Path path = dataFile.resolveSibling(dataFile.getFileName() + EXTENSION);
+    if (Files.exists(path)
+        && Files.getLastModifiedTime(path).compareTo(Files.getLastModifiedTime(dataFile)) >= 0)
+      return open(path);
+
+    // built in a temporary file, synced and then renamed: open() never sees
+    // a half-built filter (it would answer false negatives)
+    Path building = dataFile.resolveSibling(dataFile.getFileName() + EXTENSION + ".tmp");
+    Files.deleteIfExists(building);
+    try {
+      try (TrackedSegment data = CreditScoreFile.map(dataFile, MapMode.READ_ONLY);
+          SsnBloomFilter bloomFilter = create(building, CreditScoreFile.records(data.segment()), falsePositiveRate)) {
+        bloomFilter.addAll(data.segment(), ForkJoinPool.commonPool());
+      }
+      try (FileChannel channel = FileChannel.open(building, StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+      Files.move(building, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException | RuntimeException | Error e) {
+      Files.deleteIfExists(building);
+      throw e;
+    }
+    return open(path);
+  }
+
+  private static long blocks(long expected, double falsePositiveRate) {
+    if (expected < 1 || !(falsePositiveRate > 0 && falsePositiveRate < 1))
+      throw new IllegalArgumentException(
+          "Invalid expected SSNs " + expected + " or false positive rate " + falsePositiveRate);
+    double bits = 1.2 * -expected * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+    return Math.max(1, (long) Math.ceil(bits / BLOCK_BITS));
+  }
+
+  private static SsnBloomFilter initialize(TrackedSegment filter, long blocks, long expected,
+      double falsePositiveRate) {
+    double bitsPerSsn = (double) blocks * BLOCK_BITS / expected;
+    int hashes = (int) Math.min(MAX_HASHES, Math.max(1, Math.round(bitsPerSsn * Math.log(2))));
+    MemoryAddress base = filter.segment().baseAddress();
+    LONG_HANDLE.set(base, 0L, MAGIC);
+    LONG_HANDLE.set(base, 8L, VERSION);
+    LONG_HANDLE.set(base, 16L, blocks);
+    LONG_HANDLE.set(base, 24L, (long) hashes);
+    LONG_HANDLE.set(base, 32L, expected);
+    LONG_HANDLE.set(base, 40L, Double.doubleToRawLongBits(falsePositiveRate));
+    return new SsnBloomFilter(filter, blocks, hashes, expected, falsePositiveRate);
+  }
+
+  public long blocks() {
+    return blocks;
+  }
+
+  public int hashes() {
+    return hashes;
+  }
+
+  public long expected() {
+    return expected;
+  }
+
+  public double falsePositiveRate() {
+    return falsePositiveRate;
+  }
+
+  /**
+   * @return the number of bits of the filter per expected SSN
+   */
+  public double bitsPerSsn() {
+    return (double) blocks * BLOCK_BITS / expected;
+  }
+
+  public long byteSize() {
+    return filter.byteSize();
+  }
+
+  /**
+   * Adds an SSN (owner thread only).
+   *
+   * @param ssn an SSN
+   */
+  public void add(long ssn) {
+    add(filter.segment().baseAddress(), ssn);
+  }
+
+  /**
+   * @param ssn an SSN
+   * @return {@code false} if the SSN was never added, {@code true} if it
+   *         probably was (owner thread only)
+   */
+  public boolean mightContain(long ssn) {
+    return mightContain(filter.segment().baseAddress(), ssn);
+  }
+
+  /**
+   * Adds all the SSNs of a segment of {@link CreditScoreFile} records, in
+   * parallel. Can be called by any thread, while other threads read.
+   *
+   * @param records the records
+   * @param pool    the pool running the insertions
+   */
+  public void addAll(MemorySegment records, ForkJoinPool pool) {
+    long count = CreditScoreFile.records(records);
+    long chunks = (count + CHUNK_RECORDS - 1) / CHUNK_RECORDS;
+    MemorySegment segment = filter.segment();
+    pool.submit(() -> LongStream.range(0, chunks).parallel().forEach(chunk -> {
+      try (MemorySegment data = records.acquire(); MemorySegment bits = segment.acquire()) {
+        MemoryAddress dataBase = data.baseAddress();
+        MemoryAddress base = bits.baseAddress();
+        long to = Math.min(count, (chunk + 1) * CHUNK_RECORDS);
+        for (long record = chunk * CHUNK_RECORDS; record < to; record++)
+          add(base, CreditScoreFile.ssn(dataBase, record));
+      }
+    })).join();
+  }
+
+  /**
+   * @return a reader for the calling thread (close it before the filter)
+   */
+  public Reader reader() {
+    return new Reader(filter.segment().acquire());
+  }
+
+  /**
+   * @return the proportion of the bits set (owner thread only) - the false
+   *         positive rate is roughly this to the power K
+   */
+  public double fillRatio() {
+    MemoryAddress base = filter.segment().baseAddress();
+    long set = 0;
+    for (long offset = HEADER_BYTES; offset < filter.byteSize(); offset += Long.BYTES)
+      set += Long.bitCount((long) LONG_HANDLE.getAcquire(base, offset));
+    return (double) set / (blocks * BLOCK_BITS);
+  }
+
+  /**
+   * Closes the filter (the readers must be closed first).
+   */
+  @Override
+  public void close() {
+    filter.close();
+  }
+
+  private void add(MemoryAddress base, long ssn) {
+    long hash = CreditScoreFile.mix(ssn);
+    long block = HEADER_BYTES + ((hash >>> 32) * blocks >>> 32) * BLOCK_BYTES;
+    long bits = CreditScoreFile.mix(hash);
+    int h1 = (int) bits;
+    int h2 = (int) (bits >>> 32) | 1;
+    for (int i = 0; i < hashes; i++) {
+      // the top 9 bits give the bit in the block
+      int bit = h1 + i * h2 >>> 23;
+      long offset = block + (bit >>> 6) * Long.BYTES;
+      long mask = 1L << bit;
+      if (((long) LONG_HANDLE.getAcquire(base, offset) & mask) == 0)
+        LONG_HANDLE.getAndBitwiseOrRelease(base, offset, mask);
+    }
+  }
+
+  private boolean mightContain(MemoryAddress base, long ssn) {
+    long hash = CreditScoreFile.mix(ssn);
+    long block = HEADER_BYTES + ((hash >>> 32) * blocks >>> 32) * BLOCK_BYTES;
+    long bits = CreditScoreFile.mix(hash);
+    int h1 = (int) bits;
+    int h2 = (int) (bits >>> 32) | 1;
+    for (int i = 0; i < hashes; i++) {
+      int bit = h1 + i * h2 >>> 23;
+      if (((long) LONG_HANDLE.getAcquire(base, block + (bit >>> 6) * Long.BYTES) & 1L << bit) == 0)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * The lookups of one thread (other than the owner of the filter).
+   */
+  public final class Reader implements AutoCloseable {
+    private final MemorySegment segment;
+    private final MemoryAddress base;
+
+    private Reader(MemorySegment segment) {
+      this.segment = segment;
+      base = segment.baseAddress();
+    }
+
+    /**
+     * @param ssn an SSN
+     * @return {@code false} if the SSN was never added, {@code true} if it
+     *         probably was
+     */
+    public boolean mightContain(long ssn) {
+      return SsnBloomFilter.this.mightContain(base, ssn);
+    }
+
+    @Override
+    public void close() {
+      segment.close();
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package com.github.kbnt.java14.fma;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import jdk.incubator.foreign.MemoryAddress;
+
+import com.github.kbnt.java14.fma.NativeMemoryTracker.TrackedSegment;
+
+/**
+ * Builds (or reopens) the {@link SsnBloomFilter} of a file of SSN to credit
+ * score records and measures it: the lookups of absent SSNs, the false
+ * positives and the lookups of another thread during a bulk insertion.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class SsnBloomFilterExample {
+  private static final long RECORDS = 10_000_000;
+  private static final double FALSE_POSITIVE_RATE = 0.01;
+  private static final int LOOKUPS = 10_000_000;
+
+  public static void main(String[] args) {
+    try {
+      SsnBloomFilterExample sbfe = new SsnBloomFilterExample();
+      Path dataFile = Paths.get("target", "runtime", "credit-scores.bin");
+      if (!Files.exists(dataFile))
+        CreditScoreFile.generate(dataFile, RECORDS, 2342342);
+      sbfe.example00BuildAndReopen(dataFile);
+      sbfe.example01Lookups(dataFile);
+      sbfe.example02ReadWhileInserting(dataFile);
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with one of our examples:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  public void example00BuildAndReopen(Path dataFile) throws IOException {
+    insertExampleSeparator();
+
+    Files.deleteIfExists(dataFile.resolveSibling(dataFile.getFileName() + SsnBloomFilter.EXTENSION));
+    long start = System.nanoTime();
+    try (SsnBloomFilter filter = SsnBloomFilter.forDataFile(dataFile, FALSE_POSITIVE_RATE)) {
+      System.out.println("Built a filter of " + filter.expected() + " SSNs in " + (System.nanoTime() - start) / 1000000
+          + " milliseconds: " + filter.blocks() + " blocks (" + filter.byteSize() / 1024 + " KB), "
+          + String.format("%.1f", filter.bitsPerSsn()) + " bits per SSN, "
+          + filter.hashes() + " hashes, " + String.format("%.1f", 100 * filter.fillRatio()) + "% of the bits set.");
+    }
+
+    start = System.nanoTime();
+    try (SsnBloomFilter filter = SsnBloomFilter.forDataFile(dataFile, FALSE_POSITIVE_RATE)) {
+      System.out.println("Reopened it in " + (System.nanoTime() - start) / 1000000 + " milliseconds.");
+    }
+  }
+
+  public void example01Lookups(Path dataFile) throws IOException {
+    insertExampleSeparator();
+
+    try (SsnBloomFilter filter = SsnBloomFilter.forDataFile(dataFile, FALSE_POSITIVE_RATE);
+        TrackedSegment data = CreditScoreFile.map(dataFile, MapMode.READ_ONLY)) {
+      MemoryAddress base = data.segment().baseAddress();
+      long records = CreditScoreFile.records(data.segment());
+      for (long record = 0; record < records; record += 997)
+        if (!filter.mightContain(CreditScoreFile.ssn(base, record)))
+          throw new IllegalStateException("Record " + record + " is missing from the filter!");
+
+      // the generated SSNs are all above 100000000
+      SplittableRandom sr = new SplittableRandom(42);
+      long falsePositives = 0;
+      long start = System.nanoTime();
+      for (int i = 0; i < LOOKUPS; i++)
+        if (filter.mightContain(sr.nextLong(100_000_000)))
+          falsePositives++;
+      long elapsed = System.nanoTime() - start;
+      System.out.println(LOOKUPS + " lookups of absent SSNs, " + (double) elapsed / LOOKUPS + " ns per lookup, "
+          + String.format("%.3f", 100.0 * falsePositives / LOOKUPS) + "% false positives (target "
+          + 100 * FALSE_POSITIVE_RATE + "%).");
+    }
+  }
+
+  public void example02ReadWhileInserting(Path dataFile) throws Exception {
+    insertExampleSeparator();
+
+    try (TrackedSegment data = CreditScoreFile.map(dataFile, MapMode.READ_ONLY);
+        SsnBloomFilter filter = SsnBloomFilter.allocateNative(CreditScoreFile.records(data.segment()),
+            FALSE_POSITIVE_RATE)) {
+      AtomicBoolean inserting = new AtomicBoolean(true);
+      // the SSN of the first record, which is inserted early
+      long ssn = CreditScoreFile.ssn(data.segment().baseAddress(), 0);
+      Thread reader = new Thread(() -> {
+        try (SsnBloomFilter.Reader lookups = filter.reader()) {
+          long lookupsDone = 0;
+          long found = 0;
+          while (inserting.get()) {
+            if (lookups.mightContain(ssn))
+              found++;
+            lookupsDone++;
+          }
+          System.out.println("The reader made " + lookupsDone + " lookups during the insertion, " + found
+              + " of them found the SSN " + CreditScoreFile.format(ssn) + ".");
+        }
+      });
+      reader.start();
+      // the reader must stop (and close its reader before the filter is
+      // closed) even if the insertion fails
+      try {
+        long start = System.nanoTime();
+        filter.addAll(data.segment(), ForkJoinPool.commonPool());
+        System.out.println("Inserted " + filter.expected() + " SSNs in " + (System.nanoTime() - start) / 1000000
+            + " milliseconds.");
+      } finally {
+        inserting.set(false);
+        reader.join();
+      }
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package com.github.kbnt.java14.npe;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 
 /**
@@ -35,6 +37,8 @@ public class HelpfulNPEMessages {
 //      pm.example02MethodReturnsNull();
 //      pm.example03ListWithNullElements();
       pm.example04Autoboxing();
+      pm.example05Telemetry();
+      pm.example06NullSafePaths();
     } catch (Throwable e) {
       System.err.println("Ooops, something went wrong with one of our examples:");
       e.printStackTrace();
@@ -121,4 +125,41 @@ public class HelpfulNPEMessages {
     }
   }
 
+  public void example05Telemetry() {
+    insertExampleSeparator();
+
+    // under load, we don't print anything: we count the NPEs and sample a few
+    // of them (see NullPointerTelemetry for the JFR events)
+    try (NullPointerTelemetry telemetry = new NullPointerTelemetry(10, 16)) {
+      Person person = new Person();
+      for (int i = 0; i < 100000; i++) {
+        try {
+          System.out.println(i % 2 == 0 ? person.address.city : person.getFirstName().length());
+        } catch (NullPointerException e) {
+          telemetry.record(e);
+        }
+      }
+      System.out.println(telemetry);
+      telemetry.topSites().forEach(site -> System.out.println(site.getValue() + " x " + site.getKey()));
+    }
+  }
+
+  public void example06NullSafePaths() throws Throwable {
+    insertExampleSeparator();
+
+    // the navigations of the examples above, compiled once and returning a
+    // default value instead of throwing
+    MethodHandle city = PropertyPath.of(MethodHandles.lookup(), Person.class, "address.city", String.class,
+        "(no city)");
+    MethodHandle firstNameLength = PropertyPath.of(MethodHandles.lookup(), Person.class, "getFirstName().length()",
+        int.class, 0);
+    MethodHandle age = PropertyPath.of(MethodHandles.lookup(), Person.class, "age", int.class, -1);
+
+    Person p = new Person();
+    System.out.println("My city is " + (String) city.invokeExact(p));
+    System.out.println("The lenght of first name is " + (int) firstNameLength.invokeExact(p));
+    System.out.println("Person's age is: " + (int) age.invokeExact(p));
+    System.out.println("Nobody's age is: " + (int) age.invokeExact((Person) null));
+  }
+
 }
@@ -0,0 +1,220 @@
+package com.github.kbnt.java14.npe;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * What to do with the {@link NullPointerException}s instead of
+ * {@code printStackTrace()}: under an NPE storm, formatting and logging every
+ * stack trace (and computing every helpful message, see
+ * {@link HelpfulNPEMessages}) costs much more than throwing the exceptions.
+ * <ul>
+ * <li>Every NPE is counted ({@link #record(NullPointerException)} costs a few
+ * nanoseconds when the exception is not sampled).
+ * <li>At most {@code samplesPerSecond} NPEs per second are sampled. Only for
+ * these the stack trace is materialized and the helpful message is computed
+ * (it is computed lazily, by {@code getMessage()}).
+ * <li>The sampled NPEs are deduplicated by throw site (the top frame) and
+ * message into at most {@code maxSites} counters; the sites beyond that are
+ * only counted as overflow.
+ * <li>Instead of printing, every sampled NPE is committed as a JFR
+ * {@code com.github.kbnt.java14.NullPointerSample} event (when it is enabled in
+ * a recording) and every counter is committed, every 10 seconds, as a
+ * {@code com.github.kbnt.java14.NullPointerSite} event.
+ * </ul>
+ * E.g. {@code -XX:StartFlightRecording=filename=npe.jfr} and then
+ * {@code jfr print --events NullPointerSite npe.jfr}.<br>
+ * <br>
+ * <b>Note</b>: the JIT may replace the NPEs thrown very often in the same place
+ * with a preallocated exception without stack trace nor message (see
+ * {@code -XX:-OmitStackTraceInFastThrow}); such exceptions are counted under
+ * {@link #UNKNOWN_SITE}.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class NullPointerTelemetry implements AutoCloseable {
+  public static final String UNKNOWN_SITE = "(unknown site)";
+  public static final String NO_MESSAGE = "(no message)";
+
+  /**
+   * A throw site and the helpful message of its NPEs.
+   */
+  public record Site(String location, String message) {
+  }
+
+  @Name("com.github.kbnt.java14.NullPointerSample")
+  @Label("Null Pointer Sample")
+  @Category({ "Java 14", "Exceptions" })
+  @Description("A sampled NullPointerException")
+  // the site is the stack trace that matters, not the one of the telemetry
+  @StackTrace(false)
+  static final class SampleEvent extends Event {
+    @Label("Site")
+    String site;
+    @Label("Message")
+    String message;
+    @Label("Occurrences")
+    @Description("The sampled occurrences of this site and message so far")
+    long occurrences;
+  }
+
+  @Name("com.github.kbnt.java14.NullPointerSite")
+  @Label("Null Pointer Site")
+  @Category({ "Java 14", "Exceptions" })
+  @Description("The sampled NullPointerExceptions of a throw site and message")
+  @Period("10 s")
+  @StackTrace(false)
+  static final class SiteEvent extends Event {
+    @Label("Site")
+    String site;
+    @Label("Message")
+    String message;
+    @Label("Occurrences")
+    long occurrences;
+    @Label("Recorded")
+    @Description("All the NullPointerExceptions recorded, sampled or not")
+    long recorded;
+  }
+
+  private final int samplesPerSecond;
+  private final int maxSites;
+  private final Map<Site, LongAdder> sites = new ConcurrentHashMap<>();
+  private final LongAdder recorded = new LongAdder();
+  private final LongAdder sampled = new LongAdder();
+  private final LongAdder overflow = new LongAdder();
+  /**
+   * The current second (high 32 bits) and the samples taken in it (low 32
+   * bits).
+   */
+  private final AtomicLong budget = new AtomicLong();
+  private final long origin = System.nanoTime();
+  private final Runnable periodicHook = this::emitSites;
+
+  /**
+   * @param samplesPerSecond the maximum number of NPEs sampled per second
+   * @param maxSites         the maximum number of (site, message) counters
+   */
+  public NullPointerTelemetry(int samplesPerSecond, int maxSites) {
+    if (samplesPerSecond < 0 || maxSites < 1)
+      throw new IllegalArgumentException(
+          "Invalid samples per second " + samplesPerSecond + " or maximum sites " + maxSites);
+    this.samplesPerSecond = samplesPerSecond;
+    this.maxSites = maxSites;
+    FlightRecorder.addPeriodicEvent(SiteEvent.class, periodicHook);
+  }
+
+  /**
+   * @param e a caught NPE (nothing is printed)
+   * @return {@code true} if it was sampled
+   */
+  public boolean record(NullPointerException e) {
+    recorded.increment();
+    if (!tryAcquireSample())
+      return false;
+    sampled.increment();
+
+    StackTraceElement[] stackTrace = e.getStackTrace();
+    String location = stackTrace.length == 0 ? UNKNOWN_SITE : stackTrace[0].toString();
+    String message = e.getMessage();
+    Site site = new Site(location, message == null ? NO_MESSAGE : message);
+
+    LongAdder counter = sites.get(site);
+    if (counter == null) {
+      if (sites.size() >= maxSites) {
+        overflow.increment();
+        return true;
+      }
+      // a few concurrent threads may exceed the bound a bit, that's fine
+      counter = sites.computeIfAbsent(site, s -> new LongAdder());
+    }
+    counter.increment();
+
+    SampleEvent event = new SampleEvent();
+    if (event.isEnabled()) {
+      event.site = site.location();
+      event.message = site.message();
+      event.occurrences = counter.sum();
+      event.commit();
+    }
+    return true;
+  }
+
+  private boolean tryAcquireSample() {
+    long second = (System.nanoTime() - origin) / 1_000_000_000L;
+    while (true) {
+      long current = budget.get();
+      long taken = current >>> 32 == second ? current & 0xFFFFFFFFL : 0;
+      if (taken >= samplesPerSecond)
+        return false;
+      if (budget.compareAndSet(current, second << 32 | taken + 1))
+        return true;
+    }
+  }
+
+  /**
+   * @return the sampled occurrences by site, the most frequent first
+   */
+  public List<Map.Entry<Site, Long>> topSites() {
+    List<Map.Entry<Site, Long>> top = new ArrayList<>();
+    sites.forEach((site, counter) -> top.add(Map.entry(site, counter.sum())));
+    top.sort(Map.Entry.<Site, Long>comparingByValue(Comparator.reverseOrder()));
+    return top;
+  }
+
+  public long recorded() {
+    return recorded.sum();
+  }
+
+  public long sampled() {
+    return sampled.sum();
+  }
+
+  /**
+   * @return the sampled NPEs not counted by site because there were already
+   *         {@code maxSites} sites
+   */
+  public long overflow() {
+    return overflow.sum();
+  }
+
+  private void emitSites() {
+    long all = recorded.sum();
+    sites.forEach((site, counter) -> {
+      SiteEvent event = new SiteEvent();
+      event.site = site.location();
+      event.message = site.message();
+      event.occurrences = counter.sum();
+      event.recorded = all;
+      event.commit();
+    });
+  }
+
+  /**
+   * Stops emitting the periodic events.
+   */
+  @Override
+  public void close() {
+    FlightRecorder.removePeriodicEvent(periodicHook);
+  }
+
+  @Override
+  public String toString() {
+    return "NullPointerTelemetry [recorded=" + recorded() + ", sampled=" + sampled() + ", sites=" + sites.size()
+        + ", overflow=" + overflow() + "]";
+  }
+}
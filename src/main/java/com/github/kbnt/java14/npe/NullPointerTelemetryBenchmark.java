@@ -0,0 +1,129 @@
+package com.github.kbnt.java14.npe;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+/**
+ * A small (not JMH, so take the numbers as approximations) benchmark of what
+ * an NPE costs, depending on what we do with it:
+ * <ul>
+ * <li>nothing (just throw and catch);
+ * <li>{@code getMessage()} (which computes the helpful message);
+ * <li>{@code printStackTrace()} (to a stream discarding everything, so without
+ * the cost of the console);
+ * <li>{@link NullPointerTelemetry#record(NullPointerException)}.
+ * </ul>
+ * Everything is measured with and without the helpful messages
+ * ({@code ShowCodeDetailsInExceptionMessages} is a manageable flag, so it's
+ * switched at runtime). We print the time and the bytes allocated per
+ * exception by the benchmark thread.<br>
+ * <br>
+ * <b>Note</b>: run it with {@code -XX:-OmitStackTraceInFastThrow}, otherwise
+ * the JIT soon throws preallocated NPEs, without stack trace nor message, and
+ * there's nothing left to measure.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class NullPointerTelemetryBenchmark {
+  private static final int EXCEPTIONS = 100000;
+  private static final int ROUNDS = 3;
+  private static final String FLAG = "ShowCodeDetailsInExceptionMessages";
+
+  static class Address {
+    String city;
+  }
+
+  static class Person {
+    String firstName;
+    Integer age;
+    Address address;
+
+    String getFirstName() {
+      return firstName;
+    }
+  }
+
+  /**
+   * Does something with a caught NPE.
+   */
+  @FunctionalInterface
+  private interface Handler {
+    void handle(NullPointerException e);
+  }
+
+  private final Person[] persons = { new Person(), null };
+  private long checksum;
+
+  public static void main(String[] args) {
+    try {
+      NullPointerTelemetryBenchmark ntb = new NullPointerTelemetryBenchmark();
+      HotSpotDiagnosticMXBean diagnostic = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+      PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+
+      for (boolean details : new boolean[] { true, false }) {
+        diagnostic.setVMOption(FLAG, Boolean.toString(details));
+        String suffix = " (" + FLAG + "=" + diagnostic.getVMOption(FLAG).getValue() + ")";
+
+        ntb.benchmark("throw and catch" + suffix, e -> {
+        });
+        ntb.benchmark("getMessage()" + suffix, e -> ntb.checksum += String.valueOf(e.getMessage()).length());
+        ntb.benchmark("printStackTrace()" + suffix, e -> e.printStackTrace(nowhere));
+        try (NullPointerTelemetry telemetry = new NullPointerTelemetry(100, 64)) {
+          ntb.benchmark("NullPointerTelemetry" + suffix, telemetry::record);
+          System.out.println(telemetry);
+          telemetry.topSites().forEach(site -> System.out.println("  " + site.getValue() + " x " + site.getKey()));
+        }
+      }
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with the benchmark:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  private void benchmark(String name, Handler handler) {
+    insertExampleSeparator();
+    System.out.println("Benchmarking " + name + "...");
+
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    for (int round = 0; round < ROUNDS; round++) {
+      long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      for (int i = 0; i < EXCEPTIONS; i++) {
+        try {
+          checksum += failSomewhere(i);
+        } catch (NullPointerException e) {
+          handler.handle(e);
+        }
+      }
+      long elapsed = System.nanoTime() - start;
+      long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+      System.out.println("Round " + round + ": " + EXCEPTIONS + " exceptions in " + elapsed / 1000000
+          + " milliseconds (" + (double) elapsed / EXCEPTIONS + " ns and " + (double) allocated / EXCEPTIONS
+          + " bytes per exception).");
+    }
+  }
+
+  /**
+   * Throws an NPE from one of four sites (the examples of
+   * {@link HelpfulNPEMessages}).
+   */
+  private int failSomewhere(int i) {
+    Person person = persons[0];
+    return switch (i & 3) {
+    case 0 -> person.address.city.length();
+    case 1 -> person.getFirstName().length();
+    case 2 -> persons[1].firstName.length();
+    default -> person.age;
+    };
+  }
+}
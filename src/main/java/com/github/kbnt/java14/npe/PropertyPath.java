@@ -0,0 +1,198 @@
+package com.github.kbnt.java14.npe;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Null-safe navigation of object graphs: a property path such as
+ * {@code "address.city"} or {@code "getFirstName().length()"} is compiled once
+ * into a {@link MethodHandle} chain - getters and field reads, each one guarded
+ * by a null check returning the default value. So where the examples of
+ * {@link HelpfulNPEMessages} throw, the handle returns the default.<br>
+ * <br>
+ * A step of the path is resolved, in this order, to the no-argument method
+ * {@code getName()}, {@code isName()} or {@code name()} (e.g. a record
+ * component) or to the field {@code name}; a step ending with {@code ()} is
+ * only resolved to the method with that exact name. The members are looked up
+ * with the caller's {@link MethodHandles.Lookup}, so the handle can read what
+ * the caller can read.<br>
+ * <br>
+ * The handle has the exact type {@code (root)type}: with {@code int} as the
+ * type, an {@code Integer} at the end of the path is unboxed (null giving the
+ * default) and an {@code int} is never boxed. Keep the handle in a
+ * {@code static final} field and call it with {@code invokeExact} - the JIT then
+ * inlines the whole chain, just like hand-written null checks.<br>
+ * <br>
+ * The compiled paths are cached per root class (in a {@link ClassValue}, so the
+ * cache doesn't keep the classes from unloading) and path, result type, default
+ * value and lookup (class and modes: a lookup with fewer privileges, e.g. from
+ * {@code dropLookupMode}, doesn't get the handles compiled with more).
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class PropertyPath {
+  private static final MethodHandle IS_NULL;
+
+  static {
+    try {
+      IS_NULL = MethodHandles.lookup().findStatic(Objects.class, "isNull",
+          MethodType.methodType(boolean.class, Object.class));
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private static final ClassValue<Map<Key, MethodHandle>> CACHE = new ClassValue<>() {
+    @Override
+    protected Map<Key, MethodHandle> computeValue(Class<?> root) {
+      return new ConcurrentHashMap<>();
+    }
+  };
+
+  private record Key(String path, Class<?> type, Object defaultValue, Class<?> lookupClass, int lookupModes) {
+  }
+
+  private PropertyPath() {
+  }
+
+  /**
+   * @param lookup       the lookup of the caller (e.g.
+   *                     {@code MethodHandles.lookup()})
+   * @param root         the class of the objects to navigate
+   * @param path         the property path (steps separated by dots)
+   * @param type         the type of the result
+   * @param defaultValue the result when the root or any step is {@code null}
+   *                     (a wrapper for a primitive type)
+   * @return the compiled path (from the cache if it was compiled before), of
+   *         type {@code (root)type}
+   * @throws IllegalArgumentException if a step can't be resolved or accessed,
+   *                                  the result can't be converted to the
+   *                                  type or the default value is not of the
+   *                                  type
+   */
+  public static MethodHandle of(MethodHandles.Lookup lookup, Class<?> root, String path, Class<?> type,
+      Object defaultValue) {
+    return CACHE.get(root).computeIfAbsent(new Key(path, type, defaultValue, lookup.lookupClass(), lookup.lookupModes()),
+        key -> compile(lookup, root, path, type, defaultValue));
+  }
+
+  /**
+   * Like {@link #of(MethodHandles.Lookup, Class, String, Class, Object)}, but
+   * without the cache.
+   */
+  public static MethodHandle compile(MethodHandles.Lookup lookup, Class<?> root, String path, Class<?> type,
+      Object defaultValue) {
+    if (type.isPrimitive() && defaultValue == null)
+      throw new IllegalArgumentException("The path '" + path + "' to a " + type + " needs a default value");
+    // checked here, MethodHandles.constant would throw a ClassCastException
+    Class<?> wrapper = MethodType.methodType(type).wrap().returnType();
+    if (defaultValue != null && !wrapper.isInstance(defaultValue))
+      throw new IllegalArgumentException("The default value " + defaultValue + " of the path '" + path
+          + "' is not a " + wrapper.getName());
+    String[] steps = path.split("\\.", -1);
+    MethodHandle[] getters = new MethodHandle[steps.length];
+    Class<?> current = root;
+    for (int i = 0; i < steps.length; i++) {
+      if (current.isPrimitive())
+        throw new IllegalArgumentException(
+            "Can't navigate '" + steps[i] + "' from the " + current + " in the path '" + path + "'");
+      getters[i] = getter(lookup, current, steps[i], path);
+      current = getters[i].type().returnType();
+    }
+
+    // built from the end: each step is called only if its target is not null
+    MethodHandle handle = convert(current, type, defaultValue, path);
+    for (int i = steps.length - 1; i >= 0; i--) {
+      Class<?> target = getters[i].type().parameterType(0);
+      handle = nullSafe(MethodHandles.filterArguments(handle, 0, getters[i]), target, type, defaultValue);
+    }
+    return handle.asType(MethodType.methodType(type, root));
+  }
+
+  private static MethodHandle getter(MethodHandles.Lookup lookup, Class<?> type, String step, String path) {
+    try {
+      if (step.endsWith("()")) {
+        Method method = findMethod(type, step.substring(0, step.length() - 2));
+        if (method != null)
+          return lookup.unreflect(method);
+      } else if (!step.isEmpty()) {
+        String capitalized = Character.toUpperCase(step.charAt(0)) + step.substring(1);
+        for (String name : new String[] { "get" + capitalized, "is" + capitalized, step }) {
+          Method method = findMethod(type, name);
+          if (method != null)
+            return lookup.unreflect(method);
+        }
+        Field field = findField(type, step);
+        if (field != null)
+          return lookup.unreflectGetter(field);
+      }
+    } catch (IllegalAccessException e) {
+      throw new IllegalArgumentException("Can't access '" + step + "' of " + type.getName() + " in the path '"
+          + path + "' with the lookup of " + lookup.lookupClass().getName(), e);
+    }
+    throw new IllegalArgumentException("No property '" + step + "' in " + type.getName() + " for the path '" + path + "'");
+  }
+
+  private static Method findMethod(Class<?> type, String name) {
+    for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+      for (Method method : c.getDeclaredMethods())
+        if (method.getName().equals(name) && method.getParameterCount() == 0
+            && method.getReturnType() != void.class && !Modifier.isStatic(method.getModifiers()))
+          return method;
+    }
+    // e.g. a default method of an interface
+    try {
+      Method method = type.getMethod(name);
+      return Modifier.isStatic(method.getModifiers()) || method.getReturnType() == void.class ? null : method;
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private static Field findField(Class<?> type, String name) {
+    for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields())
+        if (field.getName().equals(name) && !Modifier.isStatic(field.getModifiers()))
+          return field;
+    }
+    return null;
+  }
+
+  /**
+   * @return a handle of type {@code (from)to}, returning the default for
+   *         {@code null} when unboxing
+   */
+  private static MethodHandle convert(Class<?> from, Class<?> to, Object defaultValue, String path) {
+    MethodHandle identity = MethodHandles.identity(from);
+    try {
+      if (!from.isPrimitive() && to.isPrimitive())
+        return nullSafe(identity.asType(MethodType.methodType(to, from)), from, to, defaultValue);
+      return identity.asType(MethodType.methodType(to, from));
+    } catch (WrongMethodTypeException e) {
+      throw new IllegalArgumentException(
+          "The path '" + path + "' leads to a " + from.getName() + ", not to a " + to.getName(), e);
+    }
+  }
+
+  /**
+   * @param handle a handle of type {@code (target)type}
+   * @return the handle, returning the default instead of being called with
+   *         {@code null}
+   */
+  private static MethodHandle nullSafe(MethodHandle handle, Class<?> target, Class<?> type, Object defaultValue) {
+    if (target.isPrimitive())
+      return handle;
+    MethodHandle isNull = IS_NULL.asType(MethodType.methodType(boolean.class, target));
+    MethodHandle orElse = MethodHandles.dropArguments(MethodHandles.constant(type, defaultValue), 0, target);
+    return MethodHandles.guardWithTest(isNull, orElse, handle);
+  }
+}
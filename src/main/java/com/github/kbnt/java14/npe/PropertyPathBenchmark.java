@@ -0,0 +1,264 @@
+package com.github.kbnt.java14.npe;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.util.Optional;
+import java.util.SplittableRandom;
+
+/**
+ * A small (not JMH, so take the numbers as approximations) benchmark of the
+ * null-safe navigation of three paths, over persons with some of the
+ * properties {@code null}:
+ * <ul>
+ * <li>{@code address.city.length()}, to an {@code int};
+ * <li>{@code age}, an {@code Integer} unboxed to an {@code int};
+ * <li>{@code address.zipCode}, an {@code int} - and also to an {@code Object},
+ * to show what boxing costs.
+ * </ul>
+ * Each path is navigated with hand-written null checks, with an
+ * {@code Optional} chain, with reflection and with a {@link PropertyPath}. We
+ * print the time and the bytes allocated per navigation by the benchmark
+ * thread.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class PropertyPathBenchmark {
+  private static final int PERSONS = 1 << 20;
+  private static final int ITERATIONS = 10;
+  private static final int WARMUP_ROUNDS = 3;
+  private static final int ROUNDS = 5;
+
+  static class Address {
+    String city;
+    int zipCode;
+  }
+
+  static class Person {
+    String firstName;
+    Integer age;
+    Address address;
+
+    String getFirstName() {
+      return firstName;
+    }
+  }
+
+  private static final MethodHandle CITY_LENGTH = PropertyPath.of(MethodHandles.lookup(), Person.class,
+      "address.city.length()", int.class, 0);
+  private static final MethodHandle AGE = PropertyPath.of(MethodHandles.lookup(), Person.class, "age", int.class,
+      -1);
+  private static final MethodHandle ZIP_CODE = PropertyPath.of(MethodHandles.lookup(), Person.class,
+      "address.zipCode", int.class, 0);
+  private static final MethodHandle BOXED_ZIP_CODE = PropertyPath.of(MethodHandles.lookup(), Person.class,
+      "address.zipCode", Object.class, 0);
+
+  private static final Field ADDRESS_FIELD;
+  private static final Field CITY_FIELD;
+  private static final Field AGE_FIELD;
+  private static final Field ZIP_CODE_FIELD;
+
+  static {
+    try {
+      ADDRESS_FIELD = Person.class.getDeclaredField("address");
+      CITY_FIELD = Address.class.getDeclaredField("city");
+      AGE_FIELD = Person.class.getDeclaredField("age");
+      ZIP_CODE_FIELD = Address.class.getDeclaredField("zipCode");
+    } catch (NoSuchFieldException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /**
+   * One way of navigating, looping over all the persons by itself.
+   */
+  @FunctionalInterface
+  private interface Strategy {
+    /**
+     * @return a checksum of the results (so the work can't be eliminated)
+     */
+    long run(Person[] persons) throws Throwable;
+  }
+
+  public static void main(String[] args) {
+    try {
+      PropertyPathBenchmark ppb = new PropertyPathBenchmark();
+      Person[] persons = persons();
+
+      ppb.benchmark("address.city.length(), hand-written", PropertyPathBenchmark::cityLengthByHand, persons);
+      ppb.benchmark("address.city.length(), Optional", PropertyPathBenchmark::cityLengthOptional, persons);
+      ppb.benchmark("address.city.length(), reflection", PropertyPathBenchmark::cityLengthReflection, persons);
+      ppb.benchmark("address.city.length(), PropertyPath", PropertyPathBenchmark::cityLengthPath, persons);
+
+      ppb.benchmark("age, hand-written", PropertyPathBenchmark::ageByHand, persons);
+      ppb.benchmark("age, Optional", PropertyPathBenchmark::ageOptional, persons);
+      ppb.benchmark("age, reflection", PropertyPathBenchmark::ageReflection, persons);
+      ppb.benchmark("age, PropertyPath", PropertyPathBenchmark::agePath, persons);
+
+      ppb.benchmark("address.zipCode, hand-written", PropertyPathBenchmark::zipCodeByHand, persons);
+      ppb.benchmark("address.zipCode, Optional (boxing)", PropertyPathBenchmark::zipCodeOptional, persons);
+      ppb.benchmark("address.zipCode, reflection (boxing)", PropertyPathBenchmark::zipCodeReflection, persons);
+      ppb.benchmark("address.zipCode, PropertyPath to int", PropertyPathBenchmark::zipCodePath, persons);
+      ppb.benchmark("address.zipCode, PropertyPath to Object (boxing)", PropertyPathBenchmark::boxedZipCodePath,
+          persons);
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with the benchmark:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  private void benchmark(String name, Strategy strategy, Person[] persons) throws Throwable {
+    insertExampleSeparator();
+
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long calls = (long) ITERATIONS * persons.length;
+    long best = Long.MAX_VALUE;
+    long allocated = 0;
+    long checksum = 0;
+    for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+      long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++)
+        checksum += strategy.run(persons);
+      long elapsed = System.nanoTime() - start;
+      if (round >= WARMUP_ROUNDS) {
+        best = Math.min(best, elapsed);
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+      }
+    }
+    System.out.println(name + ": " + (double) best / calls + " ns and " + (double) allocated / calls
+        + " bytes per navigation (checksum " + checksum + ").");
+  }
+
+  /**
+   * @return persons with, each one, a null address, a null city or a null age
+   *         one time in four
+   */
+  private static Person[] persons() {
+    String[] cities = { "New York", "Bucharest", "Indianapolis", "Paris" };
+    SplittableRandom sr = new SplittableRandom(2342342);
+    Person[] persons = new Person[PERSONS];
+    for (int i = 0; i < PERSONS; i++) {
+      Person person = new Person();
+      person.firstName = "Person" + i;
+      if (sr.nextInt(4) != 0)
+        person.age = sr.nextInt(100);
+      if (sr.nextInt(4) != 0) {
+        person.address = new Address();
+        person.address.zipCode = 10000 + sr.nextInt(90000);
+        if (sr.nextInt(4) != 0)
+          person.address.city = cities[sr.nextInt(cities.length)];
+      }
+      persons[i] = person;
+    }
+    return persons;
+  }
+
+  private static long cityLengthByHand(Person[] persons) {
+    long sum = 0;
+    for (Person person : persons)
+      sum += person == null || person.address == null || person.address.city == null ? 0
+          : person.address.city.length();
+    return sum;
+  }
+
+  private static long cityLengthOptional(Person[] persons) {
+    long sum = 0;
+    for (Person person : persons)
+      sum += Optional.ofNullable(person).map(p -> p.address).map(a -> a.city).map(String::length).orElse(0);
+    return sum;
+  }
+
+  private static long cityLengthReflection(Person[] persons) throws IllegalAccessException {
+    long sum = 0;
+    for (Person person : persons) {
+      Object address = person == null ? null : ADDRESS_FIELD.get(person);
+      Object city = address == null ? null : CITY_FIELD.get(address);
+      sum += city == null ? 0 : ((String) city).length();
+    }
+    return sum;
+  }
+
+  private static long cityLengthPath(Person[] persons) throws Throwable {
+    long sum = 0;
+    for (Person person : persons)
+      sum += (int) CITY_LENGTH.invokeExact(person);
+    return sum;
+  }
+
+  private static long ageByHand(Person[] persons) {
+    long sum = 0;
+    for (Person person : persons)
+      sum += person == null || person.age == null ? -1 : person.age;
+    return sum;
+  }
+
+  private static long ageOptional(Person[] persons) {
+    long sum = 0;
+    for (Person person : persons)
+      sum += Optional.ofNullable(person).map(p -> p.age).orElse(-1);
+    return sum;
+  }
+
+  private static long ageReflection(Person[] persons) throws IllegalAccessException {
+    long sum = 0;
+    for (Person person : persons) {
+      Object age = person == null ? null : AGE_FIELD.get(person);
+      sum += age == null ? -1 : (Integer) age;
+    }
+    return sum;
+  }
+
+  private static long agePath(Person[] persons) throws Throwable {
+    long sum = 0;
+    for (Person person : persons)
+      sum += (int) AGE.invokeExact(person);
+    return sum;
+  }
+
+  private static long zipCodeByHand(Person[] persons) {
+    long sum = 0;
+    for (Person person : persons)
+      sum += person == null || person.address == null ? 0 : person.address.zipCode;
+    return sum;
+  }
+
+  private static long zipCodeOptional(Person[] persons) {
+    long sum = 0;
+    for (Person person : persons)
+      sum += Optional.ofNullable(person).map(p -> p.address).map(a -> a.zipCode).orElse(0);
+    return sum;
+  }
+
+  private static long zipCodeReflection(Person[] persons) throws IllegalAccessException {
+    long sum = 0;
+    for (Person person : persons) {
+      Object address = person == null ? null : ADDRESS_FIELD.get(person);
+      // the generic way (Field.get) boxes the int
+      Object zipCode = address == null ? null : ZIP_CODE_FIELD.get(address);
+      sum += zipCode == null ? 0 : (Integer) zipCode;
+    }
+    return sum;
+  }
+
+  private static long zipCodePath(Person[] persons) throws Throwable {
+    long sum = 0;
+    for (Person person : persons)
+      sum += (int) ZIP_CODE.invokeExact(person);
+    return sum;
+  }
+
+  private static long boxedZipCodePath(Person[] persons) throws Throwable {
+    long sum = 0;
+    for (Person person : persons)
+      sum += (Integer) (Object) BOXED_ZIP_CODE.invokeExact(person);
+    return sum;
+  }
+}
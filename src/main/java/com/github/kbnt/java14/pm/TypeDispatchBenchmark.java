@@ -0,0 +1,493 @@
+package com.github.kbnt.java14.pm;
+
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+
+/**
+ * A small (not JMH, so take the numbers as approximations) benchmark of type
+ * dispatch over 2, 8 and 32 types (all the types being equally frequent, so the
+ * call sites are megamorphic):
+ * <ul>
+ * <li>a linear chain of {@code instanceof} tests with binding (the pattern of
+ * {@link PatternMatchingForInstanceof}, repeated for every type);
+ * <li>a {@link TypeDispatcher} (one {@code ClassValue} lookup per call).
+ * </ul>
+ * We print the time and the bytes allocated per dispatch by the benchmark
+ * thread.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class TypeDispatchBenchmark {
+  private static final int OBJECTS = 1 << 20;
+  private static final int ITERATIONS = 10;
+  private static final int WARMUP_ROUNDS = 3;
+  private static final int ROUNDS = 5;
+  // the results (size + type) stay within the Integer cache (-128..127), so
+  // boxing them for the TypeDispatcher allocates nothing
+  private static final int MAX_SIZE = 96;
+
+  private static abstract class Shape {
+    protected final int size;
+
+    private Shape(int size) {
+      this.size = size;
+    }
+  }
+
+  private static final class T0 extends Shape {
+    private T0(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T1 extends Shape {
+    private T1(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T2 extends Shape {
+    private T2(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T3 extends Shape {
+    private T3(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T4 extends Shape {
+    private T4(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T5 extends Shape {
+    private T5(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T6 extends Shape {
+    private T6(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T7 extends Shape {
+    private T7(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T8 extends Shape {
+    private T8(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T9 extends Shape {
+    private T9(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T10 extends Shape {
+    private T10(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T11 extends Shape {
+    private T11(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T12 extends Shape {
+    private T12(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T13 extends Shape {
+    private T13(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T14 extends Shape {
+    private T14(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T15 extends Shape {
+    private T15(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T16 extends Shape {
+    private T16(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T17 extends Shape {
+    private T17(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T18 extends Shape {
+    private T18(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T19 extends Shape {
+    private T19(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T20 extends Shape {
+    private T20(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T21 extends Shape {
+    private T21(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T22 extends Shape {
+    private T22(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T23 extends Shape {
+    private T23(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T24 extends Shape {
+    private T24(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T25 extends Shape {
+    private T25(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T26 extends Shape {
+    private T26(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T27 extends Shape {
+    private T27(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T28 extends Shape {
+    private T28(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T29 extends Shape {
+    private T29(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T30 extends Shape {
+    private T30(int size) {
+      super(size);
+    }
+  }
+
+  private static final class T31 extends Shape {
+    private T31(int size) {
+      super(size);
+    }
+  }
+
+  /**
+   * One way of dispatching, looping over all the objects by itself.
+   */
+  @FunctionalInterface
+  private interface Strategy {
+    /**
+     * @return a checksum of the results (so the work can't be eliminated)
+     */
+    long run(Object[] shapes);
+  }
+
+  public static void main(String[] args) {
+    try {
+      TypeDispatchBenchmark tdb = new TypeDispatchBenchmark();
+      TypeDispatcher<Integer> dispatcher = dispatcher();
+      for (int types : new int[] { 2, 8, 32 }) {
+        Object[] shapes = shapes(types);
+        Strategy chain = switch (types) {
+        case 2 -> TypeDispatchBenchmark::runChain2;
+        case 8 -> TypeDispatchBenchmark::runChain8;
+        default -> TypeDispatchBenchmark::runChain32;
+        };
+        tdb.benchmark("instanceof chain", types, shapes, chain);
+        tdb.benchmark("TypeDispatcher", types, shapes, objects -> {
+          long sum = 0;
+          for (Object shape : objects)
+            sum += dispatcher.dispatch(shape);
+          return sum;
+        });
+      }
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with the benchmark:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  private void benchmark(String name, int types, Object[] shapes, Strategy strategy) {
+    insertExampleSeparator();
+
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long calls = (long) ITERATIONS * shapes.length;
+    long best = Long.MAX_VALUE;
+    long allocated = 0;
+    long checksum = 0;
+    for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+      long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++)
+        checksum += strategy.run(shapes);
+      long elapsed = System.nanoTime() - start;
+      if (round >= WARMUP_ROUNDS) {
+        best = Math.min(best, elapsed);
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+      }
+    }
+    System.out.println(name + " (" + types + " types): " + (double) best / calls + " ns and "
+        + (double) allocated / calls + " bytes per dispatch (checksum " + checksum + ").");
+  }
+
+  private static Object[] shapes(int types) {
+    Object[] shapes = new Object[OBJECTS];
+    SplittableRandom sr = new SplittableRandom(2342342);
+    for (int i = 0; i < OBJECTS; i++)
+      shapes[i] = shape(sr.nextInt(types), sr.nextInt(MAX_SIZE));
+    return shapes;
+  }
+
+  private static Shape shape(int type, int size) {
+    return switch (type) {
+    case 0 -> new T0(size);
+    case 1 -> new T1(size);
+    case 2 -> new T2(size);
+    case 3 -> new T3(size);
+    case 4 -> new T4(size);
+    case 5 -> new T5(size);
+    case 6 -> new T6(size);
+    case 7 -> new T7(size);
+    case 8 -> new T8(size);
+    case 9 -> new T9(size);
+    case 10 -> new T10(size);
+    case 11 -> new T11(size);
+    case 12 -> new T12(size);
+    case 13 -> new T13(size);
+    case 14 -> new T14(size);
+    case 15 -> new T15(size);
+    case 16 -> new T16(size);
+    case 17 -> new T17(size);
+    case 18 -> new T18(size);
+    case 19 -> new T19(size);
+    case 20 -> new T20(size);
+    case 21 -> new T21(size);
+    case 22 -> new T22(size);
+    case 23 -> new T23(size);
+    case 24 -> new T24(size);
+    case 25 -> new T25(size);
+    case 26 -> new T26(size);
+    case 27 -> new T27(size);
+    case 28 -> new T28(size);
+    case 29 -> new T29(size);
+    case 30 -> new T30(size);
+    case 31 -> new T31(size);
+    default -> throw new IllegalArgumentException("Unknown type: " + type);
+    };
+  }
+
+  private static TypeDispatcher<Integer> dispatcher() {
+    TypeDispatcher.Builder<Integer> builder = TypeDispatcher.builder();
+    builder.on(T0.class, t -> t.size + 0);
+    builder.on(T1.class, t -> t.size + 1);
+    builder.on(T2.class, t -> t.size + 2);
+    builder.on(T3.class, t -> t.size + 3);
+    builder.on(T4.class, t -> t.size + 4);
+    builder.on(T5.class, t -> t.size + 5);
+    builder.on(T6.class, t -> t.size + 6);
+    builder.on(T7.class, t -> t.size + 7);
+    builder.on(T8.class, t -> t.size + 8);
+    builder.on(T9.class, t -> t.size + 9);
+    builder.on(T10.class, t -> t.size + 10);
+    builder.on(T11.class, t -> t.size + 11);
+    builder.on(T12.class, t -> t.size + 12);
+    builder.on(T13.class, t -> t.size + 13);
+    builder.on(T14.class, t -> t.size + 14);
+    builder.on(T15.class, t -> t.size + 15);
+    builder.on(T16.class, t -> t.size + 16);
+    builder.on(T17.class, t -> t.size + 17);
+    builder.on(T18.class, t -> t.size + 18);
+    builder.on(T19.class, t -> t.size + 19);
+    builder.on(T20.class, t -> t.size + 20);
+    builder.on(T21.class, t -> t.size + 21);
+    builder.on(T22.class, t -> t.size + 22);
+    builder.on(T23.class, t -> t.size + 23);
+    builder.on(T24.class, t -> t.size + 24);
+    builder.on(T25.class, t -> t.size + 25);
+    builder.on(T26.class, t -> t.size + 26);
+    builder.on(T27.class, t -> t.size + 27);
+    builder.on(T28.class, t -> t.size + 28);
+    builder.on(T29.class, t -> t.size + 29);
+    builder.on(T30.class, t -> t.size + 30);
+    builder.on(T31.class, t -> t.size + 31);
+    return builder.build();
+  }
+
+  private static long runChain2(Object[] shapes) {
+    long sum = 0;
+    for (Object shape : shapes)
+      sum += chain2(shape);
+    return sum;
+  }
+
+  private static long runChain8(Object[] shapes) {
+    long sum = 0;
+    for (Object shape : shapes)
+      sum += chain8(shape);
+    return sum;
+  }
+
+  private static long runChain32(Object[] shapes) {
+    long sum = 0;
+    for (Object shape : shapes)
+      sum += chain32(shape);
+    return sum;
+  }
+
+  private static int chain2(Object shape) {
+    if (shape instanceof T0 t)
+      return t.size + 0;
+    if (shape instanceof T1 t)
+      return t.size + 1;
+    throw new IllegalArgumentException("Unknown shape: " + shape);
+  }
+
+  private static int chain8(Object shape) {
+    if (shape instanceof T0 t)
+      return t.size + 0;
+    if (shape instanceof T1 t)
+      return t.size + 1;
+    if (shape instanceof T2 t)
+      return t.size + 2;
+    if (shape instanceof T3 t)
+      return t.size + 3;
+    if (shape instanceof T4 t)
+      return t.size + 4;
+    if (shape instanceof T5 t)
+      return t.size + 5;
+    if (shape instanceof T6 t)
+      return t.size + 6;
+    if (shape instanceof T7 t)
+      return t.size + 7;
+    throw new IllegalArgumentException("Unknown shape: " + shape);
+  }
+
+  private static int chain32(Object shape) {
+    if (shape instanceof T0 t)
+      return t.size + 0;
+    if (shape instanceof T1 t)
+      return t.size + 1;
+    if (shape instanceof T2 t)
+      return t.size + 2;
+    if (shape instanceof T3 t)
+      return t.size + 3;
+    if (shape instanceof T4 t)
+      return t.size + 4;
+    if (shape instanceof T5 t)
+      return t.size + 5;
+    if (shape instanceof T6 t)
+      return t.size + 6;
+    if (shape instanceof T7 t)
+      return t.size + 7;
+    if (shape instanceof T8 t)
+      return t.size + 8;
+    if (shape instanceof T9 t)
+      return t.size + 9;
+    if (shape instanceof T10 t)
+      return t.size + 10;
+    if (shape instanceof T11 t)
+      return t.size + 11;
+    if (shape instanceof T12 t)
+      return t.size + 12;
+    if (shape instanceof T13 t)
+      return t.size + 13;
+    if (shape instanceof T14 t)
+      return t.size + 14;
+    if (shape instanceof T15 t)
+      return t.size + 15;
+    if (shape instanceof T16 t)
+      return t.size + 16;
+    if (shape instanceof T17 t)
+      return t.size + 17;
+    if (shape instanceof T18 t)
+      return t.size + 18;
+    if (shape instanceof T19 t)
+      return t.size + 19;
+    if (shape instanceof T20 t)
+      return t.size + 20;
+    if (shape instanceof T21 t)
+      return t.size + 21;
+    if (shape instanceof T22 t)
+      return t.size + 22;
+    if (shape instanceof T23 t)
+      return t.size + 23;
+    if (shape instanceof T24 t)
+      return t.size + 24;
+    if (shape instanceof T25 t)
+      return t.size + 25;
+    if (shape instanceof T26 t)
+      return t.size + 26;
+    if (shape instanceof T27 t)
+      return t.size + 27;
+    if (shape instanceof T28 t)
+      return t.size + 28;
+    if (shape instanceof T29 t)
+      return t.size + 29;
+    if (shape instanceof T30 t)
+      return t.size + 30;
+    if (shape instanceof T31 t)
+      return t.size + 31;
+    throw new IllegalArgumentException("Unknown shape: " + shape);
+  }
+}
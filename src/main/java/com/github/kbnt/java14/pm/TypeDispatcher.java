@@ -0,0 +1,152 @@
+package com.github.kbnt.java14.pm;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The alternative to long {@code instanceof} chains: the handlers are
+ * registered by type and the handler of every concrete class is resolved once
+ * and cached in a {@link ClassValue}. A dispatch is then one
+ * {@code getClass()}, one {@code ClassValue} lookup and one (megamorphic) call -
+ * the same cost for 2 or 200 types, while a chain makes (on average) half as
+ * many {@code instanceof} tests as it has branches. The tests are cheap, though,
+ * so a chain stays faster for a few dozen types (see
+ * {@link TypeDispatchBenchmark}); the dispatcher pays off with many types, or
+ * when the handlers are registered by code that doesn't know about the
+ * others.<br>
+ * <br>
+ * A class without its own handler gets the handler of its most specific
+ * registered supertype (class or interface). When several registered types are
+ * equally specific (e.g. two unrelated interfaces), the one registered first
+ * wins - like in a chain, where the first matching {@code instanceof} wins.
+ * {@code null} and the objects without any matching type go to the fallback.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ * @param <R> the type of the result of the handlers
+ */
+public final class TypeDispatcher<R> {
+  private final Map<Class<?>, Function<Object, ? extends R>> handlers;
+  private final Function<Object, ? extends R> fallback;
+  private final ClassValue<Function<Object, ? extends R>> resolved = new ClassValue<>() {
+    @Override
+    protected Function<Object, ? extends R> computeValue(Class<?> type) {
+      return resolve(type);
+    }
+  };
+
+  private TypeDispatcher(Map<Class<?>, Function<Object, ? extends R>> handlers,
+      Function<Object, ? extends R> fallback) {
+    this.handlers = handlers;
+    this.fallback = fallback;
+  }
+
+  /**
+   * @param <R> the type of the result of the handlers
+   * @return a new builder
+   */
+  public static <R> Builder<R> builder() {
+    return new Builder<>();
+  }
+
+  /**
+   * @param object the object to handle
+   * @return the result of the handler of the object's class
+   */
+  public R dispatch(Object object) {
+    if (object == null)
+      return fallback.apply(null);
+    return resolved.get(object.getClass()).apply(object);
+  }
+
+  /**
+   * @param type a class
+   * @return the type whose handler is used for the class, {@code null} for the
+   *         fallback
+   */
+  public Class<?> handledAs(Class<?> type) {
+    return mostSpecific(type);
+  }
+
+  private Function<Object, ? extends R> resolve(Class<?> type) {
+    Class<?> handledType = mostSpecific(type);
+    return handledType == null ? fallback : handlers.get(handledType);
+  }
+
+  private Class<?> mostSpecific(Class<?> type) {
+    // all the matching types, in the order of registration
+    List<Class<?>> candidates = new ArrayList<>();
+    for (Class<?> candidate : handlers.keySet()) {
+      if (candidate.isAssignableFrom(type))
+        candidates.add(candidate);
+    }
+    // the first one that isn't a supertype of another one: a greedy scan
+    // would depend on the order (e.g. B, A, C for C extends B and A)
+    for (Class<?> candidate : candidates) {
+      boolean mostSpecific = true;
+      for (Class<?> other : candidates) {
+        if (other != candidate && candidate.isAssignableFrom(other)) {
+          mostSpecific = false;
+          break;
+        }
+      }
+      if (mostSpecific)
+        return candidate;
+    }
+    return null;
+  }
+
+  /**
+   * Registers the handlers (in the order that settles the ties).
+   *
+   * @param <R> the type of the result of the handlers
+   */
+  public static final class Builder<R> {
+    private final Map<Class<?>, Function<Object, ? extends R>> handlers = new LinkedHashMap<>();
+
+    private Builder() {
+    }
+
+    /**
+     * @param <T>     the handled type
+     * @param type    the handled type (and its subtypes without a more specific
+     *                handler)
+     * @param handler the handler
+     * @return this builder
+     * @throws IllegalArgumentException if the type already has a handler
+     */
+    public <T> Builder<R> on(Class<T> type, Function<? super T, ? extends R> handler) {
+      if (handlers.containsKey(type))
+        throw new IllegalArgumentException("There is already a handler for " + type.getName());
+      // only ever applied to instances of the type (see resolve), so no cast
+      // (and no wrapper, one megamorphic call less per dispatch)
+      @SuppressWarnings("unchecked")
+      Function<Object, ? extends R> unchecked = (Function<Object, ? extends R>) handler;
+      handlers.put(type, unchecked);
+      return this;
+    }
+
+    /**
+     * @param fallback the handler of {@code null} and of the objects without
+     *                 any matching type
+     * @return the dispatcher
+     */
+    public TypeDispatcher<R> otherwise(Function<Object, ? extends R> fallback) {
+      return new TypeDispatcher<>(new LinkedHashMap<>(handlers), fallback);
+    }
+
+    /**
+     * @return the dispatcher, throwing an {@link IllegalArgumentException} for
+     *         the objects without any matching type (and for {@code null})
+     */
+    public TypeDispatcher<R> build() {
+      return otherwise(object -> {
+        throw new IllegalArgumentException(
+            "No handler for " + (object == null ? "null" : object.getClass().getName()));
+      });
+    }
+  }
+}
@@ -0,0 +1,321 @@
+package com.github.kbnt.java14.records;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread safe string interning dictionary for names: every distinct name
+ * gets a stable int id (0, 1, 2...) and one canonical {@code String} instance.
+ * Persons built with the canonical names share them, which saves heap and
+ * turns most name comparisons into reference comparisons.<br>
+ * <br>
+ * The UTF-8 bytes of the names, their offsets and the open-addressing hash
+ * index live off-heap. Unlike {@link NameDictionary}, the dictionary is shared
+ * by many threads, and the memory segments of the incubating Foreign-Memory
+ * Access API are confined to their owner thread - so we use direct
+ * {@link ByteBuffer}s instead (they show up in
+ * {@code NativeMemoryTracker.getDirectBufferBytes()}).<br>
+ * <br>
+ * Lookups of known names are lock-free: a volatile read of the current table
+ * and acquire reads of the index slots. Adding a name takes a lock, writes the
+ * bytes, the offset and the canonical instance and then publishes the slot
+ * with a release write. When the table is full, a bigger copy is built and
+ * published (ids don't change); readers still holding the old one either find
+ * their name there or fall back to the locked path.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class ConcurrentNameInterner {
+  public static final int NULL_ID = NameDictionary.NULL_ID;
+
+  private static final VarHandle SLOT_HANDLE = MethodHandles.byteBufferViewVarHandle(long[].class,
+      ByteOrder.nativeOrder());
+
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private final LongAdder lookups = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private volatile Table table;
+  private volatile int size;
+  private volatile int utf8Bytes;
+
+  public ConcurrentNameInterner() {
+    this(1024, 16 * 1024);
+  }
+
+  /**
+   * @param expectedNames     the expected number of distinct names
+   * @param expectedUtf8Bytes the expected size of all the distinct names
+   */
+  public ConcurrentNameInterner(int expectedNames, int expectedUtf8Bytes) {
+    table = new Table(Math.max(16, Integer.highestOneBit(Math.max(1, expectedNames - 1)) << 2), expectedNames + 1,
+        Math.max(1024, expectedUtf8Bytes));
+  }
+
+  /**
+   * @param name the name to encode
+   * @return the id of the name (a new one if the name was not seen before) or
+   *         {@link #NULL_ID}
+   */
+  public int intern(String name) {
+    if (name == null)
+      return NULL_ID;
+    lookups.increment();
+
+    // ASCII names (most of them) are hashed and compared without encoding them
+    int hash = 0x811C9DC5;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c >= 0x80)
+        return intern(name.getBytes(StandardCharsets.UTF_8), name);
+      hash = (hash ^ c) * 0x01000193;
+    }
+    hash = mix(hash);
+    int id = table.find(name, hash);
+    return id != NULL_ID ? id : add(name.getBytes(StandardCharsets.ISO_8859_1), 0, name.length(), name, hash);
+  }
+
+  /**
+   * @param utf8   the encoded name
+   * @param offset the start of the name in {@code utf8}
+   * @param length the number of bytes of the name
+   * @return the id of the name (a new one if the name was not seen before)
+   */
+  public int intern(byte[] utf8, int offset, int length) {
+    lookups.increment();
+    int hash = hash(utf8, offset, length);
+    int id = table.find(utf8, offset, length, hash);
+    return id != NULL_ID ? id : add(utf8, offset, length, null, hash);
+  }
+
+  /**
+   * @param name a name
+   * @return the canonical instance equal to {@code name}
+   */
+  public String canonical(String name) {
+    return name(intern(name));
+  }
+
+  /**
+   * @param utf8   the encoded name
+   * @param offset the start of the name in {@code utf8}
+   * @param length the number of bytes of the name
+   * @return the canonical instance of the name (decoded only the first time)
+   */
+  public String canonical(byte[] utf8, int offset, int length) {
+    return name(intern(utf8, offset, length));
+  }
+
+  /**
+   * @param id an id returned by one of the {@code intern} methods
+   * @return the canonical name
+   */
+  public String name(int id) {
+    return id == NULL_ID ? null : table.names[id];
+  }
+
+  /**
+   * @return the number of distinct names
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of off-heap bytes taken by the UTF-8 names
+   */
+  public long utf8Bytes() {
+    return utf8Bytes;
+  }
+
+  /**
+   * @return the off-heap bytes reserved (names, offsets and index)
+   */
+  public long offHeapBytes() {
+    Table current = table;
+    return current.utf8.capacity() + current.offsets.capacity() + current.index.capacity();
+  }
+
+  /**
+   * @return the number of calls to the {@code intern} (and {@code canonical})
+   *         methods with a non-null name
+   */
+  public long lookups() {
+    return lookups.sum();
+  }
+
+  /**
+   * @return the number of lookups that found the name already interned
+   */
+  public long hits() {
+    return lookups.sum() - misses.sum();
+  }
+
+  /**
+   * @return the ratio of lookups that found the name already interned
+   */
+  public double hitRate() {
+    long total = lookups.sum();
+    return total == 0 ? 0 : (double) (total - misses.sum()) / total;
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrentNameInterner [size=" + size + ", lookups=" + lookups() + ", hitRate=" + hitRate()
+        + ", utf8Bytes=" + utf8Bytes + ", offHeapBytes=" + offHeapBytes() + "]";
+  }
+
+  private int intern(byte[] utf8, String name) {
+    int hash = hash(utf8, 0, utf8.length);
+    int id = table.find(utf8, 0, utf8.length, hash);
+    return id != NULL_ID ? id : add(utf8, 0, utf8.length, name, hash);
+  }
+
+  private int add(byte[] utf8, int offset, int length, String name, int hash) {
+    writeLock.lock();
+    try {
+      // another thread may have added it in the meantime
+      Table current = table;
+      int id = current.find(utf8, offset, length, hash);
+      if (id != NULL_ID)
+        return id;
+
+      misses.increment();
+      id = size;
+      current = ensureCapacity(current, id, length);
+      for (int i = 0; i < length; i++)
+        current.utf8.put(current.used + i, utf8[offset + i]);
+      current.used += length;
+      current.offsets.putInt((id + 1) * Integer.BYTES, current.used);
+      current.names[id] = name != null ? name : new String(utf8, offset, length, StandardCharsets.UTF_8);
+      current.insert(hash, id);
+
+      utf8Bytes = current.used;
+      size = id + 1;
+      return id;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private Table ensureCapacity(Table current, int id, int length) {
+    int slots = current.mask + 1;
+    int maxNames = current.names.length;
+    int capacity = current.utf8.capacity();
+    if ((id + 1) * 2 <= slots && id + 1 < maxNames && current.used + length <= capacity)
+      return current;
+
+    while ((id + 1) * 2 > slots)
+      slots *= 2;
+    while (id + 1 >= maxNames)
+      maxNames *= 2;
+    while (current.used + length > capacity)
+      capacity *= 2;
+
+    Table grown = new Table(slots, maxNames, capacity);
+    for (int i = 0; i < current.used; i++)
+      grown.utf8.put(i, current.utf8.get(i));
+    grown.used = current.used;
+    for (int i = 0; i <= id; i++)
+      grown.offsets.putInt(i * Integer.BYTES, current.offsets.getInt(i * Integer.BYTES));
+    System.arraycopy(current.names, 0, grown.names, 0, id);
+    for (int slot = 0; slot <= current.mask; slot++) {
+      long entry = (long) SLOT_HANDLE.get(current.index, slot * Long.BYTES);
+      if (entry != 0)
+        grown.insert((int) (entry >>> 32), (int) entry - 1);
+    }
+    table = grown;
+    return grown;
+  }
+
+  private static int hash(byte[] utf8, int offset, int length) {
+    int hash = 0x811C9DC5;
+    for (int i = offset; i < offset + length; i++)
+      hash = (hash ^ (utf8[i] & 0xFF)) * 0x01000193;
+    return mix(hash);
+  }
+
+  private static int mix(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static ByteBuffer allocate(int bytes, int alignment) {
+    return ByteBuffer.allocateDirect(bytes + alignment - 1).alignedSlice(alignment).order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * One generation of the dictionary. The slots of the index are
+   * {@code hash << 32 | (id + 1)}, 0 meaning empty.
+   */
+  private static final class Table {
+    private final ByteBuffer index;
+    private final int mask;
+    private final ByteBuffer offsets;
+    private final ByteBuffer utf8;
+    private final String[] names;
+    private int used;
+
+    private Table(int slots, int maxNames, int utf8Capacity) {
+      index = allocate(slots * Long.BYTES, Long.BYTES);
+      mask = slots - 1;
+      offsets = allocate((maxNames + 1) * Integer.BYTES, Integer.BYTES);
+      utf8 = allocate(utf8Capacity, 1);
+      names = new String[maxNames];
+    }
+
+    private int find(byte[] bytes, int offset, int length, int hash) {
+      for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+        long entry = (long) SLOT_HANDLE.getAcquire(index, slot * Long.BYTES);
+        if (entry == 0)
+          return NULL_ID;
+        if ((int) (entry >>> 32) == hash) {
+          int id = (int) entry - 1;
+          int start = offsets.getInt(id * Integer.BYTES);
+          if (offsets.getInt((id + 1) * Integer.BYTES) - start == length && sameBytes(start, bytes, offset, length))
+            return id;
+        }
+      }
+    }
+
+    private int find(String ascii, int hash) {
+      int length = ascii.length();
+      for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+        long entry = (long) SLOT_HANDLE.getAcquire(index, slot * Long.BYTES);
+        if (entry == 0)
+          return NULL_ID;
+        if ((int) (entry >>> 32) == hash) {
+          int id = (int) entry - 1;
+          int start = offsets.getInt(id * Integer.BYTES);
+          if (offsets.getInt((id + 1) * Integer.BYTES) - start == length && sameChars(start, ascii))
+            return id;
+        }
+      }
+    }
+
+    private boolean sameBytes(int start, byte[] bytes, int offset, int length) {
+      for (int i = 0; i < length; i++)
+        if (utf8.get(start + i) != bytes[offset + i])
+          return false;
+      return true;
+    }
+
+    private boolean sameChars(int start, String ascii) {
+      for (int i = 0; i < ascii.length(); i++)
+        if (utf8.get(start + i) != ascii.charAt(i))
+          return false;
+      return true;
+    }
+
+    private void insert(int hash, int id) {
+      int slot = hash & mask;
+      while ((long) SLOT_HANDLE.get(index, slot * Long.BYTES) != 0)
+        slot = (slot + 1) & mask;
+      SLOT_HANDLE.setRelease(index, slot * Long.BYTES, (long) hash << 32 | (id + 1));
+    }
+  }
+}
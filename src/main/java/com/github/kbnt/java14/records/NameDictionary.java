@@ -0,0 +1,236 @@
+package com.github.kbnt.java14.records;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemoryHandles;
+import jdk.incubator.foreign.MemorySegment;
+
+import com.github.kbnt.java14.fma.NativeMemoryTracker;
+import com.github.kbnt.java14.fma.NativeMemoryTracker.TrackedSegment;
+
+/**
+ * Maps names to dense int ids (0, 1, 2...) and back. The UTF-8 bytes of the
+ * names live off-heap, one after another, in a segment that doubles when full.
+ * The heap only keeps the offsets, an open-addressing index of the ids (hashed
+ * and compared on the off-heap bytes, no {@code String} kept for that) and a
+ * small cache of the names decoded recently - so the footprint of the heap
+ * doesn't grow with the length of the names.<br>
+ * <br>
+ * {@code null} is encoded as the id {@code -1}. Like any memory segment, the
+ * dictionary is confined to the thread that created it.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class NameDictionary implements AutoCloseable {
+  public static final int NULL_ID = -1;
+
+  private static final VarHandle BYTE_HANDLE = MemoryHandles
+      .withStride(MemoryHandles.varHandle(byte.class, ByteOrder.nativeOrder()), 1);
+  // direct-mapped by id: the names decoded recently
+  private static final int DECODED_CACHE_SIZE = 1024;
+
+  // id + 1 (0 for an empty slot), at most half full
+  private int[] index = new int[2048];
+  private long[] offsets = new long[1025];
+  private final String[] decoded = new String[DECODED_CACHE_SIZE];
+  private final int[] decodedIds = new int[DECODED_CACHE_SIZE];
+  private int size;
+  private TrackedSegment bytes;
+  private long used;
+
+  public NameDictionary() {
+    bytes = NativeMemoryTracker.getInstance().allocateNative(64 * 1024);
+    Arrays.fill(decodedIds, NULL_ID);
+  }
+
+  /**
+   * @param name the name to encode
+   * @return the id of the name (a new one if the name was not seen before)
+   */
+  public int intern(String name) {
+    if (name == null)
+      return NULL_ID;
+    int id = idOf(name);
+    if (id != NULL_ID)
+      return id;
+
+    byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+    ensureCapacity(utf8.length);
+    try (MemorySegment source = MemorySegment.ofArray(utf8)) {
+      MemoryAddress.copy(source.baseAddress(), bytes.segment().baseAddress().addOffset(used), utf8.length);
+    }
+
+    int newId = size++;
+    used += utf8.length;
+    offsets[size] = used;
+    insert(hash(offsets[newId], utf8.length), newId);
+    return newId;
+  }
+
+  /**
+   * @param name the name to look up
+   * @return the id of the name or {@link #NULL_ID} if the name is not known
+   */
+  public int idOf(String name) {
+    if (name == null)
+      return NULL_ID;
+    // ASCII names (most of them) are hashed and compared without encoding them
+    int hash = 0x811C9DC5;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c >= 0x80)
+        return find(name.getBytes(StandardCharsets.UTF_8));
+      hash = (hash ^ c) * 0x01000193;
+    }
+    hash = mix(hash);
+    MemoryAddress base = bytes.segment().baseAddress();
+    int mask = index.length - 1;
+    for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+      int id = index[slot] - 1;
+      if (id == NULL_ID)
+        return NULL_ID;
+      if (offsets[id + 1] - offsets[id] == name.length() && sameChars(base, offsets[id], name))
+        return id;
+    }
+  }
+
+  /**
+   * @param id an id returned by {@link #intern(String)}
+   * @return the name (decoded from the off-heap bytes, unless it was decoded
+   *         recently)
+   * @throws IndexOutOfBoundsException if no name has that id
+   */
+  public String name(int id) {
+    if (id == NULL_ID)
+      return null;
+    if (id < 0 || id >= size)
+      throw new IndexOutOfBoundsException("Id " + id + " out of bounds for size " + size);
+    int entry = id & (DECODED_CACHE_SIZE - 1);
+    if (decodedIds[entry] == id)
+      return decoded[entry];
+
+    int length = (int) (offsets[id + 1] - offsets[id]);
+    byte[] utf8 = new byte[length];
+    try (MemorySegment target = MemorySegment.ofArray(utf8)) {
+      MemoryAddress.copy(bytes.segment().baseAddress().addOffset(offsets[id]), target.baseAddress(), length);
+    }
+    String name = new String(utf8, StandardCharsets.UTF_8);
+    decoded[entry] = name;
+    decodedIds[entry] = id;
+    return name;
+  }
+
+  /**
+   * Decodes all the names. Useful to hand them over to other threads (the
+   * dictionary itself is confined to its owner thread).
+   *
+   * @return the names indexed by their ids
+   */
+  public String[] snapshot() {
+    String[] names = new String[size];
+    for (int id = 0; id < size; id++)
+      names[id] = name(id);
+    return names;
+  }
+
+  /**
+   * @return the number of distinct names
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of off-heap bytes taken by the UTF-8 names
+   */
+  public long utf8Bytes() {
+    return used;
+  }
+
+  @Override
+  public void close() {
+    bytes.close();
+  }
+
+  private void ensureCapacity(int length) {
+    if (size + 1 == offsets.length)
+      offsets = Arrays.copyOf(offsets, (offsets.length - 1) * 2 + 1);
+    if ((size + 1) * 2 > index.length)
+      rehash(index.length * 2);
+
+    long capacity = bytes.byteSize();
+    if (used + length <= capacity)
+      return;
+    while (used + length > capacity)
+      capacity *= 2;
+    TrackedSegment grown = NativeMemoryTracker.getInstance().allocateNative(capacity);
+    MemoryAddress.copy(bytes.segment().baseAddress(), grown.segment().baseAddress(), used);
+    bytes.close();
+    bytes = grown;
+  }
+
+  private void rehash(int slots) {
+    index = new int[slots];
+    for (int id = 0; id < size; id++)
+      insert(hash(offsets[id], (int) (offsets[id + 1] - offsets[id])), id);
+  }
+
+  private void insert(int hash, int id) {
+    int mask = index.length - 1;
+    int slot = hash & mask;
+    while (index[slot] != 0)
+      slot = (slot + 1) & mask;
+    index[slot] = id + 1;
+  }
+
+  private int find(byte[] utf8) {
+    int hash = 0x811C9DC5;
+    for (byte b : utf8)
+      hash = (hash ^ (b & 0xFF)) * 0x01000193;
+    hash = mix(hash);
+    MemoryAddress base = bytes.segment().baseAddress();
+    int mask = index.length - 1;
+    for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+      int id = index[slot] - 1;
+      if (id == NULL_ID)
+        return NULL_ID;
+      if (offsets[id + 1] - offsets[id] == utf8.length && sameBytes(base, offsets[id], utf8))
+        return id;
+    }
+  }
+
+  /**
+   * @return the hash of off-heap bytes (the same as the hash of the
+   *         {@code String} or {@code byte[]} of the name on lookup)
+   */
+  private int hash(long offset, int length) {
+    MemoryAddress base = bytes.segment().baseAddress();
+    int hash = 0x811C9DC5;
+    for (long i = offset; i < offset + length; i++)
+      hash = (hash ^ ((byte) BYTE_HANDLE.get(base, i) & 0xFF)) * 0x01000193;
+    return mix(hash);
+  }
+
+  private static int mix(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean sameBytes(MemoryAddress base, long offset, byte[] utf8) {
+    for (int i = 0; i < utf8.length; i++)
+      if ((byte) BYTE_HANDLE.get(base, offset + i) != utf8[i])
+        return false;
+    return true;
+  }
+
+  private static boolean sameChars(MemoryAddress base, long offset, String ascii) {
+    for (int i = 0; i < ascii.length(); i++)
+      if ((byte) BYTE_HANDLE.get(base, offset + i) != ascii.charAt(i))
+        return false;
+    return true;
+  }
+}
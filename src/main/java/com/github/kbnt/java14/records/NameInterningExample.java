@@ -0,0 +1,114 @@
+package com.github.kbnt.java14.records;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Shows what the {@link ConcurrentNameInterner} brings to persons whose names
+ * repeat (as in most real data):
+ * <ul>
+ * <li>the heap taken by persons with their own {@code String}s versus persons
+ * sharing the canonical ones;
+ * <li>the time spent comparing the names of those persons;
+ * <li>several threads interning the same names concurrently, with the hit rate
+ * and the memory of the dictionary.
+ * </ul>
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class NameInterningExample {
+  private static final int PERSONS = 5000000;
+
+  public static void main(String[] args) {
+    try {
+      NameInterningExample nie = new NameInterningExample();
+      nie.example00HeapAndEquals();
+      nie.example01ConcurrentInterning();
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with one of our examples:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  private static long usedHeap() {
+    System.gc();
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private static long countSameNames(List<Person> persons) {
+    long start = System.currentTimeMillis();
+    long same = 0;
+    for (int i = 0; i < persons.size(); i++) {
+      // every 100000 persons the names repeat: equal content, but are they the
+      // same instances?
+      Person person = persons.get(i);
+      Person other = persons.get((i + 100000) % persons.size());
+      if (person.firstName().equals(other.firstName()) && person.lastName().equals(other.lastName()))
+        same++;
+    }
+    System.out.println("  " + same + " pairs with the same names found in " + (System.currentTimeMillis() - start)
+        + " milliseconds.");
+    return same;
+  }
+
+  public void example00HeapAndEquals() {
+    insertExampleSeparator();
+
+    long before = usedHeap();
+    List<Person> persons = new ArrayList<>(PERSONS);
+    for (int i = 0; i < PERSONS; i++)
+      persons.add(new PersonRecord("First" + (i % 200), "Last" + (i % 500), i % 100));
+    System.out.println("Own names: about " + (usedHeap() - before) / PERSONS + " heap bytes per person.");
+    countSameNames(persons);
+
+    persons = null;
+    ConcurrentNameInterner interner = new ConcurrentNameInterner();
+    before = usedHeap();
+    persons = new ArrayList<>(PERSONS);
+    for (int i = 0; i < PERSONS; i++)
+      persons.add(new PersonRecord(interner.canonical("First" + (i % 200)), interner.canonical("Last" + (i % 500)),
+          i % 100));
+    System.out.println("Canonical names: about " + (usedHeap() - before) / PERSONS + " heap bytes per person.");
+    countSameNames(persons);
+    System.out.println("  " + interner);
+  }
+
+  public void example01ConcurrentInterning() throws Exception {
+    insertExampleSeparator();
+
+    int threads = Runtime.getRuntime().availableProcessors();
+    ConcurrentNameInterner interner = new ConcurrentNameInterner();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      long start = System.currentTimeMillis();
+      List<Future<?>> tasks = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        int seed = t;
+        tasks.add(executor.submit(() -> {
+          for (int i = 0; i < PERSONS / threads; i++) {
+            // the same 50000 names, in a different order for every thread
+            String name = "Name" + ((i + seed * 12345) % 50000);
+            if (!interner.canonical(name).equals(name))
+              throw new IllegalStateException("Wrong canonical name for " + name);
+          }
+        }));
+      }
+      for (Future<?> task : tasks)
+        task.get();
+      System.out.println(threads + " thread(s) interned " + interner.lookups() + " names in "
+          + (System.currentTimeMillis() - start) + " milliseconds.");
+      System.out.println(interner);
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
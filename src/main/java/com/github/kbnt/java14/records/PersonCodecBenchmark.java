@@ -0,0 +1,117 @@
+package com.github.kbnt.java14.records;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the {@link PersonCodec} with the Java serialization of
+ * {@link DesperatesDeveloperPerson} (both encode and decode the same persons).
+ * For each approach we print the bytes per record and the records per second.
+ * This is a plain main() based measurement, so only the order of magnitude is
+ * meaningful.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class PersonCodecBenchmark {
+  private static final int PERSONS = 1000000;
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) {
+    try {
+      PersonCodecBenchmark pcb = new PersonCodecBenchmark();
+      List<PersonRecord> persons = new ArrayList<>(PERSONS);
+      for (int i = 0; i < PERSONS; i++)
+        persons.add(new PersonRecord("First" + (i % 1000), "Last" + (i / 1000), i % 100));
+
+      pcb.benchmarkCodec(persons, false);
+      pcb.benchmarkCodec(persons, true);
+      pcb.benchmarkJavaSerialization(persons);
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with the benchmark:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  private void benchmarkCodec(List<PersonRecord> persons, boolean direct) {
+    insertExampleSeparator();
+    System.out.println("PersonCodec (" + (direct ? "direct" : "heap") + " buffer):");
+
+    PersonCodec codec = new PersonCodec();
+    int size = 5;
+    for (Person p : persons)
+      size += codec.encodedSize(p);
+    ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+
+    for (int round = 0; round < ROUNDS; round++) {
+      buffer.clear();
+      long start = System.nanoTime();
+      codec.encodeAll(persons, buffer);
+      long encoding = System.nanoTime() - start;
+
+      buffer.flip();
+      start = System.nanoTime();
+      List<PersonRecord> decoded = codec.decodeAll(buffer, PersonRecord::new);
+      long decoding = System.nanoTime() - start;
+
+      report(round, decoded.size(), buffer.limit(), encoding, decoding);
+    }
+  }
+
+  private void benchmarkJavaSerialization(List<PersonRecord> persons) throws IOException, ClassNotFoundException {
+    insertExampleSeparator();
+    System.out.println("Java serialization (DesperatesDeveloperPerson):");
+
+    List<DesperatesDeveloperPerson> serializables = new ArrayList<>(persons.size());
+    for (Person p : persons) {
+      DesperatesDeveloperPerson ddp = new DesperatesDeveloperPerson();
+      ddp.firstName = p.firstName();
+      ddp.lastName = p.lastName();
+      ddp.age = p.age();
+      serializables.add(ddp);
+    }
+
+    for (int round = 0; round < ROUNDS; round++) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      long start = System.nanoTime();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+        out.writeInt(serializables.size());
+        for (DesperatesDeveloperPerson ddp : serializables) {
+          // writeUnshared only concerns the person itself: its strings are
+          // still written once per instance and back-referenced afterwards -
+          // here every person has its own name instances (built by
+          // concatenation), so no name is shared
+          out.writeUnshared(ddp);
+        }
+      }
+      long encoding = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      int count;
+      try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+        count = in.readInt();
+        for (int i = 0; i < count; i++)
+          in.readUnshared();
+      }
+      long decoding = System.nanoTime() - start;
+
+      report(round, count, bytes.size(), encoding, decoding);
+    }
+  }
+
+  private void report(int round, int records, long bytes, long encodingNanos, long decodingNanos) {
+    System.out.println("Round " + round + ": " + (double) bytes / records + " bytes/record, encode "
+        + (long) (records * 1e9 / encodingNanos) + " records/sec, decode " + (long) (records * 1e9 / decodingNanos)
+        + " records/sec.");
+  }
+}
@@ -0,0 +1,369 @@
+package com.github.kbnt.java14.records;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemoryHandles;
+import jdk.incubator.foreign.MemorySegment;
+
+import com.github.kbnt.java14.fma.NativeMemoryTracker;
+import com.github.kbnt.java14.fma.NativeMemoryTracker.TrackedSegment;
+
+/**
+ * Loads persons from delimited files ({@code firstName,lastName,age} - one per
+ * line, UTF-8, no quoting) without {@code BufferedReader} and
+ * {@code String.split}. The file is memory-mapped and tokenized in place:
+ * <ul>
+ * <li>the age is parsed directly from the bytes (from 0 to {@value #MAX_AGE},
+ * the other ages are rejected with their line number);
+ * <li>the names are decoded through a small cache keyed by their bytes, so a
+ * name that repeats (and they do repeat!) is usually not decoded again;
+ * <li>the only objects created per line are the persons handed to the
+ * consumer - and not even those when ingesting into a {@link PersonStore}.
+ * </ul>
+ * For parallel ingestion, the file is cut into parts of roughly equal size,
+ * each part boundary being moved to the next line start, and every part is
+ * parsed by its own thread (on its own acquired segment).
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class PersonCsvIngester {
+  public static final int MAX_AGE = 255;
+
+  private static final VarHandle BYTE_HANDLE = MemoryHandles
+      .withStride(MemoryHandles.varHandle(byte.class, ByteOrder.nativeOrder()), 1);
+  private static final int NAME_CACHE_SIZE = 4096;
+
+  private final byte delimiter;
+  private final boolean header;
+  private final ConcurrentNameInterner interner;
+
+  /**
+   * @param delimiter the field delimiter (an ASCII character)
+   * @param header    whether the first line is a header (skipped)
+   */
+  public PersonCsvIngester(char delimiter, boolean header) {
+    this(delimiter, header, null);
+  }
+
+  /**
+   * @param delimiter the field delimiter (an ASCII character)
+   * @param header    whether the first line is a header (skipped)
+   * @param interner  where the names not found in the cache of the parser are
+   *                  decoded - so all the persons (of all the threads) share
+   *                  the canonical names; {@code null} to decode them every
+   *                  time
+   */
+  public PersonCsvIngester(char delimiter, boolean header, ConcurrentNameInterner interner) {
+    if (delimiter >= 0x80 || delimiter == '\n' || delimiter == '\r')
+      throw new IllegalArgumentException("Unsupported delimiter: " + delimiter);
+    this.delimiter = (byte) delimiter;
+    this.header = header;
+    this.interner = interner;
+  }
+
+  /**
+   * Reads the persons in the calling thread.
+   *
+   * @param path     the file
+   * @param consumer receives a new (immutable) person for every line
+   * @return the number of persons read
+   * @throws IOException if the file cannot be mapped
+   */
+  public long ingest(Path path, Consumer<? super Person> consumer) throws IOException {
+    return ingest(path, (firstName, lastName, age) -> consumer.accept(new PersonRecord(firstName, lastName, age)));
+  }
+
+  /**
+   * Appends the persons to the store, in the calling thread (which must own
+   * the store). No person object is created.
+   *
+   * @param path  the file
+   * @param store the destination
+   * @return the number of persons read
+   * @throws IOException if the file cannot be mapped
+   */
+  public long ingest(Path path, PersonStore store) throws IOException {
+    MutablePerson person = new MutablePerson();
+    return ingest(path, (firstName, lastName, age) -> {
+      person.firstName = firstName;
+      person.lastName = lastName;
+      person.age = age;
+      store.append(person);
+    });
+  }
+
+  /**
+   * Reads the persons with several threads.
+   *
+   * @param path     the file
+   * @param threads  the number of threads (and parts)
+   * @param consumer receives a new person for every line; it is called
+   *                 concurrently, so it must be thread safe
+   * @return the number of persons read
+   * @throws IOException if the file cannot be mapped or any part fails (the
+   *                     other parts are stopped before, so the consumer isn't
+   *                     called anymore)
+   */
+  public long ingestParallel(Path path, int threads, Consumer<? super Person> consumer) throws IOException {
+    long size = Files.size(path);
+    if (size == 0)
+      return 0;
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try (TrackedSegment mapped = NativeMemoryTracker.getInstance().mapFromPath(path, size, MapMode.READ_ONLY)) {
+      MemorySegment segment = mapped.segment();
+      MemoryAddress base = segment.baseAddress();
+      long start = header ? skipLine(base, 0, size) : 0;
+
+      // cut the file in parts, each one starting at the beginning of a line
+      long[] boundaries = new long[threads + 1];
+      boundaries[0] = start;
+      for (int i = 1; i < threads; i++)
+        boundaries[i] = lineStart(base, Math.max(boundaries[i - 1], start + (size - start) * i / threads), size);
+      boundaries[threads] = size;
+
+      AtomicBoolean cancelled = new AtomicBoolean();
+      List<Future<Long>> parts = new ArrayList<>(threads);
+      for (int i = 0; i < threads; i++) {
+        long from = boundaries[i];
+        long to = boundaries[i + 1];
+        parts.add(executor.submit(() -> {
+          try (MemorySegment acquired = segment.acquire()) {
+            return new Parser(acquired.baseAddress()).parse(from, to, (firstName, lastName, age) -> {
+              if (cancelled.get())
+                throw new CancellationException();
+              consumer.accept(new PersonRecord(firstName, lastName, age));
+            });
+          }
+        }));
+      }
+
+      long rows = 0;
+      try {
+        for (Future<Long> part : parts)
+          rows += part.get();
+      } catch (InterruptedException | ExecutionException e) {
+        // stop the other parts before the segment is closed: they hold
+        // acquired segments (it couldn't be closed) and must not call the
+        // consumer once we have thrown
+        cancelled.set(true);
+        for (Future<Long> part : parts)
+          part.cancel(true);
+        shutdownAndWait(executor);
+        throw e;
+      }
+      return rows;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while ingesting " + path, e);
+    } catch (ExecutionException e) {
+      throw new IOException("Could not ingest " + path, e.getCause());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Interrupts the threads of the executor and waits for them to be done
+   * (keeping the interrupt status of the calling thread).
+   */
+  private static void shutdownAndWait(ExecutorService executor) {
+    executor.shutdownNow();
+    boolean interrupted = false;
+    while (true) {
+      try {
+        if (executor.awaitTermination(1, TimeUnit.MINUTES))
+          break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  private long ingest(Path path, RowHandler handler) throws IOException {
+    long size = Files.size(path);
+    if (size == 0)
+      return 0;
+
+    try (TrackedSegment mapped = NativeMemoryTracker.getInstance().mapFromPath(path, size, MapMode.READ_ONLY)) {
+      MemoryAddress base = mapped.segment().baseAddress();
+      long start = header ? skipLine(base, 0, size) : 0;
+      return new Parser(base).parse(start, size, handler);
+    }
+  }
+
+  /**
+   * @return the position after the first '\n' found from {@code position} on
+   *         (or {@code size})
+   */
+  private static long skipLine(MemoryAddress base, long position, long size) {
+    long p = position;
+    while (p < size && (byte) BYTE_HANDLE.get(base, p) != '\n')
+      p++;
+    return Math.min(p + 1, size);
+  }
+
+  /**
+   * @return the start of the first line beginning at {@code position} or after
+   *         it (a position that is already a line start stays as it is)
+   */
+  private static long lineStart(MemoryAddress base, long position, long size) {
+    return position == 0 ? 0 : skipLine(base, position - 1, size);
+  }
+
+  @FunctionalInterface
+  private interface RowHandler {
+    void row(String firstName, String lastName, int age);
+  }
+
+  private static final class MutablePerson implements Person {
+    private String firstName;
+    private String lastName;
+    private int age;
+
+    @Override
+    public String firstName() {
+      return firstName;
+    }
+
+    @Override
+    public String lastName() {
+      return lastName;
+    }
+
+    @Override
+    public int age() {
+      return age;
+    }
+  }
+
+  /**
+   * Parses the lines of one thread. Not thread safe (it keeps the name cache).
+   */
+  private final class Parser {
+    private final MemoryAddress base;
+    private final byte[][] cachedBytes = new byte[NAME_CACHE_SIZE][];
+    private final String[] cachedNames = new String[NAME_CACHE_SIZE];
+    private byte[] scratch = new byte[64];
+
+    private Parser(MemoryAddress base) {
+      this.base = base;
+    }
+
+    private long parse(long from, long to, RowHandler handler) {
+      long rows = 0;
+      long position = from;
+      while (position < to) {
+        byte b = (byte) BYTE_HANDLE.get(base, position);
+        if (b == '\n' || b == '\r') {
+          // empty line
+          position++;
+          continue;
+        }
+
+        long firstNameEnd = field(position, to);
+        String firstName = name(position, firstNameEnd);
+        long lastNameEnd = field(firstNameEnd + 1, to);
+        String lastName = name(firstNameEnd + 1, lastNameEnd);
+
+        // the age, straight from the bytes (checked as it goes, so it can't
+        // overflow)
+        long p = lastNameEnd + 1;
+        int age = 0;
+        int digits = 0;
+        while (p < to && (b = (byte) BYTE_HANDLE.get(base, p)) != '\n') {
+          if (b >= '0' && b <= '9') {
+            age = age * 10 + (b - '0');
+            digits++;
+            if (age > MAX_AGE)
+              throw new IllegalArgumentException(
+                  "Age above " + MAX_AGE + " at byte " + p + " (line " + lineNumber(p) + ")");
+          } else if (b != '\r') {
+            throw new IllegalArgumentException("Unexpected character '" + (char) b + "' in the age at byte " + p
+                + " (line " + lineNumber(p) + ")");
+          }
+          p++;
+        }
+        if (digits == 0)
+          throw new IllegalArgumentException("Missing age at byte " + p + " (line " + lineNumber(p) + ")");
+
+        handler.row(firstName, lastName, age);
+        rows++;
+        position = p + 1;
+      }
+      return rows;
+    }
+
+    /**
+     * @return the line (from 1) of a position, counted from the start of the
+     *         file - only for the error messages, a part doesn't know its
+     *         first line
+     */
+    private long lineNumber(long position) {
+      long line = 1;
+      for (long p = 0; p < position; p++)
+        if ((byte) BYTE_HANDLE.get(base, p) == '\n')
+          line++;
+      return line;
+    }
+
+    /**
+     * @return the position of the delimiter ending the field starting at
+     *         {@code from}
+     */
+    private long field(long from, long to) {
+      for (long p = from; p < to; p++) {
+        byte b = (byte) BYTE_HANDLE.get(base, p);
+        if (b == delimiter)
+          return p;
+        if (b == '\n')
+          break;
+      }
+      throw new IllegalArgumentException("Missing field delimiter in the line containing byte " + from);
+    }
+
+    private String name(long from, long to) {
+      int length = (int) (to - from);
+      if (scratch.length < length)
+        scratch = new byte[Math.max(length, scratch.length * 2)];
+      int hash = 0;
+      for (int i = 0; i < length; i++) {
+        byte b = (byte) BYTE_HANDLE.get(base, from + i);
+        scratch[i] = b;
+        hash = 31 * hash + b;
+      }
+
+      int slot = (hash ^ (hash >>> 16)) & (NAME_CACHE_SIZE - 1);
+      byte[] cached = cachedBytes[slot];
+      if (cached != null && cached.length == length && Arrays.equals(cached, 0, length, scratch, 0, length))
+        return cachedNames[slot];
+
+      String name = interner == null ? new String(scratch, 0, length, StandardCharsets.UTF_8)
+          : interner.canonical(scratch, 0, length);
+      cachedBytes[slot] = Arrays.copyOf(scratch, length);
+      cachedNames[slot] = name;
+      return name;
+    }
+  }
+}
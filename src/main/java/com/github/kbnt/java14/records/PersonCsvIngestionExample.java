@@ -0,0 +1,111 @@
+package com.github.kbnt.java14.records;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loads the same CSV file of persons in four ways:
+ * <ul>
+ * <li>the usual {@link BufferedReader#readLine()} + {@link String#split} +
+ * {@link Integer#parseInt};
+ * <li>the memory-mapped {@link PersonCsvIngester}, with one thread;
+ * <li>the {@link PersonCsvIngester}, with all the available processors;
+ * <li>the {@link PersonCsvIngester}, straight into a {@link PersonStore}.
+ * </ul>
+ * The file (about 200MB) is created in target/runtime the first time.<br>
+ * <br>
+ * <b>Note</b>: the ingester uses the Foreign-Memory Access API, so this
+ * example needs {@code --add-modules=jdk.incubator.foreign}.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class PersonCsvIngestionExample {
+  private static final int PERSONS = 10000000;
+  private static final Path CSV = Paths.get("target", "runtime", "persons.csv");
+
+  public static void main(String[] args) {
+    try {
+      PersonCsvIngestionExample pcie = new PersonCsvIngestionExample();
+      pcie.createFile();
+      pcie.example00BufferedReader();
+      pcie.example01Mapped();
+      pcie.example02MappedParallel();
+      pcie.example03MappedIntoStore();
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with one of our examples:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  private void createFile() throws IOException {
+    if (Files.exists(CSV))
+      return;
+    Files.createDirectories(CSV.getParent());
+    try (BufferedWriter writer = Files.newBufferedWriter(CSV, StandardCharsets.UTF_8)) {
+      writer.write("firstName,lastName,age\n");
+      for (int i = 0; i < PERSONS; i++) {
+        writer.write("First" + (i % 2000) + ",Last" + (i % 50000) + "," + (i * 31 % 100) + "\n");
+      }
+    }
+    System.out.println("Created " + CSV + " (" + Files.size(CSV) + " bytes).");
+  }
+
+  public void example00BufferedReader() throws IOException {
+    insertExampleSeparator();
+    long start = System.currentTimeMillis();
+    long rows = 0;
+    long ages = 0;
+    try (BufferedReader reader = Files.newBufferedReader(CSV, StandardCharsets.UTF_8)) {
+      reader.readLine();
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(",");
+        Person person = new PersonRecord(fields[0], fields[1], Integer.parseInt(fields[2]));
+        ages += person.age();
+        rows++;
+      }
+    }
+    System.out.println("BufferedReader: " + rows + " persons (average age " + (double) ages / rows + ") in "
+        + (System.currentTimeMillis() - start) + " milliseconds.");
+  }
+
+  public void example01Mapped() throws IOException {
+    insertExampleSeparator();
+    long start = System.currentTimeMillis();
+    long[] ages = new long[1];
+    long rows = new PersonCsvIngester(',', true).ingest(CSV, person -> ages[0] += person.age());
+    System.out.println("Mapped: " + rows + " persons (average age " + (double) ages[0] / rows + ") in "
+        + (System.currentTimeMillis() - start) + " milliseconds.");
+  }
+
+  public void example02MappedParallel() throws IOException {
+    insertExampleSeparator();
+    int threads = Runtime.getRuntime().availableProcessors();
+    long start = System.currentTimeMillis();
+    LongAdder ages = new LongAdder();
+    long rows = new PersonCsvIngester(',', true).ingestParallel(CSV, threads, person -> ages.add(person.age()));
+    System.out.println("Mapped, " + threads + " thread(s): " + rows + " persons (average age "
+        + ages.doubleValue() / rows + ") in " + (System.currentTimeMillis() - start) + " milliseconds.");
+  }
+
+  public void example03MappedIntoStore() throws IOException {
+    insertExampleSeparator();
+    try (PersonStore store = new PersonStore(PERSONS)) {
+      long start = System.currentTimeMillis();
+      long rows = new PersonCsvIngester(',', true).ingest(CSV, store);
+      System.out.println("Mapped into a store: " + rows + " persons (average age " + store.averageAge() + ") in "
+          + (System.currentTimeMillis() - start) + " milliseconds, " + store.byteSize() + " off-heap bytes.");
+    }
+  }
+}
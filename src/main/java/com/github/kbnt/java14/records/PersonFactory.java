@@ -0,0 +1,14 @@
+package com.github.kbnt.java14.records;
+
+/**
+ * Creates persons out of their components. Both {@code PersonClass::new} and
+ * {@code PersonRecord::new} fit here.
+ * 
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ * @param <T> the type of the created persons
+ */
+@FunctionalInterface
+public interface PersonFactory<T extends Person> {
+  public T create(String firstName, String lastName, int age);
+}
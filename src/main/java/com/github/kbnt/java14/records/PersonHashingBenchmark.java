@@ -0,0 +1,129 @@
+package com.github.kbnt.java14.records;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.SplittableRandom;
+
+/**
+ * A small (not JMH, so take the numbers as approximations) benchmark of
+ * {@code hashCode}/{@code equals} on a hit-heavy {@link HashMap} workload. It
+ * compares:
+ * <ul>
+ * <li>the IDE generated {@code Objects.hash(age, firstName, lastName)} (what
+ * {@link PersonClass} used to have);
+ * <li>the hand-written, allocation-free {@link PersonClass#hashCode()};
+ * <li>the record-generated methods of {@link PersonRecord}.
+ * </ul>
+ * Every lookup uses a different (but equal) instance than the key stored in the
+ * map, so both {@code hashCode} and {@code equals} are exercised. Besides the
+ * time, we print the bytes allocated per lookup by the benchmark thread.<br>
+ * <br>
+ * Run it with a fixed heap (e.g. {@code -Xms2g -Xmx2g}) to reduce the noise.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class PersonHashingBenchmark {
+  private static final int PERSONS = 1000000;
+  private static final int LOOKUPS = 20000000;
+  private static final int ROUNDS = 5;
+
+  /**
+   * The previous {@code PersonClass} implementation, kept here as a baseline.
+   */
+  private static final class ObjectsHashPerson implements Person {
+    private final String firstName;
+    private final String lastName;
+    private final int age;
+
+    private ObjectsHashPerson(String firstName, String lastName, int age) {
+      this.firstName = firstName;
+      this.lastName = lastName;
+      this.age = age;
+    }
+
+    @Override
+    public String firstName() {
+      return firstName;
+    }
+
+    @Override
+    public String lastName() {
+      return lastName;
+    }
+
+    @Override
+    public int age() {
+      return age;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(age, firstName, lastName);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (!(obj instanceof ObjectsHashPerson))
+        return false;
+      ObjectsHashPerson other = (ObjectsHashPerson) obj;
+      return age == other.age && Objects.equals(firstName, other.firstName) && Objects.equals(lastName, other.lastName);
+    }
+  }
+
+  public static void main(String[] args) {
+    try {
+      PersonHashingBenchmark phb = new PersonHashingBenchmark();
+      phb.benchmark("Objects.hash (previous PersonClass)", ObjectsHashPerson::new);
+      phb.benchmark("hand-written (PersonClass)", PersonClass::new);
+      phb.benchmark("record-generated (PersonRecord)", PersonRecord::new);
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with the benchmark:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  private void benchmark(String name, PersonFactory<?> factory) {
+    insertExampleSeparator();
+    System.out.println("Benchmarking " + name + "...");
+
+    HashMap<Person, Integer> map = new HashMap<>(PERSONS * 2);
+    Person[] probes = new Person[PERSONS];
+    for (int i = 0; i < PERSONS; i++) {
+      String firstName = "First" + (i % 1000);
+      String lastName = "Last" + (i / 1000);
+      map.put(factory.create(firstName, lastName, i % 100), i);
+      // equal, but not identical (including the strings)
+      probes[i] = factory.create(new String(firstName), new String(lastName), i % 100);
+    }
+
+    int[] order = new int[LOOKUPS];
+    SplittableRandom sr = new SplittableRandom(2342342);
+    for (int i = 0; i < LOOKUPS; i++)
+      order[i] = sr.nextInt(PERSONS);
+
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    for (int round = 0; round < ROUNDS; round++) {
+      long hits = 0;
+      long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      for (int i = 0; i < LOOKUPS; i++) {
+        if (map.get(probes[order[i]]) != null)
+          hits++;
+      }
+      long elapsed = System.nanoTime() - start;
+      long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+      System.out.println("Round " + round + ": " + hits + " hits in " + elapsed / 1000000 + " milliseconds ("
+          + (double) elapsed / LOOKUPS + " ns and " + (double) allocated / LOOKUPS + " bytes per lookup).");
+    }
+  }
+}
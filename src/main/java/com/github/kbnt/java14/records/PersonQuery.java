@@ -0,0 +1,563 @@
+package com.github.kbnt.java14.records;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.StreamSupport;
+
+/**
+ * A small query engine over large sets of persons. A query is a set of filters
+ * followed by one aggregation:
+ *
+ * <pre>
+ * long count = PersonQuery.from(store).whereAgeGreaterThan(30).parallel().count();
+ * long[] buckets = PersonQuery.from(list).whereLastName("Mouse").countByAgeBucket(10);
+ * List&lt;Person&gt; first = PersonQuery.from(store).whereAgeBetween(20, 29).topByName(10);
+ * </pre>
+ *
+ * The source is split in chunks of {@value #CHUNK_SIZE} persons by a
+ * {@link RangeSpliterator} (always into halves of equal size, so a parallel
+ * stream keeps all the cores busy). Every chunk is scanned into a partial
+ * result and the partial results are merged at the end.<br>
+ * <br>
+ * The filters on the age and on the names are <i>pushed down</i>: on a
+ * {@link PersonStore} they become comparisons of the primitive columns (the
+ * names are resolved to dictionary ids once, before the scan) and no
+ * {@link Person} is ever created. Only the filters given as a
+ * {@link Predicate} need a {@code Person} - for those, a reused flyweight is
+ * passed.<br>
+ * <br>
+ * A query over a {@link PersonStore} must be executed from the thread owning
+ * the store; the workers acquire the columns for themselves.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class PersonQuery {
+  public static final long CHUNK_SIZE = 64 * 1024;
+  public static final int MAX_AGE = 150;
+
+  /**
+   * Orders the persons by last name and then by first name ({@code null}
+   * first).
+   */
+  public static final Comparator<Person> BY_NAME = Comparator
+      .comparing(Person::lastName, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+      .thenComparing(Person::firstName, Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+
+  /**
+   * A range of person indexes, {@code [from, to)}.
+   */
+  public record Range(long from, long to) {
+  }
+
+  /**
+   * Splits {@code [from, to)} into chunks. A split always cuts the remaining
+   * chunks in two halves, so the work is evenly distributed.
+   */
+  public static final class RangeSpliterator implements Spliterator<Range> {
+    private long from;
+    private final long to;
+    private final long chunkSize;
+
+    public RangeSpliterator(long from, long to, long chunkSize) {
+      this.from = from;
+      this.to = to;
+      this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Range> action) {
+      if (from >= to)
+        return false;
+      long end = Math.min(to, from + chunkSize);
+      action.accept(new Range(from, end));
+      from = end;
+      return true;
+    }
+
+    @Override
+    public Spliterator<Range> trySplit() {
+      long chunks = estimateSize();
+      if (chunks < 2)
+        return null;
+      long middle = from + (chunks / 2) * chunkSize;
+      RangeSpliterator prefix = new RangeSpliterator(from, middle, chunkSize);
+      from = middle;
+      return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+      return (to - from + chunkSize - 1) / chunkSize;
+    }
+
+    @Override
+    public int characteristics() {
+      return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+  }
+
+  private final Source source;
+  private int minAge = Integer.MIN_VALUE;
+  private int maxAge = Integer.MAX_VALUE;
+  private String firstName;
+  private String lastName;
+  private Predicate<Person> predicate;
+  private boolean parallel;
+  private ForkJoinPool pool;
+
+  private PersonQuery(Source source) {
+    this.source = source;
+  }
+
+  /**
+   * @param persons the persons to query (a random access list, e.g.
+   *                {@link ArrayList})
+   * @return a new query
+   */
+  public static PersonQuery from(List<? extends Person> persons) {
+    return new PersonQuery(new ListSource(persons));
+  }
+
+  /**
+   * @param store the persons to query
+   * @return a new query
+   */
+  public static PersonQuery from(PersonStore store) {
+    return new PersonQuery(new StoreSource(store));
+  }
+
+  public PersonQuery whereAgeGreaterThan(int age) {
+    minAge = Math.max(minAge, age + 1);
+    return this;
+  }
+
+  public PersonQuery whereAgeLessThan(int age) {
+    maxAge = Math.min(maxAge, age - 1);
+    return this;
+  }
+
+  /**
+   * @param min the minimum age (inclusive)
+   * @param max the maximum age (inclusive)
+   * @return this query
+   */
+  public PersonQuery whereAgeBetween(int min, int max) {
+    minAge = Math.max(minAge, min);
+    maxAge = Math.min(maxAge, max);
+    return this;
+  }
+
+  public PersonQuery whereFirstName(String firstName) {
+    this.firstName = firstName;
+    return this;
+  }
+
+  public PersonQuery whereLastName(String lastName) {
+    this.lastName = lastName;
+    return this;
+  }
+
+  /**
+   * A filter that cannot be pushed down: it is evaluated for every person that
+   * passes the other filters.
+   *
+   * @param predicate the filter
+   * @return this query
+   */
+  public PersonQuery where(Predicate<? super Person> predicate) {
+    Predicate<Person> next = predicate::test;
+    this.predicate = this.predicate == null ? next : this.predicate.and(next);
+    return this;
+  }
+
+  public PersonQuery parallel() {
+    this.parallel = true;
+    return this;
+  }
+
+  /**
+   * Runs the parallel query in the given pool instead of the common one (e.g. to
+   * measure the scaling with the number of cores).
+   *
+   * @param pool the pool
+   * @return this query
+   */
+  public PersonQuery parallel(ForkJoinPool pool) {
+    this.parallel = true;
+    this.pool = pool;
+    return this;
+  }
+
+  public long count() {
+    return execute(0, 0).count;
+  }
+
+  public double averageAge() {
+    Partial result = execute(0, 0);
+    return result.count == 0 ? 0 : (double) result.sumOfAges / result.count;
+  }
+
+  /**
+   * @param bucketWidth the width of an age bucket (e.g. 10 for 0-9, 10-19...)
+   * @return the number of persons in each bucket (the ages above
+   *         {@value #MAX_AGE} go to the last bucket, the negative ones to the
+   *         first)
+   */
+  public long[] countByAgeBucket(int bucketWidth) {
+    if (bucketWidth <= 0)
+      throw new IllegalArgumentException("The bucket width must be positive: " + bucketWidth);
+    return execute(bucketWidth, 0).buckets;
+  }
+
+  /**
+   * @param k the number of persons to return
+   * @return the first {@code k} persons in the {@link #BY_NAME} order
+   */
+  public List<Person> topByName(int k) {
+    if (k <= 0)
+      throw new IllegalArgumentException("k must be positive: " + k);
+    Partial result = execute(0, k);
+    return source.top(result);
+  }
+
+  private Partial execute(int bucketWidth, int k) {
+    Scan scan = source.prepare(this, bucketWidth, k);
+    if (scan == null)
+      return source.newPartial(bucketWidth, k);
+
+    RangeSpliterator ranges = new RangeSpliterator(0, source.size(), CHUNK_SIZE);
+    if (pool == null || !parallel)
+      return reduce(scan, ranges, bucketWidth, k);
+    return pool.submit(() -> reduce(scan, ranges, bucketWidth, k)).join();
+  }
+
+  private Partial reduce(Scan scan, RangeSpliterator ranges, int bucketWidth, int k) {
+    return StreamSupport.stream(ranges, parallel).map(scan::scan).reduce(Partial::merge)
+        .orElseGet(() -> source.newPartial(bucketWidth, k));
+  }
+
+  private boolean ageMatches(int age) {
+    return age >= minAge && age <= maxAge;
+  }
+
+  private void countAge(Partial partial, int age) {
+    partial.count++;
+    partial.sumOfAges += age;
+    if (partial.buckets != null) {
+      int bucket = Math.max(0, Math.min(age, MAX_AGE)) / partial.bucketWidth;
+      partial.buckets[bucket]++;
+    }
+  }
+
+  /**
+   * Scans one chunk. Implementations are called concurrently.
+   */
+  @FunctionalInterface
+  private interface Scan {
+    Partial scan(Range range);
+  }
+
+  private interface Source {
+    long size();
+
+    /**
+     * Resolves what can be resolved before the scan.
+     *
+     * @return the scan or {@code null} if nothing can match
+     */
+    Scan prepare(PersonQuery query, int bucketWidth, int k);
+
+    Partial newPartial(int bucketWidth, int k);
+
+    List<Person> top(Partial result);
+  }
+
+  /**
+   * The partial result of a chunk (and, after merging, of the whole query).
+   */
+  private static final class Partial {
+    private final int bucketWidth;
+    private final int k;
+    private final long[] buckets;
+    private long count;
+    private long sumOfAges;
+    // top k candidates: either persons (lists) or packed (name ranks, index)
+    // pairs (stores)
+    private PriorityQueue<Person> topPersons;
+    private TopKHeap topRows;
+
+    private Partial(int bucketWidth, int k) {
+      this.bucketWidth = bucketWidth;
+      this.k = k;
+      this.buckets = bucketWidth > 0 ? new long[MAX_AGE / bucketWidth + 1] : null;
+    }
+
+    private Partial merge(Partial other) {
+      count += other.count;
+      sumOfAges += other.sumOfAges;
+      if (buckets != null) {
+        for (int i = 0; i < buckets.length; i++)
+          buckets[i] += other.buckets[i];
+      }
+      if (topPersons != null) {
+        for (Person p : other.topPersons)
+          offer(topPersons, p, k);
+      }
+      if (topRows != null)
+        topRows.merge(other.topRows);
+      return this;
+    }
+
+    private static void offer(PriorityQueue<Person> top, Person person, int k) {
+      if (top.size() < k) {
+        top.add(person);
+      } else if (BY_NAME.compare(person, top.peek()) < 0) {
+        top.poll();
+        top.add(person);
+      }
+    }
+  }
+
+  /**
+   * A bounded max-heap of (key, index) pairs kept in primitive arrays. It holds
+   * the {@code k} smallest keys seen so far.
+   */
+  private static final class TopKHeap {
+    private final long[] keys;
+    private final long[] indexes;
+    private int size;
+
+    private TopKHeap(int k) {
+      keys = new long[k];
+      indexes = new long[k];
+    }
+
+    private void offer(long key, long index) {
+      if (size < keys.length) {
+        int i = size++;
+        while (i > 0 && keys[(i - 1) / 2] < key) {
+          keys[i] = keys[(i - 1) / 2];
+          indexes[i] = indexes[(i - 1) / 2];
+          i = (i - 1) / 2;
+        }
+        keys[i] = key;
+        indexes[i] = index;
+      } else if (key < keys[0]) {
+        int i = 0;
+        while (true) {
+          int child = 2 * i + 1;
+          if (child >= size)
+            break;
+          if (child + 1 < size && keys[child + 1] > keys[child])
+            child++;
+          if (keys[child] <= key)
+            break;
+          keys[i] = keys[child];
+          indexes[i] = indexes[child];
+          i = child;
+        }
+        keys[i] = key;
+        indexes[i] = index;
+      }
+    }
+
+    private void merge(TopKHeap other) {
+      for (int i = 0; i < other.size; i++)
+        offer(other.keys[i], other.indexes[i]);
+    }
+
+    /**
+     * @return the indexes, ordered by their keys
+     */
+    private long[] sortedIndexes() {
+      Integer[] order = new Integer[size];
+      for (int i = 0; i < size; i++)
+        order[i] = i;
+      Arrays.sort(order, Comparator.comparingLong(i -> keys[i]));
+      long[] result = new long[size];
+      for (int i = 0; i < size; i++)
+        result[i] = indexes[order[i]];
+      return result;
+    }
+  }
+
+  /**
+   * A mutable person, passed to the predicates during the store scans.
+   */
+  private static final class MutablePerson implements Person {
+    private String firstName;
+    private String lastName;
+    private int age;
+
+    @Override
+    public String firstName() {
+      return firstName;
+    }
+
+    @Override
+    public String lastName() {
+      return lastName;
+    }
+
+    @Override
+    public int age() {
+      return age;
+    }
+  }
+
+  private static final class ListSource implements Source {
+    private final List<? extends Person> persons;
+
+    private ListSource(List<? extends Person> persons) {
+      this.persons = persons;
+    }
+
+    @Override
+    public long size() {
+      return persons.size();
+    }
+
+    @Override
+    public Scan prepare(PersonQuery query, int bucketWidth, int k) {
+      String firstName = query.firstName;
+      String lastName = query.lastName;
+      Predicate<Person> predicate = query.predicate;
+      return range -> {
+        Partial partial = newPartial(bucketWidth, k);
+        for (int i = (int) range.from(); i < range.to(); i++) {
+          Person p = persons.get(i);
+          int age = p.age();
+          if (!query.ageMatches(age))
+            continue;
+          if (firstName != null && !firstName.equals(p.firstName()))
+            continue;
+          if (lastName != null && !lastName.equals(p.lastName()))
+            continue;
+          if (predicate != null && !predicate.test(p))
+            continue;
+          query.countAge(partial, age);
+          if (k > 0)
+            Partial.offer(partial.topPersons, p, k);
+        }
+        return partial;
+      };
+    }
+
+    @Override
+    public Partial newPartial(int bucketWidth, int k) {
+      Partial partial = new Partial(bucketWidth, k);
+      if (k > 0)
+        partial.topPersons = new PriorityQueue<>(k, BY_NAME.reversed());
+      return partial;
+    }
+
+    @Override
+    public List<Person> top(Partial result) {
+      List<Person> top = new ArrayList<>(result.topPersons);
+      top.sort(BY_NAME);
+      return top;
+    }
+  }
+
+  private static final class StoreSource implements Source {
+    private final PersonStore store;
+    private String[] names;
+
+    private StoreSource(PersonStore store) {
+      this.store = store;
+    }
+
+    @Override
+    public long size() {
+      return store.size();
+    }
+
+    @Override
+    public Scan prepare(PersonQuery query, int bucketWidth, int k) {
+      NameDictionary dictionary = store.names();
+      // -2 stands for "any name"
+      int firstNameId = query.firstName == null ? -2 : dictionary.idOf(query.firstName);
+      int lastNameId = query.lastName == null ? -2 : dictionary.idOf(query.lastName);
+      if (firstNameId == NameDictionary.NULL_ID || lastNameId == NameDictionary.NULL_ID)
+        return null;
+
+      // the dictionary is confined to this thread, the workers get a copy
+      String[] names = dictionary.snapshot();
+      this.names = names;
+      int[] ranks = k > 0 ? ranks(names) : null;
+      Predicate<Person> predicate = query.predicate;
+
+      return range -> {
+        Partial partial = newPartial(bucketWidth, k);
+        MutablePerson person = predicate == null ? null : new MutablePerson();
+        try (PersonStore.Columns columns = store.acquireColumns()) {
+          for (long i = range.from(); i < range.to(); i++) {
+            int age = columns.age(i);
+            if (!query.ageMatches(age))
+              continue;
+            int first = columns.firstNameId(i);
+            if (firstNameId != -2 && first != firstNameId)
+              continue;
+            int last = columns.lastNameId(i);
+            if (lastNameId != -2 && last != lastNameId)
+              continue;
+            if (person != null) {
+              person.firstName = first == NameDictionary.NULL_ID ? null : names[first];
+              person.lastName = last == NameDictionary.NULL_ID ? null : names[last];
+              person.age = age;
+              if (!predicate.test(person))
+                continue;
+            }
+            query.countAge(partial, age);
+            if (k > 0)
+              partial.topRows.offer(((long) ranks[last + 1] << 32) | ranks[first + 1], i);
+          }
+        }
+        return partial;
+      };
+    }
+
+    /**
+     * @return the rank of every id in the name order, shifted by one so that the
+     *         {@code null} name ({@code -1}) gets rank 0
+     */
+    private static int[] ranks(String[] names) {
+      Integer[] order = new Integer[names.length];
+      for (int i = 0; i < names.length; i++)
+        order[i] = i;
+      Arrays.sort(order, Comparator.comparing(i -> names[i]));
+      int[] ranks = new int[names.length + 1];
+      for (int rank = 0; rank < order.length; rank++)
+        ranks[order[rank] + 1] = rank + 1;
+      return ranks;
+    }
+
+    @Override
+    public Partial newPartial(int bucketWidth, int k) {
+      Partial partial = new Partial(bucketWidth, k);
+      if (k > 0)
+        partial.topRows = new TopKHeap(k);
+      return partial;
+    }
+
+    @Override
+    public List<Person> top(Partial result) {
+      List<Person> top = new ArrayList<>(result.topRows.size);
+      for (long index : result.topRows.sortedIndexes()) {
+        int first = store.firstNameId(index);
+        int last = store.lastNameId(index);
+        top.add(new PersonRecord(first == NameDictionary.NULL_ID ? null : names[first],
+            last == NameDictionary.NULL_ID ? null : names[last], store.age(index)));
+      }
+      return top;
+    }
+  }
+}
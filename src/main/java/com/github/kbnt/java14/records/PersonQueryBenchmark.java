@@ -0,0 +1,82 @@
+package com.github.kbnt.java14.records;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how the {@link PersonQuery} scales with the number of cores on a
+ * {@link PersonStore} of 100 million persons (1.2GB of native memory, plus the
+ * JVM). For 1, 2, 4... up to all the available processors we run the same
+ * three queries in a dedicated {@link ForkJoinPool} and print the time and the
+ * speedup relative to one thread.<br>
+ * <br>
+ * <b>Note</b>: the store uses the Foreign-Memory Access API, so this benchmark
+ * needs {@code --add-modules=jdk.incubator.foreign}.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class PersonQueryBenchmark {
+  private static final long PERSONS = 100000000L;
+  private static final int ROUNDS = 3;
+
+  public static void main(String[] args) {
+    try (PersonStore store = new PersonStore(PERSONS)) {
+      PersonQueryBenchmark pqb = new PersonQueryBenchmark();
+      pqb.populate(store);
+      pqb.benchmark(store);
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with the benchmark:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  private void populate(PersonStore store) {
+    long start = System.currentTimeMillis();
+    String[] firstNames = new String[5000];
+    String[] lastNames = new String[5000];
+    for (int i = 0; i < firstNames.length; i++) {
+      firstNames[i] = "First" + i;
+      lastNames[i] = "Last" + i;
+    }
+    for (long l = 0; l < PERSONS; l++) {
+      store.append(new PersonRecord(firstNames[(int) (l % firstNames.length)],
+          lastNames[(int) (l / firstNames.length % lastNames.length)], (int) (l * 31 % 100)));
+    }
+    System.out.println(PERSONS + " persons stored in " + (System.currentTimeMillis() - start) + " milliseconds ("
+        + store.byteSize() + " bytes).");
+  }
+
+  private void benchmark(PersonStore store) {
+    int processors = Runtime.getRuntime().availableProcessors();
+    long baseline = 0;
+    for (int threads = 1; threads <= processors; threads = threads < processors && threads * 2 > processors
+        ? processors
+        : threads * 2) {
+      insertExampleSeparator();
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      try {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+          long start = System.nanoTime();
+          long count = PersonQuery.from(store).whereAgeGreaterThan(30).parallel(pool).count();
+          long[] buckets = PersonQuery.from(store).whereFirstName("First42").parallel(pool).countByAgeBucket(10);
+          int top = PersonQuery.from(store).whereAgeBetween(20, 29).parallel(pool).topByName(10).size();
+          long elapsed = System.nanoTime() - start;
+          best = Math.min(best, elapsed);
+          System.out.println(threads + " thread(s), round " + round + ": " + elapsed / 1000000 + " milliseconds ("
+              + count + " older than 30, " + buckets.length + " buckets, top " + top + ").");
+        }
+        if (threads == 1)
+          baseline = best;
+        System.out.println(threads + " thread(s): best " + best / 1000000 + " milliseconds, speedup "
+            + (double) baseline / best + "x, " + (long) (3 * PERSONS * 1e9 / best) + " persons/sec.");
+      } finally {
+        pool.shutdown();
+      }
+    }
+  }
+}
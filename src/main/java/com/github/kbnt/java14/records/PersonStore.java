@@ -0,0 +1,254 @@
+package com.github.kbnt.java14.records;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.function.Consumer;
+
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemoryHandles;
+import jdk.incubator.foreign.MemorySegment;
+
+import com.github.kbnt.java14.fma.NativeMemoryTracker;
+import com.github.kbnt.java14.fma.NativeMemoryTracker.TrackedSegment;
+
+/**
+ * A columnar, off-heap store of persons. Instead of one object (plus two
+ * {@code String}s) per person, we keep three int columns in native memory:
+ * <ul>
+ * <li>the first name id and the last name id (both from the same
+ * {@link NameDictionary});
+ * <li>the age.
+ * </ul>
+ * That is 12 bytes per person, no headers, no pointers to chase, and the ages
+ * are laid out one after another - ideal for aggregate scans.<br>
+ * <br>
+ * The persons can be read through a {@link PersonView}: a flyweight
+ * {@link Person} that is moved from one index to another, so iterating the
+ * store does not create an object per person. Reading the names still
+ * allocates, though: the {@link NameDictionary} decodes a new {@code String}
+ * for every name missing from its cache of recent names.<br>
+ * <br>
+ * The store is not thread safe and (like the memory segments behind it) is
+ * confined to the thread that created it. Other threads can read the columns
+ * through {@link #acquireColumns()}.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class PersonStore implements AutoCloseable {
+  private static final VarHandle INT_HANDLE = MemoryHandles
+      .withStride(MemoryHandles.varHandle(int.class, ByteOrder.nativeOrder()), Integer.BYTES);
+
+  private final long capacity;
+  private final NameDictionary names = new NameDictionary();
+  private final TrackedSegment firstNames;
+  private final TrackedSegment lastNames;
+  private final TrackedSegment ages;
+  private final MemoryAddress firstNamesBase;
+  private final MemoryAddress lastNamesBase;
+  private final MemoryAddress agesBase;
+  private long size;
+
+  /**
+   * @param capacity the maximum number of persons
+   */
+  public PersonStore(long capacity) {
+    this.capacity = capacity;
+    NativeMemoryTracker tracker = NativeMemoryTracker.getInstance();
+    firstNames = tracker.allocateNative(capacity * Integer.BYTES);
+    lastNames = tracker.allocateNative(capacity * Integer.BYTES);
+    ages = tracker.allocateNative(capacity * Integer.BYTES);
+    firstNamesBase = firstNames.segment().baseAddress();
+    lastNamesBase = lastNames.segment().baseAddress();
+    agesBase = ages.segment().baseAddress();
+  }
+
+  /**
+   * Copies a person into the store.
+   *
+   * @param person the person to add
+   * @return the index of the person
+   * @throws IllegalStateException if the store is full
+   */
+  public long append(Person person) {
+    if (size == capacity)
+      throw new IllegalStateException("The store is full (" + capacity + " persons).");
+    long index = size++;
+    INT_HANDLE.set(firstNamesBase, index, names.intern(person.firstName()));
+    INT_HANDLE.set(lastNamesBase, index, names.intern(person.lastName()));
+    INT_HANDLE.set(agesBase, index, person.age());
+    return index;
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public long capacity() {
+    return capacity;
+  }
+
+  public NameDictionary names() {
+    return names;
+  }
+
+  public int firstNameId(long index) {
+    return (int) INT_HANDLE.get(firstNamesBase, checkIndex(index));
+  }
+
+  public int lastNameId(long index) {
+    return (int) INT_HANDLE.get(lastNamesBase, checkIndex(index));
+  }
+
+  public int age(long index) {
+    return (int) INT_HANDLE.get(agesBase, checkIndex(index));
+  }
+
+  /**
+   * @return a new flyweight positioned on the first person (its components
+   *         throw an {@link IndexOutOfBoundsException} while the store is
+   *         empty)
+   */
+  public PersonView view() {
+    return new PersonView();
+  }
+
+  /**
+   * @return a read-only access to the columns for the calling thread (close it
+   *         when done). The names are not included - see
+   *         {@link NameDictionary#snapshot()}.
+   */
+  public Columns acquireColumns() {
+    return new Columns();
+  }
+
+  /**
+   * Calls the action for every person, always with the same
+   * {@link PersonView} (so don't keep references to it).
+   *
+   * @param action the action to perform
+   */
+  public void forEach(Consumer<? super Person> action) {
+    PersonView view = new PersonView();
+    for (long i = 0; i < size; i++)
+      action.accept(view.moveTo(i));
+  }
+
+  /**
+   * @return the average age (a plain scan of the age column)
+   */
+  public double averageAge() {
+    long sum = 0;
+    for (long i = 0; i < size; i++)
+      sum += (int) INT_HANDLE.get(agesBase, i);
+    return size == 0 ? 0 : (double) sum / size;
+  }
+
+  /**
+   * @return the native memory used by the persons stored so far (the columns
+   *         plus the UTF-8 names)
+   */
+  public long byteSize() {
+    return size * 3 * Integer.BYTES + names.utf8Bytes();
+  }
+
+  @Override
+  public void close() {
+    ages.close();
+    lastNames.close();
+    firstNames.close();
+    names.close();
+  }
+
+  private long checkIndex(long index) {
+    if (index < 0 || index >= size)
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+    return index;
+  }
+
+  /**
+   * The columns, acquired for one thread. Only the persons appended before the
+   * acquisition are visible.
+   */
+  public final class Columns implements AutoCloseable {
+    private final MemorySegment firstNamesSegment = firstNames.segment().acquire();
+    private final MemorySegment lastNamesSegment = lastNames.segment().acquire();
+    private final MemorySegment agesSegment = ages.segment().acquire();
+    private final MemoryAddress firstNamesAddress = firstNamesSegment.baseAddress();
+    private final MemoryAddress lastNamesAddress = lastNamesSegment.baseAddress();
+    private final MemoryAddress agesAddress = agesSegment.baseAddress();
+    private final long visibleSize = size;
+
+    private Columns() {
+    }
+
+    public long size() {
+      return visibleSize;
+    }
+
+    public int firstNameId(long index) {
+      return (int) INT_HANDLE.get(firstNamesAddress, index);
+    }
+
+    public int lastNameId(long index) {
+      return (int) INT_HANDLE.get(lastNamesAddress, index);
+    }
+
+    public int age(long index) {
+      return (int) INT_HANDLE.get(agesAddress, index);
+    }
+
+    @Override
+    public void close() {
+      agesSegment.close();
+      lastNamesSegment.close();
+      firstNamesSegment.close();
+    }
+  }
+
+  /**
+   * A {@link Person} reading its components straight from the columns. The
+   * names are decoded by the {@link NameDictionary} (the same instance while
+   * they stay in its cache of recent names).
+   */
+  public final class PersonView implements Person {
+    private long index;
+
+    private PersonView() {
+    }
+
+    /**
+     * @param index the person to point to
+     * @return this view
+     */
+    public PersonView moveTo(long index) {
+      this.index = checkIndex(index);
+      return this;
+    }
+
+    public long index() {
+      return index;
+    }
+
+    @Override
+    public String firstName() {
+      return names.name((int) INT_HANDLE.get(firstNamesBase, checkIndex(index)));
+    }
+
+    @Override
+    public String lastName() {
+      return names.name((int) INT_HANDLE.get(lastNamesBase, checkIndex(index)));
+    }
+
+    @Override
+    public int age() {
+      return (int) INT_HANDLE.get(agesBase, checkIndex(index));
+    }
+
+    @Override
+    public String toString() {
+      return "PersonView [index=" + index + ", firstName=" + firstName() + ", lastName=" + lastName() + ", age="
+          + age() + "]";
+    }
+  }
+}
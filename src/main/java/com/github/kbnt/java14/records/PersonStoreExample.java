@@ -0,0 +1,82 @@
+package com.github.kbnt.java14.records;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the footprint and the scan speed of a {@link List} of
+ * {@link PersonRecord}s with the same persons kept in a {@link PersonStore}.
+ * <br>
+ * <br>
+ * <b>Note</b>: the store uses the Foreign-Memory Access API, so this example
+ * needs {@code --add-modules=jdk.incubator.foreign}.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class PersonStoreExample {
+  private static final int PERSONS = 5000000;
+
+  public static void main(String[] args) {
+    try {
+      PersonStoreExample pse = new PersonStoreExample();
+      pse.example00HeapVersusColumns();
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with one of our examples:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  private static Person newPerson(int i) {
+    // names built at runtime, each person with its own String instances (as if
+    // they were read from a file)
+    return new PersonRecord("First" + (i % 2000), "Last" + (i % 50000), i % 100);
+  }
+
+  private static long usedHeap() {
+    System.gc();
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  public void example00HeapVersusColumns() {
+    insertExampleSeparator();
+
+    long before = usedHeap();
+    List<Person> persons = new ArrayList<>(PERSONS);
+    for (int i = 0; i < PERSONS; i++)
+      persons.add(newPerson(i));
+    long heapBytes = usedHeap() - before;
+    System.out.println("Heap: " + PERSONS + " persons take about " + heapBytes + " bytes ("
+        + heapBytes / PERSONS + " bytes per person).");
+
+    long start = System.currentTimeMillis();
+    long sum = 0;
+    for (Person p : persons)
+      sum += p.age();
+    System.out.println("Heap: average age " + (double) sum / PERSONS + " computed in "
+        + (System.currentTimeMillis() - start) + " milliseconds.");
+
+    persons = null;
+    before = usedHeap();
+    try (PersonStore store = new PersonStore(PERSONS)) {
+      for (int i = 0; i < PERSONS; i++)
+        store.append(newPerson(i));
+      long storeHeapBytes = usedHeap() - before;
+      System.out.println("Store: " + store.size() + " persons take " + store.byteSize() + " off-heap bytes ("
+          + store.byteSize() / store.size() + " bytes per person, " + store.names().size()
+          + " distinct names) and about " + storeHeapBytes + " heap bytes (the dictionary).");
+
+      start = System.currentTimeMillis();
+      double average = store.averageAge();
+      System.out.println("Store: average age " + average + " computed in " + (System.currentTimeMillis() - start)
+          + " milliseconds.");
+
+      System.out.println("Store: the person at index 4242 is " + store.view().moveTo(4242));
+    }
+  }
+}
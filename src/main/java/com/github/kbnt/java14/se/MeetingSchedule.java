@@ -0,0 +1,333 @@
+package com.github.kbnt.java14.se;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * The bulk version of the meetings from {@link SwitchExpressions}: instead of
+ * deciding day by day (and user by user) whether we meet, the recurrence rules
+ * are compiled once into 7-bit masks (bit {@code d} set if the user meets on
+ * the {@link WeekDay} with the ordinal {@code d}).<br>
+ * <br>
+ * The masks are kept twice, in primitive arrays:
+ * <ul>
+ * <li>one byte per user - for the questions about one user ("when is my next
+ * meeting?"), answered with a rotation and a {@code numberOfTrailingZeros};
+ * <li>one bit set per week day (a bit per user) - for the questions about all
+ * the users ("who meets on Friday?"), answered 64 users at a time.
+ * </ul>
+ * The bulk operations run in parallel on ranges of 64 users (one {@code long}
+ * of each bit set), so the workers never write to the same word and nothing is
+ * allocated per user. The schedule is not thread safe: assign the rules first,
+ * then query it from as many threads as you want.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class MeetingSchedule {
+  public static final int NO_MEETING = 0;
+  public static final int EVERY_DAY = 0b1111111;
+
+  private static final WeekDay[] DAYS = WeekDay.values();
+
+  private final int users;
+  private final byte[] masks;
+  private final long[][] planes;
+
+  /**
+   * @param users the number of users (with the ids 0 to {@code users - 1}), none
+   *              of them having any meeting yet
+   */
+  public MeetingSchedule(int users) {
+    this.users = users;
+    masks = new byte[users];
+    planes = new long[DAYS.length][(users + 63) >>> 6];
+  }
+
+  /**
+   * Compiles a recurrence rule. The rules are weekly (they start over every
+   * Monday) and can be:
+   * <ul>
+   * <li>"every day", "never", "weekdays", "weekends";
+   * <li>"every other day starting Monday" (Monday, Wednesday, Friday and
+   * Sunday - like in {@link SwitchExpressions});
+   * <li>"every 3 days starting Tuesday";
+   * <li>"on Monday, Thursday".
+   * </ul>
+   *
+   * @param rule the rule (case insensitive)
+   * @return the mask of the rule
+   * @throws IllegalArgumentException if the rule cannot be parsed
+   */
+  public static int compile(String rule) {
+    String normalized = rule.trim().toUpperCase(Locale.ROOT).replaceAll("\\s+", " ");
+    return switch (normalized) {
+    case "EVERY DAY", "DAILY" -> EVERY_DAY;
+    case "NEVER" -> NO_MEETING;
+    case "WEEKDAYS" -> mask(WeekDay.MONDAY, WeekDay.TUESDAY, WeekDay.WEDNESDAY, WeekDay.THURSDAY, WeekDay.FRIDAY);
+    case "WEEKENDS" -> mask(WeekDay.SATURDAY, WeekDay.SUNDAY);
+    default -> {
+      String[] words = normalized.split(" ");
+      if (normalized.startsWith("ON ")) {
+        int mask = NO_MEETING;
+        for (String day : normalized.substring(3).split(","))
+          mask |= mask(day(day.trim(), rule));
+        yield mask;
+      }
+      if (words.length == 5 && words[0].equals("EVERY") && words[2].equals("DAY") && words[3].equals("STARTING"))
+        yield every(words[1].equals("OTHER") ? 2 : number(words[1], rule), day(words[4], rule));
+      if (words.length == 5 && words[0].equals("EVERY") && words[2].equals("DAYS") && words[3].equals("STARTING"))
+        yield every(number(words[1], rule), day(words[4], rule));
+      throw new IllegalArgumentException("Unknown rule: " + rule);
+    }
+    };
+  }
+
+  /**
+   * @param days the meeting days
+   * @return the mask of those days
+   */
+  public static int mask(WeekDay... days) {
+    int mask = NO_MEETING;
+    for (WeekDay day : days)
+      mask |= 1 << day.ordinal();
+    return mask;
+  }
+
+  /**
+   * @param interval the number of days between two meetings
+   * @param start    the first meeting day of the week
+   * @return the mask of the days {@code start}, {@code start + interval}... up
+   *         to Sunday
+   */
+  public static int every(int interval, WeekDay start) {
+    if (interval < 1)
+      throw new IllegalArgumentException("The interval must be positive: " + interval);
+    int mask = NO_MEETING;
+    for (int d = start.ordinal(); d < DAYS.length; d += interval)
+      mask |= 1 << d;
+    return mask;
+  }
+
+  public int users() {
+    return users;
+  }
+
+  /**
+   * @param user the user
+   * @param mask the meeting days of the user (see {@link #compile(String)})
+   * @throws IllegalArgumentException if the mask has bits beyond the 7 days
+   */
+  public void assign(int user, int mask) {
+    masks[user] = checkMask(user, mask);
+    int word = user >>> 6;
+    long bit = 1L << user;
+    for (int d = 0; d < DAYS.length; d++) {
+      if ((mask & (1 << d)) != 0)
+        planes[d][word] |= bit;
+      else
+        planes[d][word] &= ~bit;
+    }
+  }
+
+  /**
+   * Assigns the masks of all the users, in parallel.
+   *
+   * @param maskOf gives the mask of every user
+   * @throws IllegalArgumentException if a mask has bits beyond the 7 days
+   *                                  (the users of its range of 64 may be
+   *                                  left without meetings)
+   */
+  public void assignAll(IntUnaryOperator maskOf) {
+    IntStream.range(0, planes[0].length).parallel().forEach(word -> {
+      int first = word << 6;
+      int last = Math.min(first + 64, users);
+      for (int d = 0; d < DAYS.length; d++)
+        planes[d][word] = 0;
+      for (int user = first; user < last; user++) {
+        int mask = maskOf.applyAsInt(user);
+        masks[user] = checkMask(user, mask);
+        for (int d = 0; d < DAYS.length; d++)
+          planes[d][word] |= (long) (mask >>> d & 1) << user;
+      }
+    });
+  }
+
+  private static byte checkMask(int user, int mask) {
+    // the extra bits would be dropped from the planes but kept in the byte
+    if ((mask & ~EVERY_DAY) != 0)
+      throw new IllegalArgumentException("Invalid mask " + Integer.toBinaryString(mask) + " for the user " + user);
+    return (byte) mask;
+  }
+
+  /**
+   * @param user the user
+   * @return the meeting days of the user
+   */
+  public int mask(int user) {
+    return masks[user];
+  }
+
+  /**
+   * @param user the user
+   * @param day  the day
+   * @return {@code true} if the user meets on that day
+   */
+  public boolean meetsOn(int user, WeekDay day) {
+    return (masks[user] & (1 << day.ordinal())) != 0;
+  }
+
+  /**
+   * @param user the user
+   * @param from the day we start looking from (included)
+   * @return the number of days until the next meeting of the user (0 if he/she
+   *         meets on {@code from}) or -1 if the user never meets
+   */
+  public int daysUntilNextMeeting(int user, WeekDay from) {
+    return daysUntil(masks[user], from.ordinal());
+  }
+
+  /**
+   * @param user the user
+   * @param from the day we start looking from (included)
+   * @return the day of the next meeting of the user or {@code null} if the user
+   *         never meets
+   */
+  public WeekDay nextMeeting(int user, WeekDay from) {
+    int days = daysUntilNextMeeting(user, from);
+    return days < 0 ? null : DAYS[(from.ordinal() + days) % DAYS.length];
+  }
+
+  /**
+   * Computes the days until the next meeting of all the users, in parallel.
+   *
+   * @param from   the day we start looking from (included)
+   * @param result receives, for every user, the number of days until the next
+   *               meeting or -1 (its length must be at least {@link #users()})
+   */
+  public void daysUntilNextMeeting(WeekDay from, byte[] result) {
+    if (result.length < users)
+      throw new IllegalArgumentException("The result has room for " + result.length + " users, not " + users);
+    int d = from.ordinal();
+    // the answer depends only on the mask - compute it once for the 128 masks
+    byte[] lookup = new byte[1 << DAYS.length];
+    for (int mask = 0; mask < lookup.length; mask++)
+      lookup[mask] = (byte) daysUntil(mask, d);
+    IntStream.range(0, planes[0].length).parallel().forEach(word -> {
+      int last = Math.min((word << 6) + 64, users);
+      for (int user = word << 6; user < last; user++)
+        result[user] = lookup[masks[user]];
+    });
+  }
+
+  /**
+   * @param day a day
+   * @return a bit set (bit {@code u} of word {@code u / 64}) of the users
+   *         meeting on that day
+   */
+  public long[] whoMeetsOn(WeekDay day) {
+    return planes[day.ordinal()].clone();
+  }
+
+  /**
+   * @param days some days
+   * @return a bit set of the users meeting on all those days
+   */
+  public long[] whoMeetsOnAll(WeekDay... days) {
+    long[] result = new long[planes[0].length];
+    Arrays.fill(result, -1L);
+    if (days.length > 0)
+      IntStream.range(0, result.length).parallel().forEach(word -> {
+        long bits = -1L;
+        for (WeekDay day : days)
+          bits &= planes[day.ordinal()][word];
+        result[word] = bits;
+      });
+    clearTail(result);
+    return result;
+  }
+
+  /**
+   * @param days some days
+   * @return a bit set of the users meeting on at least one of those days
+   */
+  public long[] whoMeetsOnAny(WeekDay... days) {
+    long[] result = new long[planes[0].length];
+    IntStream.range(0, result.length).parallel().forEach(word -> {
+      long bits = 0;
+      for (WeekDay day : days)
+        bits |= planes[day.ordinal()][word];
+      result[word] = bits;
+    });
+    return result;
+  }
+
+  /**
+   * @param day a day
+   * @return the number of users meeting on that day
+   */
+  public long countMeetingOn(WeekDay day) {
+    long[] plane = planes[day.ordinal()];
+    return IntStream.range(0, plane.length).parallel().mapToLong(word -> Long.bitCount(plane[word])).sum();
+  }
+
+  /**
+   * Calls the action for every user meeting on the given day, in increasing
+   * order, in the calling thread.
+   *
+   * @param day    a day
+   * @param action receives the user ids
+   */
+  public void forEachMeetingOn(WeekDay day, IntConsumer action) {
+    forEach(planes[day.ordinal()], action);
+  }
+
+  /**
+   * Calls the action for every user of a bit set returned by this schedule.
+   *
+   * @param users  the bit set
+   * @param action receives the user ids, in increasing order
+   */
+  public static void forEach(long[] users, IntConsumer action) {
+    for (int word = 0; word < users.length; word++) {
+      long bits = users[word];
+      while (bits != 0) {
+        action.accept((word << 6) + Long.numberOfTrailingZeros(bits));
+        bits &= bits - 1;
+      }
+    }
+  }
+
+  private static int daysUntil(int mask, int from) {
+    if ((mask & EVERY_DAY) == 0)
+      return -1;
+    // rotate the week so that "from" is bit 0
+    int rotated = (mask >>> from | mask << (DAYS.length - from)) & EVERY_DAY;
+    return Integer.numberOfTrailingZeros(rotated);
+  }
+
+  private void clearTail(long[] bits) {
+    int used = users & 63;
+    if (used != 0 && bits.length > 0)
+      bits[bits.length - 1] &= (1L << used) - 1;
+  }
+
+  private static WeekDay day(String day, String rule) {
+    try {
+      return WeekDay.valueOf(day);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown day '" + day + "' in the rule: " + rule, e);
+    }
+  }
+
+  private static int number(String number, String rule) {
+    try {
+      return Integer.parseInt(number);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Unknown interval '" + number + "' in the rule: " + rule, e);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package com.github.kbnt.java14.se;
+
+/**
+ * Plans the meetings of 10 million users with the {@link MeetingSchedule}: the
+ * rules are compiled once, assigned to the users in bulk and then we ask who
+ * meets on a given day and when the next meeting of everybody is - without
+ * looping over the users one {@code switch} at a time.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class MeetingScheduleExample {
+  private static final int USERS = 10000000;
+  private static final String[] RULES = { "every other day starting Monday", "every 3 days starting Tuesday",
+      "weekdays", "weekends", "on Monday, Thursday", "every day", "never" };
+
+  public static void main(String[] args) {
+    try {
+      MeetingScheduleExample mse = new MeetingScheduleExample();
+      MeetingSchedule schedule = mse.example00CompileAndAssign();
+      mse.example01WhoMeetsOn(schedule);
+      mse.example02NextMeeting(schedule);
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with one of our examples:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  public MeetingSchedule example00CompileAndAssign() {
+    insertExampleSeparator();
+
+    int[] compiled = new int[RULES.length];
+    for (int r = 0; r < RULES.length; r++) {
+      compiled[r] = MeetingSchedule.compile(RULES[r]);
+      System.out.println("'" + RULES[r] + "' compiles to " + Integer.toBinaryString(compiled[r]) + ".");
+    }
+
+    long start = System.currentTimeMillis();
+    MeetingSchedule schedule = new MeetingSchedule(USERS);
+    schedule.assignAll(user -> compiled[user % compiled.length]);
+    System.out.println("The rules of " + USERS + " users assigned in " + (System.currentTimeMillis() - start)
+        + " milliseconds.");
+    return schedule;
+  }
+
+  public void example01WhoMeetsOn(MeetingSchedule schedule) {
+    insertExampleSeparator();
+
+    long start = System.nanoTime();
+    for (WeekDay day : WeekDay.values())
+      System.out.println(schedule.countMeetingOn(day) + " users meet on " + day + ".");
+    System.out.println("All the days counted in " + (System.nanoTime() - start) / 1000 + " microseconds.");
+
+    start = System.nanoTime();
+    long[] mondayAndSunday = schedule.whoMeetsOnAll(WeekDay.MONDAY, WeekDay.SUNDAY);
+    int[] first = { -1 };
+    MeetingSchedule.forEach(mondayAndSunday, user -> {
+      if (first[0] < 0)
+        first[0] = user;
+    });
+    System.out.println("The first user meeting both on Monday and Sunday is " + first[0] + " (found in "
+        + (System.nanoTime() - start) / 1000 + " microseconds).");
+  }
+
+  public void example02NextMeeting(MeetingSchedule schedule) {
+    insertExampleSeparator();
+
+    System.out.println("User 42 meets next on " + schedule.nextMeeting(42, WeekDay.TUESDAY)
+        + " (looking from Tuesday), user 6 on " + schedule.nextMeeting(6, WeekDay.TUESDAY) + ".");
+
+    byte[] daysUntil = new byte[schedule.users()];
+    long start = System.currentTimeMillis();
+    schedule.daysUntilNextMeeting(WeekDay.SATURDAY, daysUntil);
+    long[] histogram = new long[8];
+    for (byte days : daysUntil)
+      histogram[days + 1]++;
+    System.out.println("The next meeting of everybody computed in " + (System.currentTimeMillis() - start)
+        + " milliseconds (looking from Saturday):");
+    System.out.println("  never: " + histogram[0] + " users.");
+    for (int days = 0; days < 7; days++)
+      System.out.println("  in " + days + " day(s): " + histogram[days + 1] + " users.");
+  }
+}
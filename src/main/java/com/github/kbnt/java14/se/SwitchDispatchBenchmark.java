@@ -0,0 +1,265 @@
+package com.github.kbnt.java14.se;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.SplittableRandom;
+
+/**
+ * A small (not JMH, so take the numbers as approximations) benchmark of the
+ * ways {@link SwitchExpressions} maps a {@link WeekDay} to the meeting message:
+ * <ul>
+ * <li>the classic switch statement ({@code example00PreJava12});
+ * <li>the multi-case labels ({@code example01MultiCase});
+ * <li>the arrow labels ({@code example02ArrowLabels});
+ * <li>the switch expression with {@code yield}
+ * ({@code example03SwitchAsExpressionAndYield}) - with constant messages and
+ * with the {@code Date} and concatenation of the original;
+ * <li>the int switch ({@code example04SwitchAsExpressionExhaustiveness});
+ * <li>an {@link EnumMap} and an array indexed by the ordinal.
+ * </ul>
+ * Every strategy runs its own loop over the same days (so the dispatch can be
+ * inlined, as on a real hot path), once with a single day (monomorphic) and
+ * once with all the days in random order (mixed). We print the throughput and
+ * the bytes allocated per call by the benchmark thread.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class SwitchDispatchBenchmark {
+  private static final int DAYS = 1 << 18;
+  private static final int ITERATIONS = 10;
+  private static final int WARMUP_ROUNDS = 3;
+  private static final int ROUNDS = 5;
+
+  private static final String MEET = "Let's meet!";
+  private static final String SKIP = "No meeting today.";
+  private static final String REST = "Let's meet (although Sunday should be a free day, man!)!";
+
+  private static final EnumMap<WeekDay, String> MESSAGES = new EnumMap<>(WeekDay.class);
+  private static final String[] MESSAGES_BY_ORDINAL = new String[WeekDay.values().length];
+  static {
+    for (WeekDay day : WeekDay.values()) {
+      MESSAGES.put(day, arrowLabels(day));
+      MESSAGES_BY_ORDINAL[day.ordinal()] = arrowLabels(day);
+    }
+  }
+
+  /**
+   * One strategy, looping over all the days by itself.
+   */
+  @FunctionalInterface
+  private interface Strategy {
+    /**
+     * @return a checksum of the messages (so the work can't be eliminated)
+     */
+    long run(WeekDay[] days);
+  }
+
+  public static void main(String[] args) {
+    try {
+      SwitchDispatchBenchmark sdb = new SwitchDispatchBenchmark();
+      WeekDay[] monomorphic = new WeekDay[DAYS];
+      Arrays.fill(monomorphic, WeekDay.WEDNESDAY);
+      WeekDay[] mixed = new WeekDay[DAYS];
+      SplittableRandom sr = new SplittableRandom(2342342);
+      for (int i = 0; i < DAYS; i++)
+        mixed[i] = WeekDay.values()[sr.nextInt(WeekDay.values().length)];
+
+      for (WeekDay[] days : new WeekDay[][] { monomorphic, mixed }) {
+        String distribution = days == mixed ? "mixed" : "monomorphic";
+        sdb.benchmark("classic switch", distribution, days, SwitchDispatchBenchmark::runClassic);
+        sdb.benchmark("multi-case labels", distribution, days, SwitchDispatchBenchmark::runMultiCase);
+        sdb.benchmark("arrow labels", distribution, days, SwitchDispatchBenchmark::runArrowLabels);
+        sdb.benchmark("switch expression + yield", distribution, days, SwitchDispatchBenchmark::runYield);
+        sdb.benchmark("switch expression + yield (Date)", distribution, days,
+            SwitchDispatchBenchmark::runYieldAllocating);
+        sdb.benchmark("int switch expression", distribution, days, SwitchDispatchBenchmark::runIntSwitch);
+        sdb.benchmark("EnumMap", distribution, days, SwitchDispatchBenchmark::runEnumMap);
+        sdb.benchmark("array by ordinal", distribution, days, SwitchDispatchBenchmark::runArray);
+      }
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with the benchmark:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  private void benchmark(String name, String distribution, WeekDay[] days, Strategy strategy) {
+    insertExampleSeparator();
+
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long calls = (long) ITERATIONS * days.length;
+    long best = Long.MAX_VALUE;
+    long allocated = 0;
+    long checksum = 0;
+    for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+      long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++)
+        checksum += strategy.run(days);
+      long elapsed = System.nanoTime() - start;
+      if (round >= WARMUP_ROUNDS) {
+        best = Math.min(best, elapsed);
+        allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+      }
+    }
+    System.out.println(name + " (" + distribution + "): " + (long) (calls * 1e9 / best) / 1000000
+        + " million calls/sec (" + (double) best / calls + " ns and " + (double) allocated / calls
+        + " bytes per call, checksum " + checksum + ").");
+  }
+
+  private static long runClassic(WeekDay[] days) {
+    long sum = 0;
+    for (WeekDay day : days)
+      sum += classic(day).length();
+    return sum;
+  }
+
+  private static long runMultiCase(WeekDay[] days) {
+    long sum = 0;
+    for (WeekDay day : days)
+      sum += multiCase(day).length();
+    return sum;
+  }
+
+  private static long runArrowLabels(WeekDay[] days) {
+    long sum = 0;
+    for (WeekDay day : days)
+      sum += arrowLabels(day).length();
+    return sum;
+  }
+
+  private static long runYield(WeekDay[] days) {
+    long sum = 0;
+    for (WeekDay day : days)
+      sum += yieldConstant(day).length();
+    return sum;
+  }
+
+  private static long runYieldAllocating(WeekDay[] days) {
+    long sum = 0;
+    for (WeekDay day : days)
+      sum += yieldAllocating(day).length();
+    return sum;
+  }
+
+  private static long runIntSwitch(WeekDay[] days) {
+    long sum = 0;
+    for (WeekDay day : days)
+      sum += intSwitch(day.ordinal() + 1).length();
+    return sum;
+  }
+
+  private static long runEnumMap(WeekDay[] days) {
+    long sum = 0;
+    for (WeekDay day : days)
+      sum += MESSAGES.get(day).length();
+    return sum;
+  }
+
+  private static long runArray(WeekDay[] days) {
+    long sum = 0;
+    for (WeekDay day : days)
+      sum += MESSAGES_BY_ORDINAL[day.ordinal()].length();
+    return sum;
+  }
+
+  private static String classic(WeekDay day) {
+    String message;
+    switch (day) {
+    case MONDAY:
+      message = MEET;
+      break;
+    case TUESDAY:
+      message = SKIP;
+      break;
+    case WEDNESDAY:
+      message = MEET;
+      break;
+    case THURSDAY:
+      message = SKIP;
+      break;
+    case FRIDAY:
+      message = MEET;
+      break;
+    case SATURDAY:
+      message = SKIP;
+      break;
+    case SUNDAY:
+      message = REST;
+      break;
+    default:
+      throw new IllegalArgumentException("Unknown day: " + day);
+    }
+    return message;
+  }
+
+  private static String multiCase(WeekDay day) {
+    String message;
+    switch (day) {
+    case MONDAY, WEDNESDAY, FRIDAY:
+      message = MEET;
+      break;
+    case TUESDAY, THURSDAY, SATURDAY:
+      message = SKIP;
+      break;
+    case SUNDAY:
+      message = REST;
+      break;
+    default:
+      throw new IllegalArgumentException("Unknown day: " + day);
+    }
+    return message;
+  }
+
+  private static String arrowLabels(WeekDay day) {
+    String message = null;
+    switch (day) {
+    case MONDAY, WEDNESDAY, FRIDAY -> message = MEET;
+    case TUESDAY, THURSDAY, SATURDAY -> message = SKIP;
+    case SUNDAY -> message = REST;
+    }
+    return message;
+  }
+
+  private static String yieldConstant(WeekDay day) {
+    return switch (day) {
+    case MONDAY, WEDNESDAY, FRIDAY -> MEET;
+    case TUESDAY, THURSDAY, SATURDAY -> {
+      yield SKIP;
+    }
+    case SUNDAY -> {
+      yield REST;
+    }
+    };
+  }
+
+  private static String yieldAllocating(WeekDay day) {
+    return switch (day) {
+    case MONDAY, WEDNESDAY, FRIDAY -> MEET;
+    case TUESDAY, THURSDAY, SATURDAY -> {
+      Date time = new Date(System.currentTimeMillis());
+      yield "No meeting today because it is " + day + ". To be more precise, it is " + time + ".";
+    }
+    case SUNDAY -> {
+      Date time = new Date(System.currentTimeMillis());
+      yield "Take some rest today because it is " + time + ".";
+    }
+    };
+  }
+
+  private static String intSwitch(int day) {
+    return switch (day) {
+    case 1, 3, 5 -> MEET;
+    case 2, 4, 6 -> SKIP;
+    case 7 -> REST;
+    default -> throw new IllegalArgumentException("The day must be between 1 and 7");
+    };
+  }
+}
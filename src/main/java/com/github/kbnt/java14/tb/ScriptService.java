@@ -0,0 +1,177 @@
+package com.github.kbnt.java14.tb;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+/**
+ * Runs (text block) scripts without paying, on every call, for what
+ * {@code TextBlocks.example04Inception} pays: the engine lookup and the parsing
+ * and compilation of the source.
+ * <ul>
+ * <li>One engine is looked up once and compiles the scripts through
+ * {@link Compilable}. The compiled scripts are cached by their content (the
+ * {@code String} hash and then {@code equals}), the least recently used one
+ * being evicted when the cache is full.
+ * <li>The scripts are evaluated against a bounded pool of {@link Bindings}
+ * created by that engine. With Nashorn every such bindings object has its own
+ * global scope, so the same compiled script can run concurrently for several
+ * callers, each one with its own pooled bindings. When all the bindings are in
+ * use, the callers wait - that is the bound on the concurrent evaluations.
+ * </ul>
+ * The arguments are put in the bindings before the evaluation (and removed
+ * after), so a script uses them as global variables. The time spent compiling
+ * and evaluating is measured separately - see {@link #toString()}.<br>
+ * <br>
+ * <b>Note</b>: Nashorn is part of Java 14 (deprecated, see JEP 335); run with
+ * {@code -Dnashorn.args=--language=es6} for the ES6 syntax.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class ScriptService {
+  private final ScriptEngine engine;
+  private final BlockingQueue<Bindings> pool;
+  private final Map<String, CompiledScript> cache;
+
+  private final LongAdder compilations = new LongAdder();
+  private final LongAdder compileNanos = new LongAdder();
+  private final LongAdder evaluations = new LongAdder();
+  private final LongAdder evaluationNanos = new LongAdder();
+  private final LongAdder cacheHits = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * @param engineName the name of the engine (e.g. "js")
+   * @param poolSize   the maximum number of concurrent evaluations
+   * @param cacheSize  the maximum number of compiled scripts kept
+   * @throws IllegalStateException if the engine is not available or can't
+   *                               compile
+   */
+  public ScriptService(String engineName, int poolSize, int cacheSize) {
+    engine = new ScriptEngineManager().getEngineByName(engineName);
+    if (engine == null)
+      throw new IllegalStateException("No '" + engineName + "' script engine (Nashorn was removed in Java 15)");
+    if (!(engine instanceof Compilable))
+      throw new IllegalStateException("The '" + engineName + "' script engine can't compile scripts");
+
+    pool = new ArrayBlockingQueue<>(poolSize);
+    for (int i = 0; i < poolSize; i++)
+      pool.add(engine.createBindings());
+
+    cache = new LinkedHashMap<>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CompiledScript> eldest) {
+        if (size() <= cacheSize)
+          return false;
+        evictions.increment();
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Evaluates a script.
+   *
+   * @param script    the source of the script (compiled the first time)
+   * @param arguments the global variables of the script
+   * @return the value of the script (its last statement)
+   * @throws ScriptException      if the script can't be compiled or fails
+   * @throws InterruptedException if interrupted while waiting for a pooled
+   *                              bindings object
+   */
+  public Object eval(String script, Map<String, ?> arguments) throws ScriptException, InterruptedException {
+    CompiledScript compiled = compile(script);
+
+    Bindings bindings = pool.take();
+    try {
+      bindings.putAll(arguments);
+      long start = System.nanoTime();
+      Object result = compiled.eval(bindings);
+      evaluationNanos.add(System.nanoTime() - start);
+      evaluations.increment();
+      return result;
+    } finally {
+      for (String name : arguments.keySet())
+        bindings.remove(name);
+      pool.put(bindings);
+    }
+  }
+
+  /**
+   * @param script the source of a script
+   * @return the compiled script, from the cache if it was compiled before
+   * @throws ScriptException if the script can't be compiled
+   */
+  public CompiledScript compile(String script) throws ScriptException {
+    synchronized (cache) {
+      CompiledScript compiled = cache.get(script);
+      if (compiled != null) {
+        cacheHits.increment();
+        return compiled;
+      }
+    }
+
+    CompiledScript compiled;
+    long start = System.nanoTime();
+    // the engine itself is not thread safe
+    synchronized (engine) {
+      compiled = ((Compilable) engine).compile(script);
+    }
+    compileNanos.add(System.nanoTime() - start);
+    compilations.increment();
+
+    synchronized (cache) {
+      // another thread may have compiled it too, keep the first one
+      CompiledScript previous = cache.putIfAbsent(script, compiled);
+      return previous != null ? previous : compiled;
+    }
+  }
+
+  public long compilations() {
+    return compilations.sum();
+  }
+
+  public long evaluations() {
+    return evaluations.sum();
+  }
+
+  /**
+   * @return the average compilation time, in microseconds
+   */
+  public double averageCompileMicros() {
+    long count = compilations.sum();
+    return count == 0 ? 0 : compileNanos.sum() / 1000.0 / count;
+  }
+
+  /**
+   * @return the average evaluation time (without the compilation nor the wait
+   *         for the pool), in microseconds
+   */
+  public double averageEvaluationMicros() {
+    long count = evaluations.sum();
+    return count == 0 ? 0 : evaluationNanos.sum() / 1000.0 / count;
+  }
+
+  @Override
+  public String toString() {
+    int cached;
+    synchronized (cache) {
+      cached = cache.size();
+    }
+    return "ScriptService [compilations=" + compilations() + ", averageCompileMicros=" + averageCompileMicros()
+        + ", evaluations=" + evaluations() + ", averageEvaluationMicros=" + averageEvaluationMicros()
+        + ", cached=" + cached + ", cacheHits=" + cacheHits.sum() + ", evictions=" + evictions.sum() + "]";
+  }
+}
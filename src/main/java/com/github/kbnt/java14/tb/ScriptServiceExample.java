@@ -0,0 +1,103 @@
+package com.github.kbnt.java14.tb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.script.Invocable;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+/**
+ * Generates the SQL of {@code TextBlocks.example04Inception} many times:
+ * <ul>
+ * <li>the way the example does it - new engine and new evaluation of the
+ * function source for every statement;
+ * <li>through a {@link ScriptService}, from several threads.
+ * </ul>
+ * <b>Note</b>: in order to enable the ES6 support in Nashorn, use the
+ * {@code -Dnashorn.args=--language=es6}.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class ScriptServiceExample {
+  private static final int NAIVE_CALLS = 100;
+  private static final int CALLS = 20000;
+
+  private static final String FUNCTION = """
+      function getSelectHoursForCityAndTemperature(city, temperatureAsCelsius) {
+          let sqlGeneratedInJS = `select hours from wheather_data where
+            city='${city}' and
+            temperature > ${temperatureAsCelsius*1.8 + 32}`
+          return sqlGeneratedInJS
+      }
+      """;
+
+  // the same function, called with the global variables bound by the service
+  private static final String SCRIPT = FUNCTION + """
+      getSelectHoursForCityAndTemperature(city, temperatureAsCelsius)
+      """;
+
+  public static void main(String[] args) {
+    try {
+      ScriptServiceExample sse = new ScriptServiceExample();
+      sse.example00NewEngineEveryTime();
+      sse.example01ScriptService();
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with one of our examples:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  public void example00NewEngineEveryTime() throws Exception {
+    insertExampleSeparator();
+
+    long start = System.nanoTime();
+    Object sql = null;
+    for (int i = 0; i < NAIVE_CALLS; i++) {
+      ScriptEngine engine = new ScriptEngineManager().getEngineByName("js");
+      engine.eval(FUNCTION);
+      sql = ((Invocable) engine).invokeFunction("getSelectHoursForCityAndTemperature", "New York", 33);
+    }
+    System.out.println(NAIVE_CALLS + " statements with a new engine every time, "
+        + (System.nanoTime() - start) / 1000 / NAIVE_CALLS + " microseconds per statement. The last one:");
+    System.out.println(sql);
+  }
+
+  public void example01ScriptService() throws Exception {
+    insertExampleSeparator();
+
+    int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+    ScriptService service = new ScriptService("js", threads, 16);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      long start = System.nanoTime();
+      List<Future<Object>> results = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        int thread = t;
+        results.add(executor.submit(() -> {
+          Object sql = null;
+          for (int i = 0; i < CALLS / threads; i++)
+            sql = service.eval(SCRIPT, Map.of("city", "City" + thread, "temperatureAsCelsius", i % 40));
+          return sql;
+        }));
+      }
+      for (Future<Object> result : results)
+        result.get();
+      System.out.println(service.evaluations() + " statements with the script service (" + threads + " threads), "
+          + (System.nanoTime() - start) / 1000 / service.evaluations() + " microseconds per statement. The last one:");
+      System.out.println(results.get(0).get());
+      System.out.println(service);
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,390 @@
+package com.github.kbnt.java14.tb;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A SQL statement (typically a text block) with named placeholders
+ * ({@code :city}), parsed once and rendered many times.<br>
+ * <br>
+ * The template is split into the literal fragments and the placeholders when
+ * compiled; {@link #of(String)} caches the compiled templates by their source
+ * (up to {@value #MAX_CACHED} of them - the SQL built dynamically should go
+ * through {@link #compile(String)}), so the parsing happens once per statement,
+ * not once per execution. Rendering goes through a {@link Binder}: the values
+ * are bound by name (or by slot, to skip even the name lookup) and appended,
+ * together with the fragments, to a reused {@code StringBuilder} or to a
+ * {@code CharBuffer}.<br>
+ * <br>
+ * The bound values are rendered as standard SQL literals - strings quoted
+ * (with the single quotes doubled), numbers and booleans as they are,
+ * {@code null} as {@code NULL} - and anything else is refused. That is not
+ * enough for the dialects where a backslash escapes a quote (e.g. MySQL
+ * without {@code NO_BACKSLASH_ESCAPES}): there a value like
+ * {@code \' OR 1=1 --} gets out of its literal. So the rendered statements are
+ * for logs, tests and standard dialects; when the statement goes to a
+ * database, use {@link #jdbcSql()} with a {@code PreparedStatement}.<br>
+ * <br>
+ * Placeholders inside quoted strings ({@code '...'}), quoted identifiers
+ * ({@code "..."} and {@code `...`}), comments ({@code --} and
+ * <code>/* *&#47;</code>) and casts ({@code ::}) are left alone.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class SqlTemplate {
+  private static final int MAX_CACHED = 1024;
+  private static final ConcurrentHashMap<String, SqlTemplate> CACHE = new ConcurrentHashMap<>();
+
+  private static final byte UNBOUND = 0;
+  private static final byte OBJECT = 1;
+  private static final byte LONG = 2;
+  private static final byte DOUBLE = 3;
+
+  private final String[] fragments;
+  private final int[] slots;
+  private final String[] names;
+  private final String jdbcSql;
+  private final int fragmentsLength;
+
+  private SqlTemplate(String[] fragments, int[] slots, String[] names) {
+    this.fragments = fragments;
+    this.slots = slots;
+    this.names = names;
+    StringBuilder jdbc = new StringBuilder();
+    int length = 0;
+    for (int i = 0; i < fragments.length; i++) {
+      jdbc.append(fragments[i]);
+      if (i < slots.length)
+        jdbc.append('?');
+      length += fragments[i].length();
+    }
+    jdbcSql = jdbc.toString();
+    fragmentsLength = length;
+  }
+
+  /**
+   * @param sql the source of the template
+   * @return the compiled template, from the cache if the same source was
+   *         compiled before (once the cache is full, the new sources are
+   *         compiled every time)
+   */
+  public static SqlTemplate of(String sql) {
+    SqlTemplate template = CACHE.get(sql);
+    if (template != null)
+      return template;
+    template = compile(sql);
+    // bounded: callers building their SQL dynamically would fill it forever
+    if (CACHE.size() < MAX_CACHED) {
+      SqlTemplate cached = CACHE.putIfAbsent(sql, template);
+      if (cached != null)
+        return cached;
+    }
+    return template;
+  }
+
+  /**
+   * @return the number of templates in the cache
+   */
+  public static int cacheSize() {
+    return CACHE.size();
+  }
+
+  /**
+   * Compiles a template, without caching it.
+   *
+   * @param sql the source of the template
+   * @return the compiled template
+   */
+  public static SqlTemplate compile(String sql) {
+    List<String> fragments = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    List<Integer> slots = new ArrayList<>();
+    StringBuilder fragment = new StringBuilder();
+    char quote = 0;
+    int i = 0;
+    while (i < sql.length()) {
+      char c = sql.charAt(i);
+      if (quote != 0) {
+        // inside a quoted string or identifier (a doubled quote is an escape, it
+        // closes and reopens the quotes)
+        if (c == quote)
+          quote = 0;
+        fragment.append(c);
+        i++;
+      } else if (c == '\'' || c == '"' || c == '`') {
+        quote = c;
+        fragment.append(c);
+        i++;
+      } else if (c == '-' && i + 1 < sql.length() && sql.charAt(i + 1) == '-') {
+        // a line comment, up to the end of the line
+        int end = sql.indexOf('\n', i);
+        end = end < 0 ? sql.length() : end;
+        fragment.append(sql, i, end);
+        i = end;
+      } else if (c == '/' && i + 1 < sql.length() && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        if (end < 0)
+          throw new IllegalArgumentException("Unterminated comment in the template: " + sql);
+        fragment.append(sql, i, end + 2);
+        i = end + 2;
+      } else if (c == ':' && i + 1 < sql.length() && sql.charAt(i + 1) == ':') {
+        fragment.append("::");
+        i += 2;
+      } else if (c == ':' && i + 1 < sql.length() && Character.isJavaIdentifierStart(sql.charAt(i + 1))) {
+        int end = i + 2;
+        while (end < sql.length() && Character.isJavaIdentifierPart(sql.charAt(end)))
+          end++;
+        String name = sql.substring(i + 1, end);
+        int slot = names.indexOf(name);
+        if (slot < 0) {
+          slot = names.size();
+          names.add(name);
+        }
+        fragments.add(fragment.toString());
+        fragment.setLength(0);
+        slots.add(slot);
+        i = end;
+      } else {
+        fragment.append(c);
+        i++;
+      }
+    }
+    if (quote != 0)
+      throw new IllegalArgumentException("Unterminated " + quote + " in the template: " + sql);
+    fragments.add(fragment.toString());
+
+    return new SqlTemplate(fragments.toArray(new String[0]), slots.stream().mapToInt(Integer::intValue).toArray(),
+        names.toArray(new String[0]));
+  }
+
+  /**
+   * @return the distinct parameter names, in the order of their slots
+   */
+  public List<String> parameterNames() {
+    return List.of(names);
+  }
+
+  /**
+   * @param name a parameter name
+   * @return the slot of the parameter (for {@link Binder#bind(int, Object)})
+   * @throws IllegalArgumentException if the template has no such parameter
+   */
+  public int slot(String name) {
+    for (int slot = 0; slot < names.length; slot++)
+      if (names[slot].equals(name))
+        return slot;
+    throw new IllegalArgumentException("Unknown parameter '" + name + "', expecting one of " + parameterNames());
+  }
+
+  /**
+   * @return the statement with a {@code ?} for every placeholder (for a
+   *         {@code PreparedStatement})
+   */
+  public String jdbcSql() {
+    return jdbcSql;
+  }
+
+  /**
+   * @return for every {@code ?} of {@link #jdbcSql()}, the slot of its parameter
+   */
+  public int[] jdbcParameterSlots() {
+    return slots.clone();
+  }
+
+  /**
+   * @return a new binder (keep it and reuse it - it is not thread safe, though)
+   */
+  public Binder binder() {
+    return new Binder();
+  }
+
+  @Override
+  public String toString() {
+    return "SqlTemplate [parameters=" + parameterNames() + ", jdbcSql=" + jdbcSql + "]";
+  }
+
+  /**
+   * The values of the parameters and the buffer the statement is rendered to.
+   */
+  public final class Binder {
+    private final byte[] kinds = new byte[names.length];
+    private final Object[] objects = new Object[names.length];
+    private final long[] longs = new long[names.length];
+    private final double[] doubles = new double[names.length];
+    private final StringBuilder builder = new StringBuilder(fragmentsLength + 16 * slots.length);
+    // the literal being put in a CharBuffer, and its chars
+    private final StringBuilder literal = new StringBuilder(32);
+    private char[] literalChars = new char[32];
+
+    private Binder() {
+    }
+
+    public SqlTemplate template() {
+      return SqlTemplate.this;
+    }
+
+    /**
+     * @param name  the parameter
+     * @param value a {@code CharSequence}, a {@code Number} (a primitive
+     *              wrapper, an atomic integer, a {@code BigInteger} or a
+     *              {@code BigDecimal}), a {@code Boolean} or {@code null}
+     * @return this binder
+     * @throws IllegalArgumentException for any other value
+     */
+    public Binder bind(String name, Object value) {
+      return bind(slot(name), value);
+    }
+
+    public Binder bind(String name, long value) {
+      return bind(slot(name), value);
+    }
+
+    public Binder bind(String name, double value) {
+      return bind(slot(name), value);
+    }
+
+    public Binder bind(int slot, Object value) {
+      if (value != null && !(value instanceof CharSequence) && !isInteger(value) && !(value instanceof BigDecimal)
+          && !(value instanceof BigInteger) && !(value instanceof Double) && !(value instanceof Float)
+          && !(value instanceof Boolean))
+        throw new IllegalArgumentException(
+            "Unsupported value for '" + names[slot] + "': " + value.getClass().getName());
+      kinds[slot] = OBJECT;
+      objects[slot] = value;
+      return this;
+    }
+
+    public Binder bind(int slot, long value) {
+      kinds[slot] = LONG;
+      longs[slot] = value;
+      return this;
+    }
+
+    public Binder bind(int slot, double value) {
+      if (!Double.isFinite(value))
+        throw new IllegalArgumentException("Unsupported value for '" + names[slot] + "': " + value);
+      kinds[slot] = DOUBLE;
+      doubles[slot] = value;
+      return this;
+    }
+
+    /**
+     * Unbinds all the parameters.
+     *
+     * @return this binder
+     */
+    public Binder clear() {
+      Arrays.fill(kinds, UNBOUND);
+      Arrays.fill(objects, null);
+      return this;
+    }
+
+    /**
+     * Renders the statement in the buffer of the binder.
+     *
+     * @return the buffer (overwritten by the next call)
+     * @throws IllegalStateException if a parameter is not bound
+     */
+    public StringBuilder render() {
+      builder.setLength(0);
+      renderTo(builder);
+      return builder;
+    }
+
+    /**
+     * Appends the statement.
+     *
+     * @param out the destination
+     * @throws IllegalStateException if a parameter is not bound
+     */
+    public void renderTo(StringBuilder out) {
+      for (int i = 0; i < slots.length; i++) {
+        out.append(fragments[i]);
+        appendLiteral(out, slots[i]);
+      }
+      out.append(fragments[slots.length]);
+    }
+
+    /**
+     * Puts the statement in the buffer.
+     *
+     * @param out the destination
+     * @throws IllegalStateException if a parameter is not bound
+     * @throws java.nio.BufferOverflowException if the buffer is too small
+     */
+    public void renderTo(CharBuffer out) {
+      // bulk puts of the fragments and of the literals, without touching the
+      // buffer of render()
+      for (int i = 0; i < slots.length; i++) {
+        out.put(fragments[i]);
+        literal.setLength(0);
+        appendLiteral(literal, slots[i]);
+        if (literalChars.length < literal.length())
+          literalChars = new char[Math.max(literal.length(), 2 * literalChars.length)];
+        literal.getChars(0, literal.length(), literalChars, 0);
+        out.put(literalChars, 0, literal.length());
+      }
+      out.put(fragments[slots.length]);
+    }
+
+    /**
+     * @return whether the value is an integer number that
+     *         {@code longValue()} renders exactly (the other {@code Number}s,
+     *         e.g. a custom decimal type, would be truncated)
+     */
+    private boolean isInteger(Object value) {
+      return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte
+          || value instanceof AtomicLong || value instanceof AtomicInteger;
+    }
+
+    private void appendLiteral(StringBuilder out, int slot) {
+      switch (kinds[slot]) {
+      case LONG -> out.append(longs[slot]);
+      case DOUBLE -> out.append(doubles[slot]);
+      case OBJECT -> {
+        Object value = objects[slot];
+        if (value == null) {
+          out.append("NULL");
+        } else if (value instanceof CharSequence text) {
+          out.append('\'');
+          // copy the runs between the quotes in bulk, doubling the quotes
+          int from = 0;
+          for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\'') {
+              out.append(text, from, i + 1).append('\'');
+              from = i + 1;
+            }
+          }
+          out.append(text, from, text.length()).append('\'');
+        } else if (value instanceof BigDecimal decimal) {
+          out.append(decimal.toPlainString());
+        } else if (value instanceof BigInteger integer) {
+          out.append(integer);
+        } else if (value instanceof Double d) {
+          if (!Double.isFinite(d))
+            throw new IllegalArgumentException("Unsupported value for '" + names[slot] + "': " + d);
+          out.append(d.doubleValue());
+        } else if (value instanceof Float f) {
+          // not widened: 0.1f would render as 0.10000000149011612
+          if (!Float.isFinite(f))
+            throw new IllegalArgumentException("Unsupported value for '" + names[slot] + "': " + f);
+          out.append(f.floatValue());
+        } else if (isInteger(value)) {
+          out.append(((Number) value).longValue());
+        } else {
+          out.append((Boolean) value ? "TRUE" : "FALSE");
+        }
+      }
+      default -> throw new IllegalStateException("The parameter '" + names[slot] + "' is not bound");
+      }
+    }
+  }
+}
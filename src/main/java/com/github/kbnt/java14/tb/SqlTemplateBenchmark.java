@@ -0,0 +1,88 @@
+package com.github.kbnt.java14.tb;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * A small (not JMH, so take the numbers as approximations) benchmark rendering
+ * the same SQL statement (the one from {@code TextBlocks.example04Inception},
+ * without JavaScript) in three ways:
+ * <ul>
+ * <li>plain {@code String} concatenation;
+ * <li>a text block with {@code %s} and {@code String.formatted};
+ * <li>a {@link SqlTemplate} compiled once, rendered in the reused buffer of its
+ * binder.
+ * </ul>
+ * We print the time and the bytes allocated per statement by the benchmark
+ * thread. Note that the first two don't quote nor escape anything!
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class SqlTemplateBenchmark {
+  private static final int STATEMENTS = 2000000;
+  private static final int ROUNDS = 5;
+  private static final String[] CITIES = { "New York", "Bucharest", "Indianapolis", "Cluj-Napoca" };
+
+  private static final String FORMAT = """
+      select hours from wheather_data where
+        city='%s' and
+        temperature > %s""";
+
+  private static final String TEMPLATE = """
+      select hours from wheather_data where
+        city=:city and
+        temperature > :temperature""";
+
+  /**
+   * One way of rendering the statement.
+   */
+  @FunctionalInterface
+  private interface Renderer {
+    /**
+     * @return the length of the statement (so the work can't be eliminated)
+     */
+    int render(String city, double temperature);
+  }
+
+  public static void main(String[] args) {
+    try {
+      SqlTemplateBenchmark stb = new SqlTemplateBenchmark();
+      stb.benchmark("concatenation", (city, temperature) -> ("select hours from wheather_data where\n  city='" + city
+          + "' and\n  temperature > " + temperature).length());
+      stb.benchmark("String.formatted", (city, temperature) -> FORMAT.formatted(city, temperature).length());
+
+      SqlTemplate.Binder binder = SqlTemplate.of(TEMPLATE).binder();
+      int city = binder.template().slot("city");
+      int temperature = binder.template().slot("temperature");
+      stb.benchmark("SqlTemplate", (c, t) -> binder.bind(city, c).bind(temperature, t).render().length());
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with the benchmark:");
+      e.printStackTrace();
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  private void benchmark(String name, Renderer renderer) {
+    insertExampleSeparator();
+    System.out.println("Benchmarking " + name + "...");
+
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    for (int round = 0; round < ROUNDS; round++) {
+      long length = 0;
+      long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      for (int i = 0; i < STATEMENTS; i++)
+        length += renderer.render(CITIES[i & 3], (i & 63) * 1.8 + 32);
+      long elapsed = System.nanoTime() - start;
+      long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+      System.out.println("Round " + round + ": " + STATEMENTS + " statements (" + length + " chars) in "
+          + elapsed / 1000000 + " milliseconds (" + (double) elapsed / STATEMENTS + " ns and "
+          + (double) allocated / STATEMENTS + " bytes per statement).");
+    }
+  }
+}
@@ -29,6 +29,7 @@ public class TextBlocks {
       tb.example03StringStripIndent();
       tb.example04Inception();
       tb.example05Java14NewEscapeSequences();
+      tb.example06PrecompiledSqlTemplate();
     } catch (Throwable e) {
       System.err.println("Oops, something went wrong with one of our examples:");
       e.printStackTrace();
@@ -283,4 +284,27 @@ public class TextBlocks {
     System.out.println("A one-liner won't be a one-liner if across multiple lines :-):");
     System.out.println(aOneLiner);    
   }
+
+  /**
+   * The same SQL as in the {@link #example04Inception()}, but without
+   * JavaScript: the text block has named placeholders, it is parsed once (see
+   * {@link SqlTemplate}) and the values are bound - and quoted - instead of being
+   * interpolated.
+   */
+  public void example06PrecompiledSqlTemplate() {
+    insertExampleSeparator();
+
+    SqlTemplate template = SqlTemplate.of("""
+        select hours from wheather_data where
+          city=:city and
+          temperature > :temperature""");
+    SqlTemplate.Binder binder = template.binder();
+
+    System.out.println("Here is the select that would give us the hours when New York city was really hot:");
+    System.out.println(binder.bind("city", "New York").bind("temperature", 33 * 1.8 + 32).render());
+    System.out.println("A city that tries to inject some SQL stays a string:");
+    System.out.println(binder.bind("city", "x' or '1'='1").render());
+    System.out.println("And this is what would go to a PreparedStatement:");
+    System.out.println(template.jdbcSql());
+  }
 }
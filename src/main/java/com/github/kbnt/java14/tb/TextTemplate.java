@@ -0,0 +1,369 @@
+package com.github.kbnt.java14.tb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * A text template (typically a text block, with {@code ${name}} slots)
+ * compiled once - ideally in a {@code static final} field, so at class
+ * initialization - into a sequence of literal chunks and slots. The chunks are
+ * kept both as {@code String}s and as UTF-8 bytes (one array, wrapped once in a
+ * segment by the threads rendering to segments), so rendering is a sequence of
+ * bulk copies:
+ * <ul>
+ * <li>to an {@link Appendable} (no allocation for a {@code StringBuilder});
+ * <li>to a {@link ByteBuffer}, in UTF-8;
+ * <li>to a {@link MemorySegment}, in UTF-8.
+ * </ul>
+ * The values are set through {@link Values} (reused, one per thread). A value
+ * is formatted and encoded once, when it is set, in buffers that are reused
+ * from one value to the next - so after the first rows, rendering a report
+ * does not allocate anything.<br>
+ * <br>
+ * {@code $${} stands for a literal {@code ${}.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public final class TextTemplate {
+  private final String[] chunks;
+  // all the chunks one after the other, the chunk i from chunkOffsets[i]
+  private final byte[] utf8Chunks;
+  private final int[] chunkOffsets;
+  private final int[] slots;
+  private final String[] names;
+
+  private TextTemplate(String[] chunks, int[] slots, String[] names) {
+    this.chunks = chunks;
+    this.slots = slots;
+    this.names = names;
+    byte[][] encoded = new byte[chunks.length][];
+    chunkOffsets = new int[chunks.length + 1];
+    for (int i = 0; i < chunks.length; i++) {
+      encoded[i] = chunks[i].getBytes(StandardCharsets.UTF_8);
+      chunkOffsets[i + 1] = chunkOffsets[i] + encoded[i].length;
+    }
+    utf8Chunks = new byte[chunkOffsets[chunks.length]];
+    for (int i = 0; i < chunks.length; i++)
+      System.arraycopy(encoded[i], 0, utf8Chunks, chunkOffsets[i], encoded[i].length);
+  }
+
+  private int chunkLength(int chunk) {
+    return chunkOffsets[chunk + 1] - chunkOffsets[chunk];
+  }
+
+  /**
+   * @param template the template
+   * @return the compiled template
+   * @throws IllegalArgumentException if a slot is not closed or has no name
+   */
+  public static TextTemplate compile(String template) {
+    List<String> chunks = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    List<Integer> slots = new ArrayList<>();
+    StringBuilder chunk = new StringBuilder();
+    int i = 0;
+    while (i < template.length()) {
+      if (template.startsWith("$${", i)) {
+        chunk.append("${");
+        i += 3;
+      } else if (template.startsWith("${", i)) {
+        int end = template.indexOf('}', i + 2);
+        if (end < 0)
+          throw new IllegalArgumentException("Unclosed slot at " + i + " in the template: " + template);
+        String name = template.substring(i + 2, end).strip();
+        if (name.isEmpty())
+          throw new IllegalArgumentException("Slot without a name at " + i + " in the template: " + template);
+        int slot = names.indexOf(name);
+        if (slot < 0) {
+          slot = names.size();
+          names.add(name);
+        }
+        chunks.add(chunk.toString());
+        chunk.setLength(0);
+        slots.add(slot);
+        i = end + 1;
+      } else {
+        chunk.append(template.charAt(i++));
+      }
+    }
+    chunks.add(chunk.toString());
+
+    return new TextTemplate(chunks.toArray(new String[0]), slots.stream().mapToInt(Integer::intValue).toArray(),
+        names.toArray(new String[0]));
+  }
+
+  /**
+   * @return the distinct slot names, in the order of their slots
+   */
+  public List<String> slotNames() {
+    return List.of(names);
+  }
+
+  /**
+   * @param name a slot name
+   * @return the slot
+   * @throws IllegalArgumentException if the template has no such slot
+   */
+  public int slot(String name) {
+    for (int slot = 0; slot < names.length; slot++)
+      if (names[slot].equals(name))
+        return slot;
+    throw new IllegalArgumentException("Unknown slot '" + name + "', expecting one of " + slotNames());
+  }
+
+  /**
+   * @return new values (keep them and reuse them - they are not thread safe,
+   *         though)
+   */
+  public Values values() {
+    return new Values();
+  }
+
+  /**
+   * The values of the slots, already formatted and encoded.
+   */
+  public final class Values {
+    private final StringBuilder[] text = new StringBuilder[names.length];
+    private final byte[][] utf8 = new byte[names.length][];
+    private final int[] utf8Lengths = new int[names.length];
+    private final boolean[] set = new boolean[names.length];
+    // the segments of the thread rendering to segments (an Object, so the
+    // class loads without the jdk.incubator.foreign module)
+    private Object segments;
+
+    private Values() {
+      for (int slot = 0; slot < names.length; slot++) {
+        text[slot] = new StringBuilder(16);
+        utf8[slot] = new byte[16];
+      }
+    }
+
+    public TextTemplate template() {
+      return TextTemplate.this;
+    }
+
+    public Values set(String name, CharSequence value) {
+      return set(slot(name), value);
+    }
+
+    public Values set(String name, long value) {
+      return set(slot(name), value);
+    }
+
+    public Values set(String name, double value, int decimals) {
+      return set(slot(name), value, decimals);
+    }
+
+    /**
+     * @param slot  the slot
+     * @param value the value ({@code null} is rendered as "null")
+     * @return these values
+     */
+    public Values set(int slot, CharSequence value) {
+      StringBuilder builder = reset(slot);
+      builder.append(value);
+      return encode(slot);
+    }
+
+    public Values set(int slot, long value) {
+      StringBuilder builder = reset(slot);
+      builder.append(value);
+      return encode(slot);
+    }
+
+    /**
+     * @param slot     the slot
+     * @param value    the value
+     * @param decimals the number of decimals (the value is rounded half up)
+     * @return these values
+     * @throws IllegalArgumentException if the value is not finite, or too large
+     *                                  to be rendered with the decimals (its
+     *                                  scaled absolute value must be below
+     *                                  2<sup>63</sup>)
+     */
+    public Values set(int slot, double value, int decimals) {
+      if (!Double.isFinite(value) || decimals < 0 || decimals > 9)
+        throw new IllegalArgumentException("Unsupported value " + value + " with " + decimals + " decimals");
+      long scale = 1;
+      for (int d = 0; d < decimals; d++)
+        scale *= 10;
+      // Math.round would saturate at Long.MAX_VALUE and render a wrong number
+      if (!(Math.abs(value) * scale < 0x1p63))
+        throw new IllegalArgumentException("Unsupported value " + value + " with " + decimals + " decimals");
+      long scaled = Math.round(Math.abs(value) * scale);
+
+      StringBuilder builder = reset(slot);
+      if (value < 0 && scaled != 0)
+        builder.append('-');
+      builder.append(scaled / scale);
+      if (decimals > 0) {
+        builder.append('.');
+        long fraction = scaled % scale;
+        for (long s = scale / 10; s > 1 && fraction < s; s /= 10)
+          builder.append('0');
+        builder.append(fraction);
+      }
+      return encode(slot);
+    }
+
+    /**
+     * @param out the destination
+     * @throws IOException           if the destination fails
+     * @throws IllegalStateException if a slot is not set
+     */
+    public void renderTo(Appendable out) throws IOException {
+      for (int i = 0; i < slots.length; i++)
+        out.append(chunks[i]).append(text[checkSet(slots[i])]);
+      out.append(chunks[slots.length]);
+    }
+
+    /**
+     * @param out the destination (UTF-8)
+     * @throws java.nio.BufferOverflowException if the buffer is too small
+     * @throws IllegalStateException            if a slot is not set
+     */
+    public void renderTo(ByteBuffer out) {
+      for (int i = 0; i < slots.length; i++) {
+        out.put(utf8Chunks, chunkOffsets[i], chunkLength(i));
+        int slot = checkSet(slots[i]);
+        out.put(utf8[slot], 0, utf8Lengths[slot]);
+      }
+      out.put(utf8Chunks, chunkOffsets[slots.length], chunkLength(slots.length));
+    }
+
+    /**
+     * Renders in a segment owned by the calling thread. Needs the
+     * {@code jdk.incubator.foreign} module.
+     *
+     * @param segment the destination (UTF-8)
+     * @param offset  where to write in the segment
+     * @return the offset after the rendered text
+     * @throws IndexOutOfBoundsException if the segment is too small
+     * @throws IllegalStateException     if a slot is not set
+     */
+    public long renderTo(MemorySegment segment, long offset) {
+      return SegmentWriter.render(this, segment, offset);
+    }
+
+    /**
+     * @return the number of bytes {@link #renderTo(ByteBuffer)} would write
+     */
+    public int utf8Length() {
+      int length = utf8Chunks.length;
+      for (int i = 0; i < slots.length; i++)
+        length += utf8Lengths[checkSet(slots[i])];
+      return length;
+    }
+
+    private StringBuilder reset(int slot) {
+      StringBuilder builder = text[slot];
+      builder.setLength(0);
+      return builder;
+    }
+
+    /**
+     * Encodes the text of the slot in UTF-8, without going through a
+     * {@code String}.
+     */
+    private Values encode(int slot) {
+      StringBuilder builder = text[slot];
+      byte[] bytes = utf8[slot];
+      if (bytes.length < builder.length() * 3)
+        bytes = utf8[slot] = Arrays.copyOf(bytes, builder.length() * 3);
+      int length = 0;
+      for (int i = 0; i < builder.length(); i++) {
+        char c = builder.charAt(i);
+        if (c < 0x80) {
+          bytes[length++] = (byte) c;
+        } else if (c < 0x800) {
+          bytes[length++] = (byte) (0xC0 | c >> 6);
+          bytes[length++] = (byte) (0x80 | c & 0x3F);
+        } else if (Character.isHighSurrogate(c) && i + 1 < builder.length()
+            && Character.isLowSurrogate(builder.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(c, builder.charAt(++i));
+          bytes[length++] = (byte) (0xF0 | codePoint >> 18);
+          bytes[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+          bytes[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+          bytes[length++] = (byte) (0x80 | codePoint & 0x3F);
+        } else if (Character.isSurrogate(c)) {
+          // a lone surrogate, like String.getBytes
+          bytes[length++] = '?';
+        } else {
+          bytes[length++] = (byte) (0xE0 | c >> 12);
+          bytes[length++] = (byte) (0x80 | c >> 6 & 0x3F);
+          bytes[length++] = (byte) (0x80 | c & 0x3F);
+        }
+      }
+      utf8Lengths[slot] = length;
+      set[slot] = true;
+      return this;
+    }
+
+    private int checkSet(int slot) {
+      if (!set[slot])
+        throw new IllegalStateException("The slot '" + names[slot] + "' is not set");
+      return slot;
+    }
+  }
+
+  /**
+   * The memory segment part, in its own class so the template can be used
+   * without the {@code jdk.incubator.foreign} module. The chunks and the
+   * encoded values are wrapped in heap segments once per thread (a segment is
+   * confined to the thread that created it) and copied with
+   * {@link MemoryAddress#copy(MemoryAddress, MemoryAddress, long)}.
+   */
+  private static final class SegmentWriter {
+    private final Thread owner = Thread.currentThread();
+    private final MemorySegment chunks;
+    // the wrapped arrays (a value array is replaced when it grows)
+    private final byte[][] wrapped;
+    private final MemorySegment[] values;
+
+    private SegmentWriter(Values values) {
+      chunks = MemorySegment.ofArray(values.template().utf8Chunks);
+      wrapped = new byte[values.utf8.length][];
+      this.values = new MemorySegment[values.utf8.length];
+    }
+
+    private static long render(Values values, MemorySegment segment, long offset) {
+      SegmentWriter writer = (SegmentWriter) values.segments;
+      if (writer == null || writer.owner != Thread.currentThread())
+        values.segments = writer = new SegmentWriter(values);
+
+      TextTemplate template = values.template();
+      MemoryAddress chunksBase = writer.chunks.baseAddress();
+      MemoryAddress base = segment.baseAddress();
+      long position = offset;
+      for (int i = 0; i < template.slots.length; i++) {
+        position = copy(chunksBase.addOffset(template.chunkOffsets[i]), base, position, template.chunkLength(i));
+        int slot = values.checkSet(template.slots[i]);
+        position = copy(writer.value(values.utf8[slot], slot), base, position, values.utf8Lengths[slot]);
+      }
+      return copy(chunksBase.addOffset(template.chunkOffsets[template.slots.length]), base, position,
+          template.chunkLength(template.slots.length));
+    }
+
+    private MemoryAddress value(byte[] bytes, int slot) {
+      if (wrapped[slot] != bytes) {
+        values[slot] = MemorySegment.ofArray(bytes);
+        wrapped[slot] = bytes;
+      }
+      return values[slot].baseAddress();
+    }
+
+    private static long copy(MemoryAddress source, MemoryAddress base, long position, int length) {
+      if (length > 0)
+        MemoryAddress.copy(source, base.addOffset(position), length);
+      return position + length;
+    }
+  }
+}
@@ -0,0 +1,151 @@
+package com.github.kbnt.java14.tb;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+import jdk.incubator.foreign.MemorySegment;
+
+/**
+ * A small (not JMH, so take the numbers as approximations) benchmark writing
+ * the rows of a text report in UTF-8:
+ * <ul>
+ * <li>with {@code String.format} and {@code getBytes};
+ * <li>with a {@link TextTemplate} rendered to a {@code StringBuilder};
+ * <li>with a {@link TextTemplate} rendered to a {@code ByteBuffer};
+ * <li>with a {@link TextTemplate} rendered to a {@code MemorySegment}.
+ * </ul>
+ * All the cases write the same bytes (checked before the timing). We print the
+ * time and the bytes allocated per row by the benchmark thread.<br>
+ * <br>
+ * <b>Note</b>: the last case uses the Foreign-Memory Access API, so this
+ * benchmark needs {@code --add-modules=jdk.incubator.foreign}.
+ *
+ * @author <a href="mailto:tech.meshter@gmail.com">Chris T</a>
+ *
+ */
+public class TextTemplateBenchmark {
+  private static final int ROWS = 1000000;
+  private static final int ROUNDS = 5;
+  private static final String[] CITIES = { "New York", "Bucharest", "Indianapolis", "Z\u00fcrich" };
+
+  // no padding (the template has none) and the root locale (a decimal point)
+  private static final String FORMAT = """
+      | %s | %d | %.2f |
+      """;
+
+  // compiled when the class is initialized
+  private static final TextTemplate ROW = TextTemplate.compile("""
+      | ${city} | ${hours} | ${temperature} |
+      """);
+  private static final int CITY = ROW.slot("city");
+  private static final int HOURS = ROW.slot("hours");
+  private static final int TEMPERATURE = ROW.slot("temperature");
+
+  /**
+   * Writes one row somewhere.
+   */
+  @FunctionalInterface
+  private interface RowWriter {
+    void write(int row);
+  }
+
+  public static void main(String[] args) {
+    try {
+      TextTemplateBenchmark ttb = new TextTemplateBenchmark();
+      ttb.checkSameRows();
+
+      ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+      ttb.benchmark("String.format + getBytes", row -> {
+        byte[] bytes = String.format(Locale.ROOT, FORMAT, CITIES[row & 3], row, row * 0.37)
+            .getBytes(StandardCharsets.UTF_8);
+        if (buffer.remaining() < bytes.length)
+          buffer.clear();
+        buffer.put(bytes);
+      });
+
+      TextTemplate.Values values = ROW.values();
+      StringBuilder builder = new StringBuilder(64 * 1024);
+      ttb.benchmark("TextTemplate to a StringBuilder", row -> {
+        values.set(CITY, CITIES[row & 3]).set(HOURS, row).set(TEMPERATURE, row * 0.37, 2);
+        if (builder.length() > 60 * 1024)
+          builder.setLength(0);
+        try {
+          values.renderTo(builder);
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+
+      ttb.benchmark("TextTemplate to a ByteBuffer", row -> {
+        values.set(CITY, CITIES[row & 3]).set(HOURS, row).set(TEMPERATURE, row * 0.37, 2);
+        if (buffer.remaining() < values.utf8Length())
+          buffer.clear();
+        values.renderTo(buffer);
+      });
+
+      try (MemorySegment segment = MemorySegment.allocateNative(64 * 1024)) {
+        long[] offset = { 0 };
+        ttb.benchmark("TextTemplate to a MemorySegment", row -> {
+          values.set(CITY, CITIES[row & 3]).set(HOURS, row).set(TEMPERATURE, row * 0.37, 2);
+          if (segment.byteSize() - offset[0] < values.utf8Length())
+            offset[0] = 0;
+          offset[0] = values.renderTo(segment, offset[0]);
+        });
+      }
+    } catch (Throwable e) {
+      System.err.println("Oops, something went wrong with the benchmark:");
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Checks that the cases write the same bytes (a sample of the rows).
+   *
+   * @throws IOException never (a {@code StringBuilder} is appended to)
+   */
+  private void checkSameRows() throws IOException {
+    TextTemplate.Values values = ROW.values();
+    StringBuilder builder = new StringBuilder();
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    for (int row = 0; row < ROWS; row += 997) {
+      byte[] expected = String.format(Locale.ROOT, FORMAT, CITIES[row & 3], row, row * 0.37)
+          .getBytes(StandardCharsets.UTF_8);
+      values.set(CITY, CITIES[row & 3]).set(HOURS, row).set(TEMPERATURE, row * 0.37, 2);
+      builder.setLength(0);
+      values.renderTo(builder);
+      buffer.clear();
+      values.renderTo(buffer);
+      if (!Arrays.equals(expected, builder.toString().getBytes(StandardCharsets.UTF_8))
+          || !Arrays.equals(expected, 0, expected.length, buffer.array(), 0, buffer.position()))
+        throw new IllegalStateException("Different outputs for row " + row + ": "
+            + new String(expected, StandardCharsets.UTF_8) + " and " + builder);
+    }
+  }
+
+  private void insertExampleSeparator() {
+    System.err.println("==============================================");
+  }
+
+  private void benchmark(String name, RowWriter writer) {
+    insertExampleSeparator();
+    System.out.println("Benchmarking " + name + "...");
+
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    for (int round = 0; round < ROUNDS; round++) {
+      long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+      long start = System.nanoTime();
+      for (int row = 0; row < ROWS; row++)
+        writer.write(row);
+      long elapsed = System.nanoTime() - start;
+      long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+      System.out.println("Round " + round + ": " + ROWS + " rows in " + elapsed / 1000000 + " milliseconds ("
+          + (double) elapsed / ROWS + " ns and " + (double) allocated / ROWS + " bytes per row).");
+    }
+  }
+}